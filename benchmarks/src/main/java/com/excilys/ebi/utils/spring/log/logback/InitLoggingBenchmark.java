@@ -0,0 +1,116 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Latency of {@link LogbackConfigurer#initLogging(String)} for a small and a
+ * large generated XML configuration.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InitLoggingBenchmark {
+
+	/**
+	 * small = 10 loggers and 1 file appender, large = 500 loggers and 20 file
+	 * appenders
+	 */
+	@Param({ "small", "large" })
+	private String config;
+
+	private File directory;
+
+	private String location;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = File.createTempFile("spring-log-benchmark", "");
+		directory.delete();
+		directory.mkdirs();
+
+		boolean large = "large".equals(config);
+		File configFile = writeConfig(large ? 500 : 10, large ? 20 : 1);
+		location = "file:" + configFile.getAbsolutePath();
+	}
+
+	@TearDown
+	public void tearDown() {
+		LogbackConfigurer.shutdownLogging();
+		FileSystemUtils.deleteRecursively(directory);
+	}
+
+	@Benchmark
+	public void initLogging() throws Exception {
+		LogbackConfigurer.initLogging(location);
+	}
+
+	private File writeConfig(int loggers, int appenders) throws IOException {
+
+		File configFile = new File(directory, "logback-" + config + ".xml");
+		PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(configFile), "UTF-8"));
+
+		try {
+			writer.println("<configuration>");
+			for (int i = 0; i < appenders; i++) {
+				writer.println("\t<appender name=\"FILE" + i + "\" class=\"ch.qos.logback.core.FileAppender\">");
+				writer.println("\t\t<file>" + new File(directory, "file" + i + ".log").getAbsolutePath() + "</file>");
+				writer.println("\t\t<encoder>");
+				writer.println("\t\t\t<pattern>%d %level [%thread] %logger{36} - %msg%n</pattern>");
+				writer.println("\t\t</encoder>");
+				writer.println("\t</appender>");
+			}
+			for (int i = 0; i < loggers; i++) {
+				writer.println("\t<logger name=\"com.example.module" + (i % 20) + ".Class" + i + "\" level=\"" + (i % 2 == 0 ? "DEBUG" : "WARN") + "\" additivity=\"false\">");
+				writer.println("\t\t<appender-ref ref=\"FILE" + (i % appenders) + "\" />");
+				writer.println("\t</logger>");
+			}
+			writer.println("\t<root level=\"INFO\">");
+			writer.println("\t\t<appender-ref ref=\"FILE0\" />");
+			writer.println("\t</root>");
+			writer.println("</configuration>");
+		} finally {
+			writer.close();
+		}
+
+		return configFile;
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * End-to-end throughput of logging events to a file configured by
+ * {@link LogbackConfigurer}, with 1, 4 and as many threads as available
+ * processors.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggingThroughputBenchmark {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoggingThroughputBenchmark.class);
+
+	private File directory;
+
+	@Setup
+	public void setUp() throws Exception {
+		directory = File.createTempFile("spring-log-benchmark", "");
+		directory.delete();
+		directory.mkdirs();
+
+		System.setProperty("benchmark.log.directory", directory.getAbsolutePath());
+		LogbackConfigurer.initLogging("classpath:com/excilys/ebi/utils/spring/log/logback/logback-benchmark.xml");
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		LogbackConfigurer.shutdownLogging();
+		FileSystemUtils.deleteRecursively(directory);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void log1Thread() {
+		LOGGER.info("benchmark event {}", Thread.currentThread().getName());
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void log4Threads() {
+		LOGGER.info("benchmark event {}", Thread.currentThread().getName());
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public void logMaxThreads() {
+		LOGGER.info("benchmark event {}", Thread.currentThread().getName());
+	}
+}
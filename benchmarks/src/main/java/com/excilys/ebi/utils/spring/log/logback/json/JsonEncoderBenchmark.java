@@ -0,0 +1,108 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.MDC;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+/**
+ * Cost of encoding an event with {@link JsonEncoder}, compared with a
+ * {@link PatternLayoutEncoder} writing the same fields, to a stream discarding
+ * the bytes. Run with <code>-prof gc</code> to compare the allocation rates;
+ * creating the event, measured by {@link #newEvent()}, is part of both.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonEncoderBenchmark {
+
+	private static final OutputStream NULL_OUTPUT_STREAM = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	private Logger logger;
+
+	private JsonEncoder jsonEncoder;
+
+	private PatternLayoutEncoder patternLayoutEncoder;
+
+	@Setup
+	public void setUp() throws IOException {
+		LoggerContext loggerContext = new LoggerContext();
+		logger = loggerContext.getLogger(JsonEncoderBenchmark.class);
+		MDC.put("user", "joe");
+
+		jsonEncoder = new JsonEncoder();
+		jsonEncoder.setContext(loggerContext);
+		jsonEncoder.init(NULL_OUTPUT_STREAM);
+		jsonEncoder.start();
+
+		patternLayoutEncoder = new PatternLayoutEncoder();
+		patternLayoutEncoder.setContext(loggerContext);
+		patternLayoutEncoder.setPattern("%d{ISO8601} %level %logger %thread %msg %mdc%n");
+		patternLayoutEncoder.start();
+		patternLayoutEncoder.init(NULL_OUTPUT_STREAM);
+	}
+
+	@Benchmark
+	public LoggingEvent newEvent() {
+		return new LoggingEvent(Logger.class.getName(), logger, Level.INFO, "user {} ordered {} items", null, new Object[] { "joe", 3 });
+	}
+
+	@Benchmark
+	public LoggingEvent jsonEncoder() throws IOException {
+		LoggingEvent event = newEvent();
+		jsonEncoder.doEncode(event);
+		return event;
+	}
+
+	@Benchmark
+	public LoggingEvent patternLayoutEncoder() throws IOException {
+		LoggingEvent event = newEvent();
+		patternLayoutEncoder.doEncode(event);
+		return event;
+	}
+}
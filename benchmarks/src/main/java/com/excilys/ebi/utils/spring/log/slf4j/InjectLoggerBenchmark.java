@@ -0,0 +1,200 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.support.GenericApplicationContext;
+
+/**
+ * Throughput of {@link InjectLoggerAnnotationBeanPostProcessor} when getting
+ * singleton, prototype and deep hierarchy beans from a Spring context.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InjectLoggerBenchmark {
+
+	private GenericApplicationContext context;
+
+	private InjectLoggerAnnotationBeanPostProcessor processor;
+
+	private SingletonBean singletonBean;
+
+	@Setup
+	public void setUp() {
+		context = new GenericApplicationContext();
+		context.registerBeanDefinition("processor", new RootBeanDefinition(InjectLoggerAnnotationBeanPostProcessor.class));
+		context.registerBeanDefinition("singleton", new RootBeanDefinition(SingletonBean.class));
+		context.registerBeanDefinition("prototype", prototype(PrototypeBean.class));
+		context.registerBeanDefinition("generatedPrototype", prototype(GeneratedPrototypeBean.class));
+		context.registerBeanDefinition("deepHierarchy", prototype(DeepHierarchyBean.class));
+		context.refresh();
+
+		processor = context.getBean(InjectLoggerAnnotationBeanPostProcessor.class);
+		singletonBean = context.getBean(SingletonBean.class);
+	}
+
+	private static BeanDefinition prototype(Class<?> beanClass) {
+		RootBeanDefinition definition = new RootBeanDefinition(beanClass);
+		definition.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+		return definition;
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	/**
+	 * Post processing of an already instantiated singleton
+	 */
+	@Benchmark
+	public Object singleton() {
+		return processor.postProcessBeforeInitialization(singletonBean, "singleton");
+	}
+
+	/**
+	 * Prototype with a private field, injected with reflection
+	 */
+	@Benchmark
+	public Object prototype() {
+		return context.getBean("prototype");
+	}
+
+	/**
+	 * Prototype with a package private field, injected with the generated
+	 * LoggerInjector
+	 */
+	@Benchmark
+	public Object generatedPrototype() {
+		return context.getBean("generatedPrototype");
+	}
+
+	/**
+	 * Prototype with an InjectLogger field on each level of a 6 classes
+	 * hierarchy
+	 */
+	@Benchmark
+	public Object deepHierarchy() {
+		return context.getBean("deepHierarchy");
+	}
+
+	public static class SingletonBean {
+
+		@InjectLogger
+		private Logger logger;
+
+		public Logger getLogger() {
+			return logger;
+		}
+	}
+
+	public static class PrototypeBean {
+
+		@InjectLogger
+		private Logger logger;
+
+		public Logger getLogger() {
+			return logger;
+		}
+	}
+
+	public static class GeneratedPrototypeBean {
+
+		@InjectLogger
+		Logger logger;
+	}
+
+	public static class Level1Bean {
+
+		@InjectLogger
+		private Logger logger1;
+
+		public Logger getLogger1() {
+			return logger1;
+		}
+	}
+
+	public static class Level2Bean extends Level1Bean {
+
+		@InjectLogger
+		private Logger logger2;
+
+		public Logger getLogger2() {
+			return logger2;
+		}
+	}
+
+	public static class Level3Bean extends Level2Bean {
+
+		@InjectLogger
+		private Logger logger3;
+
+		public Logger getLogger3() {
+			return logger3;
+		}
+	}
+
+	public static class Level4Bean extends Level3Bean {
+
+		@InjectLogger
+		private Logger logger4;
+
+		public Logger getLogger4() {
+			return logger4;
+		}
+	}
+
+	public static class Level5Bean extends Level4Bean {
+
+		@InjectLogger
+		private Logger logger5;
+
+		public Logger getLogger5() {
+			return logger5;
+		}
+	}
+
+	public static class DeepHierarchyBean extends Level5Bean {
+
+		@InjectLogger
+		private Logger logger6;
+
+		public Logger getLogger6() {
+			return logger6;
+		}
+	}
+}
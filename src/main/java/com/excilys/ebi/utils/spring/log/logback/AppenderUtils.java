@@ -0,0 +1,79 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.spi.AppenderAttachable;
+
+/**
+ * Helper methods for walking the appenders of a LoggerContext.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public final class AppenderUtils {
+
+	private AppenderUtils() {
+	}
+
+	/**
+	 * All the appenders attached to the loggers of a context, and to these
+	 * appenders if they are themselves attachable
+	 * 
+	 * @param loggerContext
+	 *            the LoggerContext
+	 * @return the appenders, compared by identity
+	 */
+	public static Set<Appender<ILoggingEvent>> collectAppenders(LoggerContext loggerContext) {
+		Set<Appender<ILoggingEvent>> appenders = Collections.newSetFromMap(new IdentityHashMap<Appender<ILoggingEvent>, Boolean>());
+		for (Logger logger : loggerContext.getLoggerList()) {
+			collectAppenders(appendersOf(logger), appenders);
+		}
+		return appenders;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void collectAppenders(Collection<Appender<ILoggingEvent>> roots, Set<Appender<ILoggingEvent>> appenders) {
+		for (Appender<ILoggingEvent> appender : roots) {
+			if (appenders.add(appender) && appender instanceof AppenderAttachable) {
+				collectAppenders(appendersOf((AppenderAttachable<ILoggingEvent>) appender), appenders);
+			}
+		}
+	}
+
+	/**
+	 * @param attachable
+	 *            a logger or an attachable appender
+	 * @return the appenders directly attached to it
+	 */
+	public static List<Appender<ILoggingEvent>> appendersOf(AppenderAttachable<ILoggingEvent> attachable) {
+		List<Appender<ILoggingEvent>> appenders = new ArrayList<Appender<ILoggingEvent>>();
+		for (Iterator<Appender<ILoggingEvent>> it = attachable.iteratorForAppenders(); it.hasNext();) {
+			appenders.add(it.next());
+		}
+		return appenders;
+	}
+}
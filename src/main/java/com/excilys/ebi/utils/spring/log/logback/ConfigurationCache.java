@@ -0,0 +1,548 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.springframework.util.FileCopyUtils;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.LocatorImpl;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.joran.event.SaxEvent;
+import ch.qos.logback.core.joran.event.SaxEventRecorder;
+import ch.qos.logback.core.joran.spi.JoranException;
+import ch.qos.logback.core.spi.ContextAwareBase;
+import ch.qos.logback.core.util.Loader;
+
+/**
+ * On disk cache of parsed XML configurations, so that later starts replay the
+ * recorded configuration instead of parsing XML.
+ * <p>
+ * Entries are keyed by the configuration URL and validated against the MD5
+ * hash of its content and of the content of its includes: any change causes a
+ * full parse, and the entry to be rewritten. The include locations are
+ * resolved again when validating, and the entry is rewritten if one of them
+ * now resolves to another file.
+ * <p>
+ * Only the <code>include</code> elements whose location is a literal are
+ * inlined in the recorded configuration. The ones referencing variables are
+ * left to Joran's IncludeAction : the cache is read before the context is
+ * reset, so the variables would be resolved against the previous
+ * configuration, and the configuration file may redefine them.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+class ConfigurationCache extends ContextAwareBase {
+
+	private static final int FORMAT_VERSION = 3;
+
+	private static final String INCLUDE_TAG = "include";
+
+	private static final String INCLUDED_TAG = "included";
+
+	private static final String[] INCLUDE_ATTRIBUTES = { "file", "url", "resource" };
+
+	private static final int MAX_INCLUDE_DEPTH = 10;
+
+	private static final byte START = 1;
+
+	private static final byte CHARACTERS = 2;
+
+	private static final byte END = 3;
+
+	private final File directory;
+
+	public ConfigurationCache(File directory, LoggerContext loggerContext) {
+		this.directory = directory;
+		setContext(loggerContext);
+	}
+
+	/**
+	 * Record the given configuration file, from the cache if it's up to date,
+	 * otherwise by parsing it and caching the result.
+	 */
+	public RecordedConfiguration record(URL url) throws JoranException {
+
+		File cacheFile = getCacheFile(url);
+		Model model = null;
+
+		if (cacheFile.isFile()) {
+			try {
+				model = readModel(cacheFile, url);
+			} catch (IOException e) {
+				addWarn("Could not read configuration cache " + cacheFile, e);
+			}
+		}
+
+		if (model == null) {
+			model = parseModel(url);
+			try {
+				writeModel(cacheFile, model);
+			} catch (IOException e) {
+				addWarn("Could not write configuration cache " + cacheFile, e);
+			}
+		} else {
+			addInfo("Replaying cached configuration of [" + url + "] from " + cacheFile);
+		}
+
+		return new RecordedConfiguration(url, model.replay(), model.getIncludeUrls());
+	}
+
+	private File getCacheFile(URL url) {
+		return new File(directory, hash(url.toExternalForm().getBytes()) + ".cache");
+	}
+
+	private Model parseModel(URL url) throws JoranException {
+		try {
+			byte[] content = read(url);
+			Model model = new Model(url.toExternalForm(), hash(content));
+			model.nodes.addAll(parseNodes(url, content, model, 0));
+			return model;
+		} catch (IOException e) {
+			throw new JoranException("Could not read configuration " + url, e);
+		}
+	}
+
+	private List<Node> parseNodes(URL url, byte[] content, Model model, int depth) throws IOException, JoranException {
+
+		NodeRecorder recorder = new NodeRecorder();
+		try {
+			SAXParserFactory factory = SAXParserFactory.newInstance();
+			factory.setValidating(false);
+			factory.setNamespaceAware(true);
+			SAXParser parser = factory.newSAXParser();
+			InputSource source = new InputSource(new ByteArrayInputStream(content));
+			source.setSystemId(url.toExternalForm());
+			parser.parse(source, recorder);
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			// parser configuration or SAX error
+			throw new JoranException("Could not parse configuration " + url, e);
+		}
+
+		if (depth >= MAX_INCLUDE_DEPTH) {
+			return recorder.nodes;
+		}
+
+		// inline the includes that can be resolved now
+		List<Node> nodes = new ArrayList<Node>();
+		boolean skipIncludeEnd = false;
+		for (Node node : recorder.nodes) {
+			if (node.type == START && INCLUDE_TAG.equalsIgnoreCase(node.tagName())) {
+				String[] location = includeLocation(node);
+				URL includeUrl = location != null ? resolveInclude(location[0], location[1]) : null;
+				byte[] includeContent = null;
+				if (includeUrl != null) {
+					try {
+						includeContent = read(includeUrl);
+					} catch (IOException e) {
+						addWarn("Could not read include [" + includeUrl + "], leaving it to Joran", e);
+					}
+				}
+				if (includeContent != null) {
+					model.includes.add(new Include(location[0], location[1], includeUrl.toExternalForm(), hash(includeContent)));
+					List<Node> included = parseNodes(includeUrl, includeContent, model, depth + 1);
+					// strip the included root element
+					if (!included.isEmpty() && INCLUDED_TAG.equalsIgnoreCase(included.get(0).tagName())) {
+						included = included.subList(1, included.size() - 1);
+					}
+					nodes.addAll(included);
+					skipIncludeEnd = true;
+					continue;
+				}
+			} else if (node.type == END && skipIncludeEnd && INCLUDE_TAG.equalsIgnoreCase(node.tagName())) {
+				skipIncludeEnd = false;
+				continue;
+			}
+			nodes.add(node);
+		}
+		return nodes;
+	}
+
+	/**
+	 * @return the name and the raw value of the attribute giving the location
+	 *         of the included file, or null
+	 */
+	private String[] includeLocation(Node node) {
+		for (String attributeName : INCLUDE_ATTRIBUTES) {
+			for (String[] attribute : node.attributes) {
+				if (attributeName.equals(attribute[2]) || attributeName.equals(attribute[1])) {
+					return new String[] { attributeName, attribute[4] };
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param attributeName
+	 *            file, url or resource
+	 * @param location
+	 *            the raw location
+	 * @return the URL of the included file, or null if it's left to Joran
+	 */
+	private URL resolveInclude(String attributeName, String location) {
+		if (location.contains("${")) {
+			return null;
+		}
+
+		try {
+			if ("file".equals(attributeName)) {
+				File includeFile = new File(location);
+				return includeFile.isFile() ? includeFile.toURI().toURL() : null;
+			} else if ("url".equals(attributeName)) {
+				return new URL(location);
+			} else {
+				return Loader.getResourceBySelfClassLoader(location);
+			}
+		} catch (IOException e) {
+			addWarn("Could not resolve include, leaving it to Joran", e);
+			return null;
+		}
+	}
+
+	private Model readModel(File cacheFile, URL url) throws IOException {
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+		try {
+			if (in.readInt() != FORMAT_VERSION) {
+				return null;
+			}
+
+			Model model = new Model(readString(in), readString(in));
+			if (!model.url.equals(url.toExternalForm()) || !model.hash.equals(hash(read(url)))) {
+				return null;
+			}
+
+			int includeCount = in.readInt();
+			for (int i = 0; i < includeCount; i++) {
+				Include include = new Include(readString(in), readString(in), readString(in), readString(in));
+				// the file may have disappeared or the classpath changed
+				URL includeUrl = resolveInclude(include.attributeName, include.location);
+				if (includeUrl == null || !includeUrl.toExternalForm().equals(include.url) || !include.hash.equals(hash(read(includeUrl)))) {
+					return null;
+				}
+				model.includes.add(include);
+			}
+
+			int nodeCount = in.readInt();
+			for (int i = 0; i < nodeCount; i++) {
+				Node node = new Node(in.readByte(), readString(in), readString(in), readString(in), readString(in), in.readInt(), in.readInt());
+				int attributeCount = in.readInt();
+				for (int j = 0; j < attributeCount; j++) {
+					node.attributes.add(new String[] { readString(in), readString(in), readString(in), readString(in), readString(in) });
+				}
+				model.nodes.add(node);
+			}
+			return model;
+
+		} finally {
+			in.close();
+		}
+	}
+
+	private void writeModel(File cacheFile, Model model) throws IOException {
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create directory " + directory);
+		}
+
+		// write then rename, so that concurrent starts never read a partial
+		// entry
+		File tmpFile = File.createTempFile("config", ".tmp", directory);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+		try {
+			out.writeInt(FORMAT_VERSION);
+			writeString(out, model.url);
+			writeString(out, model.hash);
+			out.writeInt(model.includes.size());
+			for (Include include : model.includes) {
+				writeString(out, include.attributeName);
+				writeString(out, include.location);
+				writeString(out, include.url);
+				writeString(out, include.hash);
+			}
+			out.writeInt(model.nodes.size());
+			for (Node node : model.nodes) {
+				out.writeByte(node.type);
+				writeString(out, node.uri);
+				writeString(out, node.localName);
+				writeString(out, node.qName);
+				writeString(out, node.text);
+				out.writeInt(node.line);
+				out.writeInt(node.column);
+				out.writeInt(node.attributes.size());
+				for (String[] attribute : node.attributes) {
+					for (String value : attribute) {
+						writeString(out, value);
+					}
+				}
+			}
+		} finally {
+			out.close();
+		}
+
+		if (!tmpFile.renameTo(cacheFile)) {
+			cacheFile.delete();
+			if (!tmpFile.renameTo(cacheFile)) {
+				tmpFile.delete();
+				throw new IOException("Could not rename " + tmpFile + " to " + cacheFile);
+			}
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes("UTF-8");
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static byte[] read(URL url) throws IOException {
+		InputStream in = url.openStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		FileCopyUtils.copy(in, out);
+		return out.toByteArray();
+	}
+
+	private static String hash(byte[] bytes) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(bytes);
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 is not supported", e);
+		}
+	}
+
+	/**
+	 * A parsed configuration
+	 */
+	private class Model {
+
+		private final String url;
+
+		private final String hash;
+
+		private final List<Include> includes = new ArrayList<Include>();
+
+		private final List<Node> nodes = new ArrayList<Node>();
+
+		public Model(String url, String hash) {
+			this.url = url;
+			this.hash = hash;
+		}
+
+		public List<URL> getIncludeUrls() {
+			List<URL> urls = new ArrayList<URL>();
+			for (Include include : includes) {
+				try {
+					urls.add(new URL(include.url));
+				} catch (IOException e) {
+					// was a valid URL when cached
+				}
+			}
+			return urls;
+		}
+
+		/**
+		 * Feed the nodes to a Joran recorder, as a SAX parser would do
+		 */
+		public List<SaxEvent> replay() {
+			SaxEventRecorder recorder = new SaxEventRecorder();
+			recorder.setContext(getContext());
+			recorder.startDocument();
+			for (Node node : nodes) {
+				LocatorImpl locator = new LocatorImpl();
+				locator.setSystemId(url);
+				locator.setLineNumber(node.line);
+				locator.setColumnNumber(node.column);
+				recorder.setDocumentLocator(locator);
+
+				if (node.type == START) {
+					AttributesImpl attributes = new AttributesImpl();
+					for (String[] attribute : node.attributes) {
+						attributes.addAttribute(attribute[0], attribute[1], attribute[2], attribute[3], attribute[4]);
+					}
+					recorder.startElement(node.uri, node.localName, node.qName, attributes);
+				} else if (node.type == CHARACTERS) {
+					recorder.characters(node.text.toCharArray(), 0, node.text.length());
+				} else {
+					recorder.endElement(node.uri, node.localName, node.qName);
+				}
+			}
+			return recorder.getSaxEventList();
+		}
+	}
+
+	/**
+	 * An inlined included file
+	 */
+	private static class Include {
+
+		private final String attributeName;
+
+		private final String location;
+
+		private final String url;
+
+		private final String hash;
+
+		public Include(String attributeName, String location, String url, String hash) {
+			this.attributeName = attributeName;
+			this.location = location;
+			this.url = url;
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * A SAX event
+	 */
+	private static class Node {
+
+		private final byte type;
+
+		private final String uri;
+
+		private final String localName;
+
+		private final String qName;
+
+		private final String text;
+
+		private final int line;
+
+		private final int column;
+
+		/**
+		 * uri, localName, qName, type, value
+		 */
+		private final List<String[]> attributes = new ArrayList<String[]>();
+
+		public Node(byte type, String uri, String localName, String qName, String text, int line, int column) {
+			this.type = type;
+			this.uri = uri;
+			this.localName = localName;
+			this.qName = qName;
+			this.text = text;
+			this.line = line;
+			this.column = column;
+		}
+
+		public String tagName() {
+			return localName != null && localName.length() > 0 ? localName : qName;
+		}
+	}
+
+	/**
+	 * Records SAX events as nodes, merging adjacent characters and dropping
+	 * blank ones like Joran does
+	 */
+	private static class NodeRecorder extends DefaultHandler {
+
+		private final List<Node> nodes = new ArrayList<Node>();
+
+		private Locator locator;
+
+		private StringBuilder characters;
+
+		private int charactersLine;
+
+		private int charactersColumn;
+
+		@Override
+		public void setDocumentLocator(Locator locator) {
+			this.locator = locator;
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+			flushCharacters();
+			Node node = new Node(START, uri, localName, qName, null, locator.getLineNumber(), locator.getColumnNumber());
+			for (int i = 0; i < attributes.getLength(); i++) {
+				node.attributes.add(new String[] { attributes.getURI(i), attributes.getLocalName(i), attributes.getQName(i), attributes.getType(i), attributes.getValue(i) });
+			}
+			nodes.add(node);
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			if (characters == null) {
+				characters = new StringBuilder();
+				charactersLine = locator.getLineNumber();
+				charactersColumn = locator.getColumnNumber();
+			}
+			characters.append(ch, start, length);
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			flushCharacters();
+			nodes.add(new Node(END, uri, localName, qName, null, locator.getLineNumber(), locator.getColumnNumber()));
+		}
+
+		private void flushCharacters() {
+			if (characters != null) {
+				String text = characters.toString();
+				if (text.trim().length() > 0) {
+					nodes.add(new Node(CHARACTERS, null, null, null, text, charactersLine, charactersColumn));
+				}
+				characters = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.util.ReflectionUtils;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.OutputStreamAppender;
+import ch.qos.logback.core.status.WarnStatus;
+
+/**
+ * Helper methods for draining the appenders of a LoggerContext before it's
+ * shut down, so that no pending event is lost.
+ * <p>
+ * The queues of the {@link QueueingAppender}s, such as
+ * {@link com.excilys.ebi.utils.spring.log.logback.async.RingBufferAsyncAppender}
+ * , are drained first, and then the output streams of the
+ * {@link OutputStreamAppender}s, where encoders may have buffered events, are
+ * flushed. Each phase runs in parallel across the
+ * appenders, and both share the same deadline.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public final class DrainUtils {
+
+	private static final Field LOCK_FIELD = ReflectionUtils.findField(OutputStreamAppender.class, "lock");
+
+	static {
+		ReflectionUtils.makeAccessible(LOCK_FIELD);
+	}
+
+	private DrainUtils() {
+	}
+
+	/**
+	 * Drain the queues and flush the output streams of the appenders of a
+	 * context, without stopping them.
+	 * 
+	 * @param loggerContext
+	 *            the LoggerContext
+	 * @param timeout
+	 *            how long to wait at most, in milliseconds
+	 * @return the number of dropped events: the ones the queueing appenders
+	 *         discarded, plus the ones still queued at the deadline
+	 */
+	public static long drain(LoggerContext loggerContext, long timeout) {
+
+		long deadline = System.currentTimeMillis() + timeout;
+
+		List<QueueingAppender> queueingAppenders = new ArrayList<QueueingAppender>();
+		List<OutputStreamAppender<ILoggingEvent>> outputStreamAppenders = new ArrayList<OutputStreamAppender<ILoggingEvent>>();
+		for (Appender<ILoggingEvent> appender : AppenderUtils.collectAppenders(loggerContext)) {
+			if (appender instanceof QueueingAppender) {
+				queueingAppenders.add((QueueingAppender) appender);
+			} else if (appender instanceof OutputStreamAppender) {
+				outputStreamAppenders.add((OutputStreamAppender<ILoggingEvent>) appender);
+			}
+		}
+
+		if (queueingAppenders.isEmpty() && outputStreamAppenders.isEmpty()) {
+			return 0;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(queueingAppenders.size(), outputStreamAppenders.size()), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "logback-drain");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		try {
+			long droppedCount = drainQueueingAppenders(executor, queueingAppenders, deadline);
+			flushOutputStreams(loggerContext, executor, outputStreamAppenders, deadline);
+			if (droppedCount > 0) {
+				loggerContext.getStatusManager().add(new WarnStatus(droppedCount + " events dropped while draining", loggerContext));
+			}
+			return droppedCount;
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			long droppedCount = 0;
+			for (QueueingAppender appender : queueingAppenders) {
+				droppedCount += appender.getDroppedCount() + appender.getQueueSize();
+			}
+			return droppedCount;
+
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static long drainQueueingAppenders(ExecutorService executor, List<QueueingAppender> appenders, final long deadline) throws InterruptedException {
+
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(appenders.size());
+		for (final QueueingAppender appender : appenders) {
+			tasks.add(new Callable<Integer>() {
+				public Integer call() {
+					return appender.drain(deadline - System.currentTimeMillis());
+				}
+			});
+		}
+
+		long droppedCount = 0;
+		List<Future<Integer>> futures = executor.invokeAll(tasks);
+		for (int i = 0; i < futures.size(); i++) {
+			QueueingAppender appender = appenders.get(i);
+			try {
+				droppedCount += appender.getDroppedCount() + futures.get(i).get();
+			} catch (ExecutionException e) {
+				droppedCount += appender.getDroppedCount() + appender.getQueueSize();
+			}
+		}
+		return droppedCount;
+	}
+
+	private static void flushOutputStreams(LoggerContext loggerContext, ExecutorService executor, List<OutputStreamAppender<ILoggingEvent>> appenders, long deadline)
+			throws InterruptedException {
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(appenders.size());
+		for (final OutputStreamAppender<ILoggingEvent> appender : appenders) {
+			tasks.add(new Callable<Void>() {
+				public Void call() throws Exception {
+					synchronized (ReflectionUtils.getField(LOCK_FIELD, appender)) {
+						OutputStream outputStream = appender.getOutputStream();
+						if (outputStream != null) {
+							outputStream.flush();
+						}
+					}
+					return null;
+				}
+			});
+		}
+
+		List<Future<Void>> futures = executor.invokeAll(tasks, Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+		for (int i = 0; i < futures.size(); i++) {
+			String appenderName = appenders.get(i).getName();
+			try {
+				futures.get(i).get();
+			} catch (CancellationException e) {
+				loggerContext.getStatusManager().add(new WarnStatus("Deadline exceeded while flushing appender " + appenderName, loggerContext));
+			} catch (ExecutionException e) {
+				loggerContext.getStatusManager().add(new WarnStatus("Failed to flush appender " + appenderName, loggerContext, e.getCause()));
+			}
+		}
+	}
+}
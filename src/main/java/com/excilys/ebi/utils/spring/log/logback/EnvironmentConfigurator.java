@@ -0,0 +1,296 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.springframework.core.env.PropertyResolver;
+import org.springframework.util.StringUtils;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.jul.LevelChangePropagator;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.ConsoleAppender;
+import ch.qos.logback.core.FileAppender;
+import ch.qos.logback.core.OutputStreamAppender;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.spi.ContextAwareBase;
+import ch.qos.logback.core.util.FileSize;
+
+import com.excilys.ebi.utils.spring.log.logback.async.OverflowPolicy;
+import com.excilys.ebi.utils.spring.log.logback.async.RingBufferAsyncAppender;
+import com.excilys.ebi.utils.spring.log.logback.async.WaitStrategy;
+import com.excilys.ebi.utils.spring.log.logback.json.JsonEncoder;
+
+/**
+ * Configures a {@link LoggerContext} directly from properties, typically the
+ * Spring {@link org.springframework.core.env.Environment}, without any XML
+ * parsing. Several applications can then share a single property source
+ * instead of each shipping its own XML file.
+ * <p>
+ * Supported properties, all optional:
+ * <ul>
+ * <li><code>logback.appenders</code>: comma separated appender names,
+ * "console" by default</li>
+ * <li><code>logback.appender.NAME.type</code>: "console" (default) or "file"</li>
+ * <li><code>logback.appender.NAME.target</code>: "System.out" (default) or
+ * "System.err", for console appenders</li>
+ * <li><code>logback.appender.NAME.file</code> and
+ * <code>logback.appender.NAME.append</code>: the file, required, and whether
+ * it's appended to, true by default, for file appenders</li>
+ * <li><code>logback.appender.NAME.encoder</code>: "pattern" (default) or
+ * "json", see {@link JsonEncoder}</li>
+ * <li><code>logback.appender.NAME.pattern</code>: the pattern of a pattern
+ * encoder, <code>logback.pattern</code> or {@link #DEFAULT_PATTERN} by
+ * default</li>
+ * <li><code>logback.appender.NAME.includeMdc</code>: for json encoders</li>
+ * <li><code>logback.appender.NAME.async</code>: wrap the appender into a
+ * {@link RingBufferAsyncAppender}, false by default, tuned with the
+ * <code>async.bufferSize</code>, <code>async.waitStrategy</code>,
+ * <code>async.overflowPolicy</code>, <code>async.discardingThreshold</code>,
+ * <code>async.includeCallerData</code>, <code>async.maxFlushTime</code>,
+ * <code>async.spillSize</code> and <code>async.spillFile</code> suffixes</li>
+ * <li><code>logback.root.level</code>: DEBUG by default</li>
+ * <li><code>logback.root.appenders</code>: all the appenders by default</li>
+ * <li><code>logback.loggers</code>: comma separated names of the configured
+ * loggers, each with its <code>logback.logger.NAME.level</code>,
+ * <code>logback.logger.NAME.additivity</code> and
+ * <code>logback.logger.NAME.appenders</code></li>
+ * <li><code>logback.julPropagation</code>: install a
+ * {@link LevelChangePropagator}, true by default</li>
+ * </ul>
+ * For example:
+ * <p>
+ * <code>
+ * logback.appenders=console,file
+ * logback.appender.file.type=file
+ * logback.appender.file.file=/var/log/app.log
+ * logback.appender.file.async=true
+ * logback.root.level=INFO
+ * logback.loggers=com.foo
+ * logback.logger.com.foo.level=DEBUG
+ * </code>
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class EnvironmentConfigurator extends ContextAwareBase {
+
+	public static final String APPENDERS_PROPERTY = "logback.appenders";
+
+	public static final String APPENDER_PROPERTY_PREFIX = "logback.appender.";
+
+	public static final String PATTERN_PROPERTY = "logback.pattern";
+
+	public static final String ROOT_PROPERTY_PREFIX = "logback.root.";
+
+	public static final String LOGGERS_PROPERTY = "logback.loggers";
+
+	public static final String LOGGER_PROPERTY_PREFIX = "logback.logger.";
+
+	public static final String JUL_PROPAGATION_PROPERTY = "logback.julPropagation";
+
+	public static final String CONSOLE_TYPE = "console";
+
+	public static final String FILE_TYPE = "file";
+
+	public static final String PATTERN_ENCODER = "pattern";
+
+	public static final String JSON_ENCODER = "json";
+
+	public static final String DEFAULT_PATTERN = "%d{HH:mm:ss.SSS} [%thread] %-5level %logger{36} - %msg%n";
+
+	/**
+	 * Suffix of the name of the appender wrapped into an asynchronous one
+	 */
+	private static final String SYNC_APPENDER_SUFFIX = "-sync";
+
+	private final PropertyResolver propertyResolver;
+
+	public EnvironmentConfigurator(PropertyResolver propertyResolver, LoggerContext loggerContext) {
+		this.propertyResolver = propertyResolver;
+		setContext(loggerContext);
+	}
+
+	/**
+	 * Configure the context, that is expected to have been reset.
+	 * 
+	 * @throws IllegalStateException
+	 *             if a required property is missing
+	 * @throws IllegalArgumentException
+	 *             if a property has an unsupported value
+	 */
+	public void configure() {
+
+		LoggerContext loggerContext = (LoggerContext) getContext();
+
+		if (propertyResolver.getProperty(JUL_PROPAGATION_PROPERTY, Boolean.class, Boolean.TRUE)) {
+			LevelChangePropagator propagator = new LevelChangePropagator();
+			propagator.setContext(loggerContext);
+			propagator.setResetJUL(true);
+			propagator.start();
+			loggerContext.addListener(propagator);
+		}
+
+		Map<String, Appender<ILoggingEvent>> appenders = new LinkedHashMap<String, Appender<ILoggingEvent>>();
+		for (String name : getList(APPENDERS_PROPERTY, CONSOLE_TYPE)) {
+			appenders.put(name, buildAppender(name));
+		}
+
+		String allAppenders = StringUtils.collectionToCommaDelimitedString(appenders.keySet());
+		configureLogger(loggerContext.getLogger(Logger.ROOT_LOGGER_NAME), ROOT_PROPERTY_PREFIX, Level.DEBUG.toString(), allAppenders, appenders);
+
+		for (String name : getList(LOGGERS_PROPERTY, null)) {
+			configureLogger(loggerContext.getLogger(name), LOGGER_PROPERTY_PREFIX + name + ".", null, null, appenders);
+		}
+
+		addInfo("Configured from properties with appenders " + appenders.keySet());
+	}
+
+	private void configureLogger(ch.qos.logback.classic.Logger logger, String prefix, String defaultLevel, String defaultAppenders,
+			Map<String, Appender<ILoggingEvent>> appenders) {
+
+		String level = propertyResolver.getProperty(prefix + "level", defaultLevel);
+		if (level != null) {
+			// same semantic as Joran's LevelAction
+			logger.setLevel("INHERITED".equalsIgnoreCase(level) || "NULL".equalsIgnoreCase(level) ? null : Level.toLevel(level, Level.DEBUG));
+		}
+
+		Boolean additivity = propertyResolver.getProperty(prefix + "additivity", Boolean.class);
+		if (additivity != null) {
+			logger.setAdditive(additivity);
+		}
+
+		for (String name : getList(prefix + "appenders", defaultAppenders)) {
+			Appender<ILoggingEvent> appender = appenders.get(name);
+			if (appender != null) {
+				logger.addAppender(appender);
+			} else {
+				addError("Could not find an appender named [" + name + "]. Did you declare it in the " + APPENDERS_PROPERTY + " property?");
+			}
+		}
+	}
+
+	private Appender<ILoggingEvent> buildAppender(String name) {
+
+		String prefix = APPENDER_PROPERTY_PREFIX + name + ".";
+		boolean async = propertyResolver.getProperty(prefix + "async", Boolean.class, Boolean.FALSE);
+		String type = propertyResolver.getProperty(prefix + "type", CONSOLE_TYPE);
+
+		OutputStreamAppender<ILoggingEvent> appender;
+		if (CONSOLE_TYPE.equals(type)) {
+			ConsoleAppender<ILoggingEvent> consoleAppender = new ConsoleAppender<ILoggingEvent>();
+			consoleAppender.setTarget(propertyResolver.getProperty(prefix + "target", "System.out"));
+			appender = consoleAppender;
+
+		} else if (FILE_TYPE.equals(type)) {
+			FileAppender<ILoggingEvent> fileAppender = new FileAppender<ILoggingEvent>();
+			fileAppender.setFile(propertyResolver.getRequiredProperty(prefix + "file"));
+			fileAppender.setAppend(propertyResolver.getProperty(prefix + "append", Boolean.class, Boolean.TRUE));
+			appender = fileAppender;
+
+		} else {
+			throw new IllegalArgumentException("Unsupported type " + type + " for the appender named \"" + name + "\", expected one of "
+					+ Arrays.asList(CONSOLE_TYPE, FILE_TYPE));
+		}
+
+		appender.setContext(getContext());
+		appender.setName(async ? name + SYNC_APPENDER_SUFFIX : name);
+		appender.setEncoder(buildEncoder(name, prefix));
+		appender.start();
+
+		return async ? buildAsyncAppender(name, prefix + "async.", appender) : appender;
+	}
+
+	private Encoder<ILoggingEvent> buildEncoder(String name, String prefix) {
+
+		String type = propertyResolver.getProperty(prefix + "encoder", PATTERN_ENCODER);
+
+		if (PATTERN_ENCODER.equals(type)) {
+			PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+			encoder.setContext(getContext());
+			encoder.setPattern(propertyResolver.getProperty(prefix + "pattern", propertyResolver.getProperty(PATTERN_PROPERTY, DEFAULT_PATTERN)));
+			encoder.start();
+			return encoder;
+
+		} else if (JSON_ENCODER.equals(type)) {
+			JsonEncoder encoder = new JsonEncoder();
+			encoder.setContext(getContext());
+			Boolean includeMdc = propertyResolver.getProperty(prefix + "includeMdc", Boolean.class);
+			if (includeMdc != null) {
+				encoder.setIncludeMdc(includeMdc);
+			}
+			encoder.start();
+			return encoder;
+		}
+
+		throw new IllegalArgumentException("Unsupported encoder " + type + " for the appender named \"" + name + "\", expected one of "
+				+ Arrays.asList(PATTERN_ENCODER, JSON_ENCODER));
+	}
+
+	private Appender<ILoggingEvent> buildAsyncAppender(String name, String prefix, Appender<ILoggingEvent> appender) {
+
+		RingBufferAsyncAppender asyncAppender = new RingBufferAsyncAppender();
+		asyncAppender.setContext(getContext());
+		asyncAppender.setName(name);
+
+		Integer bufferSize = propertyResolver.getProperty(prefix + "bufferSize", Integer.class);
+		if (bufferSize != null) {
+			asyncAppender.setBufferSize(bufferSize);
+		}
+		WaitStrategy waitStrategy = propertyResolver.getProperty(prefix + "waitStrategy", WaitStrategy.class);
+		if (waitStrategy != null) {
+			asyncAppender.setWaitStrategy(waitStrategy);
+		}
+		OverflowPolicy overflowPolicy = propertyResolver.getProperty(prefix + "overflowPolicy", OverflowPolicy.class);
+		if (overflowPolicy != null) {
+			asyncAppender.setOverflowPolicy(overflowPolicy);
+		}
+		String discardingThreshold = propertyResolver.getProperty(prefix + "discardingThreshold");
+		if (discardingThreshold != null) {
+			asyncAppender.setDiscardingThreshold(Level.toLevel(discardingThreshold));
+		}
+		Boolean includeCallerData = propertyResolver.getProperty(prefix + "includeCallerData", Boolean.class);
+		if (includeCallerData != null) {
+			asyncAppender.setIncludeCallerData(includeCallerData);
+		}
+		Integer maxFlushTime = propertyResolver.getProperty(prefix + "maxFlushTime", Integer.class);
+		if (maxFlushTime != null) {
+			asyncAppender.setMaxFlushTime(maxFlushTime);
+		}
+		String spillSize = propertyResolver.getProperty(prefix + "spillSize");
+		if (spillSize != null) {
+			asyncAppender.setSpillSize(FileSize.valueOf(spillSize));
+		}
+		asyncAppender.setSpillFile(propertyResolver.getProperty(prefix + "spillFile"));
+
+		asyncAppender.addAppender(appender);
+		asyncAppender.start();
+		return asyncAppender;
+	}
+
+	private List<String> getList(String key, String defaultValue) {
+		String value = propertyResolver.getProperty(key, defaultValue);
+		return value != null ? Arrays.asList(StringUtils.tokenizeToStringArray(value, ",")) : Collections.<String> emptyList();
+	}
+}
@@ -0,0 +1,435 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.xml.sax.Attributes;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.joran.JoranConfigurator;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggerContextListener;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.joran.action.ActionConst;
+import ch.qos.logback.core.joran.event.BodyEvent;
+import ch.qos.logback.core.joran.event.EndEvent;
+import ch.qos.logback.core.joran.event.SaxEvent;
+import ch.qos.logback.core.joran.event.StartEvent;
+import ch.qos.logback.core.joran.spi.JoranException;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.util.OptionHelper;
+
+/**
+ * Applies a new XML configuration to a live {@link LoggerContext} without
+ * resetting it: appenders whose definition didn't change are kept open, and
+ * only the differences in logger levels, additivity and appenders are
+ * applied.
+ * <p>
+ * The configuration is split into its top level elements:
+ * <ul>
+ * <li>new or modified appenders, properties and context level elements
+ * (context name, listeners, turbo filters...) are interpreted on the live
+ * context, appender references being resolved against the kept appenders</li>
+ * <li>loggers and root are interpreted on a scratch context, that is then
+ * compared with the live one</li>
+ * </ul>
+ * Configurations with <code>include</code> or <code>if</code> elements, or
+ * contexts that were not configured from an XML file, are fully reset and
+ * reconfigured instead.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+class IncrementalConfigurator {
+
+	/**
+	 * Context object key for the appender fingerprints of the last applied
+	 * configuration
+	 */
+	static final String APPENDER_FINGERPRINTS_KEY = IncrementalConfigurator.class.getName() + ".APPENDER_FINGERPRINTS";
+
+	private static final String CONFIGURATION_TAG = "configuration";
+
+	private static final String LOGGER_TAG = "logger";
+
+	private static final String ROOT_TAG = "root";
+
+	private static final String APPENDER_REF_TAG = "appender-ref";
+
+	private static final String NAME_ATTRIBUTE = "name";
+
+	/**
+	 * Elements defining properties, needed for both the live and the scratch
+	 * contexts
+	 */
+	private static final Set<String> PROPERTY_TAGS = lowerCase("property", "variable", "substitutionProperty", "define", "timestamp", "insertFromJNDI");
+
+	/**
+	 * Elements applying to the context itself, only interpreted on the live
+	 * context
+	 */
+	private static final Set<String> CONTEXT_TAGS = lowerCase("contextName", "contextListener", "turboFilter", "conversionRule", "newRule", "evaluator", "jmxConfigurator");
+
+	/**
+	 * Elements only taken into account by the initial configuration
+	 */
+	private static final Set<String> IGNORED_TAGS = lowerCase("statusListener", "consolePlugin");
+
+	private final LoggerContext loggerContext;
+
+	public IncrementalConfigurator(LoggerContext loggerContext) {
+		this.loggerContext = loggerContext;
+	}
+
+	private static Set<String> lowerCase(String... tags) {
+		Set<String> set = new HashSet<String>();
+		for (String tag : tags) {
+			set.add(tag.toLowerCase());
+		}
+		return set;
+	}
+
+	/**
+	 * Remember the appender definitions of the configuration that was just
+	 * fully applied on the context, so that the next {@link #reconfigure(RecordedConfiguration)}
+	 * can be incremental.
+	 */
+	public void registerConfiguration() {
+		JoranConfigurator configurator = newConfigurator();
+		List<SaxEvent> events = configurator.recallSafeConfiguration();
+		List<Element> elements = events != null ? split(events) : null;
+		loggerContext.putObject(APPENDER_FINGERPRINTS_KEY, elements != null ? fingerprintAppenders(elements) : null);
+	}
+
+	/**
+	 * Apply the given configuration.
+	 */
+	public void reconfigure(RecordedConfiguration configuration) throws JoranException {
+
+		List<Element> elements = split(configuration.getEvents());
+		@SuppressWarnings("unchecked")
+		Map<String, String> previousFingerprints = (Map<String, String>) loggerContext.getObject(APPENDER_FINGERPRINTS_KEY);
+
+		if (elements == null || previousFingerprints == null) {
+			loggerContext.reset();
+			configuration.configure(loggerContext);
+			loggerContext.putObject(APPENDER_FINGERPRINTS_KEY, elements != null ? fingerprintAppenders(elements) : null);
+			return;
+		}
+
+		Map<String, String> fingerprints = fingerprintAppenders(elements);
+
+		// appenders currently in use, by name
+		Set<Appender<ILoggingEvent>> oldAppenders = AppenderUtils.collectAppenders(loggerContext);
+		Map<String, Appender<ILoggingEvent>> keptAppenders = new HashMap<String, Appender<ILoggingEvent>>();
+		for (Appender<ILoggingEvent> appender : oldAppenders) {
+			String name = appender.getName();
+			if (name != null && fingerprints.containsKey(name) && fingerprints.get(name).equals(previousFingerprints.get(name))) {
+				keptAppenders.put(name, appender);
+			}
+		}
+
+		// phase 1 : context elements and new or modified appenders on the live
+		// context, same as a reset would do for turbo filters and listeners,
+		// all being notified and reset resistant ones being kept
+		loggerContext.resetTurboFilterList();
+		for (LoggerContextListener listener : loggerContext.getCopyOfListenerList()) {
+			listener.onReset(loggerContext);
+			if (!listener.isResetResistant()) {
+				loggerContext.removeListener(listener);
+			}
+		}
+
+		List<SaxEvent> liveEvents = new ArrayList<SaxEvent>();
+		List<SaxEvent> scratchEvents = new ArrayList<SaxEvent>();
+		Element root = elements.get(0);
+		liveEvents.add(root.events.get(0));
+		scratchEvents.add(root.events.get(0));
+		for (Element element : elements.subList(1, elements.size())) {
+			if (PROPERTY_TAGS.contains(element.tag)) {
+				liveEvents.addAll(element.events);
+				scratchEvents.addAll(element.events);
+			} else if (CONTEXT_TAGS.contains(element.tag) || (isAppender(element) && !keptAppenders.containsKey(element.appenderName))) {
+				liveEvents.addAll(element.events);
+			} else if (LOGGER_TAG.equals(element.tag) || ROOT_TAG.equals(element.tag)) {
+				scratchEvents.addAll(element.events);
+			}
+		}
+		liveEvents.add(root.events.get(root.events.size() - 1));
+		scratchEvents.add(root.events.get(root.events.size() - 1));
+
+		configuration.informContext(loggerContext);
+		AppenderBagConfigurator liveConfigurator = new AppenderBagConfigurator(keptAppenders);
+		liveConfigurator.setContext(loggerContext);
+		liveConfigurator.doConfigure(liveEvents);
+
+		// phase 2 : loggers on a scratch context, referencing the live
+		// appenders
+		LoggerContext scratchContext = new LoggerContext();
+		scratchContext.setName(loggerContext.getName());
+		for (Map.Entry<String, String> property : loggerContext.getCopyOfPropertyMap().entrySet()) {
+			scratchContext.putProperty(property.getKey(), property.getValue());
+		}
+		AppenderBagConfigurator scratchConfigurator = new AppenderBagConfigurator(liveConfigurator.getAppenderBag());
+		scratchConfigurator.setContext(scratchContext);
+		scratchConfigurator.doConfigure(scratchEvents);
+
+		// phase 3 : apply the differences, attaching new appenders before
+		// detaching old ones so that no event is lost
+		for (Logger scratchLogger : scratchContext.getLoggerList()) {
+			Logger liveLogger = loggerContext.getLogger(scratchLogger.getName());
+			applyLoggerConfiguration(liveLogger, scratchLogger.getLevel(), scratchLogger.isAdditive(), AppenderUtils.appendersOf(scratchLogger));
+		}
+		for (Logger liveLogger : loggerContext.getLoggerList()) {
+			if (scratchContext.exists(liveLogger.getName()) == null) {
+				applyLoggerConfiguration(liveLogger, null, true, new ArrayList<Appender<ILoggingEvent>>());
+			}
+		}
+
+		// release the scratch context without stopping the live appenders
+		for (Logger scratchLogger : scratchContext.getLoggerList()) {
+			for (Appender<ILoggingEvent> appender : AppenderUtils.appendersOf(scratchLogger)) {
+				scratchLogger.detachAppender(appender);
+			}
+		}
+
+		// phase 4 : stop removed and modified appenders
+		Set<Appender<ILoggingEvent>> newAppenders = AppenderUtils.collectAppenders(loggerContext);
+		for (Appender<ILoggingEvent> appender : oldAppenders) {
+			if (!newAppenders.contains(appender)) {
+				if (appender instanceof AppenderAttachable) {
+					// don't let a removed wrapper stop the appenders still in
+					// use
+					@SuppressWarnings("unchecked")
+					AppenderAttachable<ILoggingEvent> attachable = (AppenderAttachable<ILoggingEvent>) appender;
+					for (Appender<ILoggingEvent> nested : AppenderUtils.appendersOf(attachable)) {
+						if (newAppenders.contains(nested)) {
+							attachable.detachAppender(nested);
+						}
+					}
+				}
+				appender.stop();
+			}
+		}
+
+		loggerContext.putObject(APPENDER_FINGERPRINTS_KEY, fingerprints);
+	}
+
+	private void applyLoggerConfiguration(Logger logger, Level level, boolean additive, List<Appender<ILoggingEvent>> appenders) {
+
+		if (logger.getLevel() != level && !(Logger.ROOT_LOGGER_NAME.equals(logger.getName()) && level == null)) {
+			logger.setLevel(level);
+		}
+
+		if (logger.isAdditive() != additive) {
+			logger.setAdditive(additive);
+		}
+
+		for (Appender<ILoggingEvent> appender : appenders) {
+			if (!logger.isAttached(appender)) {
+				logger.addAppender(appender);
+			}
+		}
+		for (Appender<ILoggingEvent> appender : AppenderUtils.appendersOf(logger)) {
+			if (!appenders.contains(appender)) {
+				logger.detachAppender(appender);
+			}
+		}
+	}
+
+	private JoranConfigurator newConfigurator() {
+		JoranConfigurator configurator = new JoranConfigurator();
+		configurator.setContext(loggerContext);
+		return configurator;
+	}
+
+	private static boolean isAppender(Element element) {
+		return ActionConst.APPENDER_TAG.equals(element.tag);
+	}
+
+	/**
+	 * Split the events into the configuration element followed by its top
+	 * level children.
+	 * 
+	 * @return the elements, or null if the configuration can't be applied
+	 *         incrementally
+	 */
+	private List<Element> split(List<SaxEvent> events) {
+
+		if (events.isEmpty() || !(events.get(0) instanceof StartEvent) || !CONFIGURATION_TAG.equals(tagOf(events.get(0)))) {
+			return null;
+		}
+
+		List<Element> elements = new ArrayList<Element>();
+		Element configuration = new Element(CONFIGURATION_TAG);
+		configuration.events.add(events.get(0));
+		configuration.events.add(events.get(events.size() - 1));
+		elements.add(configuration);
+
+		Element current = null;
+		int depth = 1;
+		for (SaxEvent event : events.subList(1, events.size() - 1)) {
+			if (event instanceof StartEvent) {
+				if (depth++ == 1) {
+					current = new Element(tagOf(event));
+					elements.add(current);
+					if (isAppender(current)) {
+						current.appenderName = subst(((StartEvent) event).getAttributes().getValue(NAME_ATTRIBUTE));
+					} else if (!PROPERTY_TAGS.contains(current.tag) && !CONTEXT_TAGS.contains(current.tag) && !IGNORED_TAGS.contains(current.tag)
+							&& !LOGGER_TAG.equals(current.tag) && !ROOT_TAG.equals(current.tag)) {
+						// include, if...
+						return null;
+					}
+				}
+			} else if (event instanceof EndEvent) {
+				depth--;
+			}
+			if (current != null) {
+				current.events.add(event);
+			}
+		}
+
+		return elements;
+	}
+
+	/**
+	 * Compute a fingerprint of each appender definition, including the
+	 * definitions of the appenders it references and the properties, so that
+	 * an appender is considered modified if anything it depends on changed.
+	 */
+	private Map<String, String> fingerprintAppenders(List<Element> elements) {
+
+		StringBuilder properties = new StringBuilder();
+		Map<String, Element> appenders = new HashMap<String, Element>();
+		for (Element element : elements) {
+			if (PROPERTY_TAGS.contains(element.tag)) {
+				properties.append(fingerprint(element.events));
+			} else if (isAppender(element)) {
+				appenders.put(element.appenderName, element);
+			}
+		}
+
+		Map<String, String> fingerprints = new HashMap<String, String>();
+		for (String name : appenders.keySet()) {
+			StringBuilder fingerprint = new StringBuilder(properties);
+			appendFingerprint(name, appenders, new HashSet<String>(), fingerprint);
+			fingerprints.put(name, fingerprint.toString());
+		}
+		return fingerprints;
+	}
+
+	private void appendFingerprint(String name, Map<String, Element> appenders, Set<String> visited, StringBuilder fingerprint) {
+		Element element = appenders.get(name);
+		if (element == null || !visited.add(name)) {
+			return;
+		}
+		fingerprint.append(fingerprint(element.events));
+		for (SaxEvent event : element.events) {
+			if (event instanceof StartEvent && APPENDER_REF_TAG.equals(tagOf(event))) {
+				appendFingerprint(subst(((StartEvent) event).getAttributes().getValue(ActionConst.REF_ATTRIBUTE)), appenders, visited, fingerprint);
+			}
+		}
+	}
+
+	private String fingerprint(List<SaxEvent> events) {
+		StringBuilder fingerprint = new StringBuilder();
+		for (SaxEvent event : events) {
+			if (event instanceof StartEvent) {
+				fingerprint.append('<').append(tagOf(event));
+				Attributes attributes = ((StartEvent) event).getAttributes();
+				for (int i = 0; i < attributes.getLength(); i++) {
+					fingerprint.append(' ').append(attributes.getQName(i)).append("=\"").append(subst(attributes.getValue(i))).append('"');
+				}
+				fingerprint.append('>');
+			} else if (event instanceof BodyEvent) {
+				fingerprint.append(subst(((BodyEvent) event).getText().trim()));
+			} else {
+				fingerprint.append("</").append(tagOf(event)).append('>');
+			}
+		}
+		return fingerprint.toString();
+	}
+
+	private String subst(String value) {
+		if (value == null) {
+			return null;
+		}
+		try {
+			return OptionHelper.substVars(value, loggerContext);
+		} catch (IllegalArgumentException e) {
+			return value;
+		}
+	}
+
+	private static String tagOf(SaxEvent event) {
+		String tag = event.getLocalName() != null && event.getLocalName().length() > 0 ? event.getLocalName() : event.getQName();
+		return tag.toLowerCase();
+	}
+
+	/**
+	 * A top level element of the configuration
+	 */
+	private static class Element {
+
+		private final String tag;
+
+		private final List<SaxEvent> events = new ArrayList<SaxEvent>();
+
+		private String appenderName;
+
+		public Element(String tag) {
+			this.tag = tag;
+		}
+	}
+
+	/**
+	 * Joran configurator whose appender references can be resolved against
+	 * already existing appenders
+	 */
+	private static class AppenderBagConfigurator extends JoranConfigurator {
+
+		private final Map<String, Appender<ILoggingEvent>> existingAppenders;
+
+		private Map<String, Appender<ILoggingEvent>> appenderBag;
+
+		public AppenderBagConfigurator(Map<String, Appender<ILoggingEvent>> existingAppenders) {
+			this.existingAppenders = existingAppenders;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		protected void buildInterpreter() {
+			super.buildInterpreter();
+			appenderBag = (Map<String, Appender<ILoggingEvent>>) getExecutionContext().getObjectMap().get(ActionConst.APPENDER_BAG);
+			appenderBag.putAll(existingAppenders);
+		}
+
+		/**
+		 * @return the existing appenders and the ones created by the last
+		 *         configuration
+		 */
+		public Map<String, Appender<ILoggingEvent>> getAppenderBag() {
+			return appenderBag;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.status.WarnStatus;
+
+/**
+ * Helper methods for publishing MBeans of a LoggerContext in the platform
+ * MBeanServer. Failures are reported as status messages of the context, as
+ * logging must keep working without JMX.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public final class JmxUtils {
+
+	public static final String DOMAIN = "com.excilys.ebi.utils.spring.log";
+
+	private JmxUtils() {
+	}
+
+	/**
+	 * @param type
+	 *            the MBean type
+	 * @param loggerContext
+	 *            the LoggerContext the MBean belongs to
+	 * @param name
+	 *            the MBean name among the ones of the same type, may be null
+	 * @return
+	 *         "com.excilys.ebi.utils.spring.log:type=...,context=...,id=...,name=..."
+	 *         , the id telling apart the LoggerContexts with the same name,
+	 *         such as the "default" contexts of several webapps
+	 * @throws IllegalArgumentException
+	 *             if the name is invalid
+	 */
+	public static ObjectName objectName(String type, LoggerContext loggerContext, String name) {
+		StringBuilder objectName = new StringBuilder(DOMAIN).append(":type=").append(type).append(",context=").append(ObjectName.quote(loggerContext.getName()))
+				.append(",id=").append(Integer.toHexString(System.identityHashCode(loggerContext)));
+		if (name != null) {
+			objectName.append(",name=").append(ObjectName.quote(name));
+		}
+		try {
+			return new ObjectName(objectName.toString());
+		} catch (JMException e) {
+			throw new IllegalArgumentException("Invalid ObjectName " + objectName, e);
+		}
+	}
+
+	/**
+	 * Register the MBean, unless an MBean is already registered with this name
+	 * : as it may belong to another LoggerContext, it's left untouched and a
+	 * warning is reported
+	 * 
+	 * @return true if registered
+	 */
+	public static boolean registerMBean(Object mbean, ObjectName name, LoggerContext loggerContext) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.registerMBean(mbean, name);
+			return true;
+		} catch (InstanceAlreadyExistsException e) {
+			loggerContext.getStatusManager().add(new WarnStatus("Could not register MBean " + name + ", an MBean is already registered with this name", JmxUtils.class));
+			return false;
+		} catch (JMException e) {
+			loggerContext.getStatusManager().add(new WarnStatus("Could not register MBean " + name, JmxUtils.class, e));
+			return false;
+		}
+	}
+
+	public static void unregisterMBean(ObjectName name, LoggerContext loggerContext) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (JMException e) {
+			loggerContext.getStatusManager().add(new WarnStatus("Could not unregister MBean " + name, JmxUtils.class, e));
+		}
+	}
+}
@@ -0,0 +1,555 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Marker;
+import org.slf4j.spi.LocationAwareLogger;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggerContextListener;
+import ch.qos.logback.classic.spi.TurboFilterList;
+import ch.qos.logback.classic.turbo.TurboFilter;
+
+import com.excilys.ebi.utils.spring.log.logback.turbo.NeutralTurboFilter;
+
+/**
+ * SLF4J Logger wrapping a Logback Logger and caching its effective level, so
+ * that checking if a level is enabled is a single field read instead of a
+ * walk through Logback's level and TurboFilter checks.
+ * <p>
+ * The cached level is refreshed when the LoggerContext reports a level
+ * change, a reset or a start. As TurboFilters can accept or deny events
+ * regardless of the levels, the checks are delegated to the wrapped Logger as
+ * long as the context has TurboFilters, except the ones marked as
+ * {@link NeutralTurboFilter}. Whether it has such TurboFilters is cached per
+ * context too, and checked again when the number of TurboFilters changes or
+ * when the context reports a change.
+ * <p>
+ * Instances are shared per logger, see {@link #wrap(org.slf4j.Logger)}.
+ * Caller data is preserved, the events being logged with this class as the
+ * logger FQCN.
+ * 
+ * @see com.excilys.ebi.utils.spring.log.slf4j.InjectLogger#cacheLevels()
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public final class LevelCachingLogger implements org.slf4j.Logger {
+
+	private static final String FQCN = LevelCachingLogger.class.getName();
+
+	private final Logger delegate;
+
+	private final Refresher refresher;
+
+	/**
+	 * The effective level of the delegate
+	 */
+	private volatile int levelInt;
+
+	private LevelCachingLogger(Logger delegate, Refresher refresher) {
+		this.delegate = delegate;
+		this.refresher = refresher;
+		refresh();
+	}
+
+	/**
+	 * Get the shared LevelCachingLogger of the given logger.
+	 * 
+	 * @param logger
+	 *            the logger to wrap
+	 * @return the LevelCachingLogger, or the logger itself if it's not a
+	 *         Logback logger
+	 */
+	public static org.slf4j.Logger wrap(org.slf4j.Logger logger) {
+		if (logger instanceof LevelCachingLogger || !(logger instanceof Logger)) {
+			return logger;
+		}
+		Logger logbackLogger = (Logger) logger;
+		return Refresher.getInstance(logbackLogger.getLoggerContext()).getLogger(logbackLogger);
+	}
+
+	private void refresh() {
+		levelInt = delegate.getEffectiveLevel().levelInt;
+	}
+
+	/**
+	 * @return true if the context has TurboFilters that may accept or deny
+	 *         events regardless of the levels
+	 */
+	boolean hasDecisiveTurboFilters() {
+		return refresher.hasDecisiveTurboFilters();
+	}
+
+	private boolean isEnabled(int level) {
+		return !hasDecisiveTurboFilters() ? level >= levelInt : delegate.isEnabledFor(Level.toLevel(level));
+	}
+
+	private boolean isEnabled(int level, Marker marker) {
+		return !hasDecisiveTurboFilters() ? level >= levelInt : delegate.isEnabledFor(marker, Level.toLevel(level));
+	}
+
+	public String getName() {
+		return delegate.getName();
+	}
+
+	public boolean isTraceEnabled() {
+		return isEnabled(Level.TRACE_INT);
+	}
+
+	public void trace(String msg) {
+		if (isEnabled(Level.TRACE_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.TRACE_INT, msg, null, null);
+		}
+	}
+
+	public void trace(String format, Object arg) {
+		if (isEnabled(Level.TRACE_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.TRACE_INT, format, new Object[] { arg }, null);
+		}
+	}
+
+	public void trace(String format, Object arg1, Object arg2) {
+		if (isEnabled(Level.TRACE_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.TRACE_INT, format, new Object[] { arg1, arg2 }, null);
+		}
+	}
+
+	public void trace(String format, Object[] argArray) {
+		if (isEnabled(Level.TRACE_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.TRACE_INT, format, argArray, null);
+		}
+	}
+
+	public void trace(String msg, Throwable t) {
+		if (isEnabled(Level.TRACE_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.TRACE_INT, msg, null, t);
+		}
+	}
+
+	public boolean isTraceEnabled(Marker marker) {
+		return isEnabled(Level.TRACE_INT, marker);
+	}
+
+	public void trace(Marker marker, String msg) {
+		if (isEnabled(Level.TRACE_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.TRACE_INT, msg, null, null);
+		}
+	}
+
+	public void trace(Marker marker, String format, Object arg) {
+		if (isEnabled(Level.TRACE_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.TRACE_INT, format, new Object[] { arg }, null);
+		}
+	}
+
+	public void trace(Marker marker, String format, Object arg1, Object arg2) {
+		if (isEnabled(Level.TRACE_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.TRACE_INT, format, new Object[] { arg1, arg2 }, null);
+		}
+	}
+
+	public void trace(Marker marker, String format, Object[] argArray) {
+		if (isEnabled(Level.TRACE_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.TRACE_INT, format, argArray, null);
+		}
+	}
+
+	public void trace(Marker marker, String msg, Throwable t) {
+		if (isEnabled(Level.TRACE_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.TRACE_INT, msg, null, t);
+		}
+	}
+
+	public boolean isDebugEnabled() {
+		return isEnabled(Level.DEBUG_INT);
+	}
+
+	public void debug(String msg) {
+		if (isEnabled(Level.DEBUG_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.DEBUG_INT, msg, null, null);
+		}
+	}
+
+	public void debug(String format, Object arg) {
+		if (isEnabled(Level.DEBUG_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.DEBUG_INT, format, new Object[] { arg }, null);
+		}
+	}
+
+	public void debug(String format, Object arg1, Object arg2) {
+		if (isEnabled(Level.DEBUG_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.DEBUG_INT, format, new Object[] { arg1, arg2 }, null);
+		}
+	}
+
+	public void debug(String format, Object[] argArray) {
+		if (isEnabled(Level.DEBUG_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.DEBUG_INT, format, argArray, null);
+		}
+	}
+
+	public void debug(String msg, Throwable t) {
+		if (isEnabled(Level.DEBUG_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.DEBUG_INT, msg, null, t);
+		}
+	}
+
+	public boolean isDebugEnabled(Marker marker) {
+		return isEnabled(Level.DEBUG_INT, marker);
+	}
+
+	public void debug(Marker marker, String msg) {
+		if (isEnabled(Level.DEBUG_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.DEBUG_INT, msg, null, null);
+		}
+	}
+
+	public void debug(Marker marker, String format, Object arg) {
+		if (isEnabled(Level.DEBUG_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.DEBUG_INT, format, new Object[] { arg }, null);
+		}
+	}
+
+	public void debug(Marker marker, String format, Object arg1, Object arg2) {
+		if (isEnabled(Level.DEBUG_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.DEBUG_INT, format, new Object[] { arg1, arg2 }, null);
+		}
+	}
+
+	public void debug(Marker marker, String format, Object[] argArray) {
+		if (isEnabled(Level.DEBUG_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.DEBUG_INT, format, argArray, null);
+		}
+	}
+
+	public void debug(Marker marker, String msg, Throwable t) {
+		if (isEnabled(Level.DEBUG_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.DEBUG_INT, msg, null, t);
+		}
+	}
+
+	public boolean isInfoEnabled() {
+		return isEnabled(Level.INFO_INT);
+	}
+
+	public void info(String msg) {
+		if (isEnabled(Level.INFO_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.INFO_INT, msg, null, null);
+		}
+	}
+
+	public void info(String format, Object arg) {
+		if (isEnabled(Level.INFO_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.INFO_INT, format, new Object[] { arg }, null);
+		}
+	}
+
+	public void info(String format, Object arg1, Object arg2) {
+		if (isEnabled(Level.INFO_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.INFO_INT, format, new Object[] { arg1, arg2 }, null);
+		}
+	}
+
+	public void info(String format, Object[] argArray) {
+		if (isEnabled(Level.INFO_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.INFO_INT, format, argArray, null);
+		}
+	}
+
+	public void info(String msg, Throwable t) {
+		if (isEnabled(Level.INFO_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.INFO_INT, msg, null, t);
+		}
+	}
+
+	public boolean isInfoEnabled(Marker marker) {
+		return isEnabled(Level.INFO_INT, marker);
+	}
+
+	public void info(Marker marker, String msg) {
+		if (isEnabled(Level.INFO_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.INFO_INT, msg, null, null);
+		}
+	}
+
+	public void info(Marker marker, String format, Object arg) {
+		if (isEnabled(Level.INFO_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.INFO_INT, format, new Object[] { arg }, null);
+		}
+	}
+
+	public void info(Marker marker, String format, Object arg1, Object arg2) {
+		if (isEnabled(Level.INFO_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.INFO_INT, format, new Object[] { arg1, arg2 }, null);
+		}
+	}
+
+	public void info(Marker marker, String format, Object[] argArray) {
+		if (isEnabled(Level.INFO_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.INFO_INT, format, argArray, null);
+		}
+	}
+
+	public void info(Marker marker, String msg, Throwable t) {
+		if (isEnabled(Level.INFO_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.INFO_INT, msg, null, t);
+		}
+	}
+
+	public boolean isWarnEnabled() {
+		return isEnabled(Level.WARN_INT);
+	}
+
+	public void warn(String msg) {
+		if (isEnabled(Level.WARN_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.WARN_INT, msg, null, null);
+		}
+	}
+
+	public void warn(String format, Object arg) {
+		if (isEnabled(Level.WARN_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.WARN_INT, format, new Object[] { arg }, null);
+		}
+	}
+
+	public void warn(String format, Object arg1, Object arg2) {
+		if (isEnabled(Level.WARN_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.WARN_INT, format, new Object[] { arg1, arg2 }, null);
+		}
+	}
+
+	public void warn(String format, Object[] argArray) {
+		if (isEnabled(Level.WARN_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.WARN_INT, format, argArray, null);
+		}
+	}
+
+	public void warn(String msg, Throwable t) {
+		if (isEnabled(Level.WARN_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.WARN_INT, msg, null, t);
+		}
+	}
+
+	public boolean isWarnEnabled(Marker marker) {
+		return isEnabled(Level.WARN_INT, marker);
+	}
+
+	public void warn(Marker marker, String msg) {
+		if (isEnabled(Level.WARN_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.WARN_INT, msg, null, null);
+		}
+	}
+
+	public void warn(Marker marker, String format, Object arg) {
+		if (isEnabled(Level.WARN_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.WARN_INT, format, new Object[] { arg }, null);
+		}
+	}
+
+	public void warn(Marker marker, String format, Object arg1, Object arg2) {
+		if (isEnabled(Level.WARN_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.WARN_INT, format, new Object[] { arg1, arg2 }, null);
+		}
+	}
+
+	public void warn(Marker marker, String format, Object[] argArray) {
+		if (isEnabled(Level.WARN_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.WARN_INT, format, argArray, null);
+		}
+	}
+
+	public void warn(Marker marker, String msg, Throwable t) {
+		if (isEnabled(Level.WARN_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.WARN_INT, msg, null, t);
+		}
+	}
+
+	public boolean isErrorEnabled() {
+		return isEnabled(Level.ERROR_INT);
+	}
+
+	public void error(String msg) {
+		if (isEnabled(Level.ERROR_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.ERROR_INT, msg, null, null);
+		}
+	}
+
+	public void error(String format, Object arg) {
+		if (isEnabled(Level.ERROR_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.ERROR_INT, format, new Object[] { arg }, null);
+		}
+	}
+
+	public void error(String format, Object arg1, Object arg2) {
+		if (isEnabled(Level.ERROR_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.ERROR_INT, format, new Object[] { arg1, arg2 }, null);
+		}
+	}
+
+	public void error(String format, Object[] argArray) {
+		if (isEnabled(Level.ERROR_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.ERROR_INT, format, argArray, null);
+		}
+	}
+
+	public void error(String msg, Throwable t) {
+		if (isEnabled(Level.ERROR_INT)) {
+			delegate.log(null, FQCN, LocationAwareLogger.ERROR_INT, msg, null, t);
+		}
+	}
+
+	public boolean isErrorEnabled(Marker marker) {
+		return isEnabled(Level.ERROR_INT, marker);
+	}
+
+	public void error(Marker marker, String msg) {
+		if (isEnabled(Level.ERROR_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.ERROR_INT, msg, null, null);
+		}
+	}
+
+	public void error(Marker marker, String format, Object arg) {
+		if (isEnabled(Level.ERROR_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.ERROR_INT, format, new Object[] { arg }, null);
+		}
+	}
+
+	public void error(Marker marker, String format, Object arg1, Object arg2) {
+		if (isEnabled(Level.ERROR_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.ERROR_INT, format, new Object[] { arg1, arg2 }, null);
+		}
+	}
+
+	public void error(Marker marker, String format, Object[] argArray) {
+		if (isEnabled(Level.ERROR_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.ERROR_INT, format, argArray, null);
+		}
+	}
+
+	public void error(Marker marker, String msg, Throwable t) {
+		if (isEnabled(Level.ERROR_INT, marker)) {
+			delegate.log(marker, FQCN, LocationAwareLogger.ERROR_INT, msg, null, t);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "LevelCachingLogger[" + getName() + "]";
+	}
+
+	/**
+	 * Reset resistant listener holding the LevelCachingLoggers of a
+	 * LoggerContext and refreshing them
+	 */
+	private static final class Refresher implements LoggerContextListener {
+
+		private final ConcurrentMap<String, LevelCachingLogger> loggers = new ConcurrentHashMap<String, LevelCachingLogger>();
+
+		private final TurboFilterList turboFilters;
+
+		private volatile boolean decisiveTurboFilters;
+
+		/**
+		 * The number of TurboFilters when decisiveTurboFilters was computed,
+		 * -1 to compute it again
+		 */
+		private volatile int checkedTurboFilterCount = -1;
+
+		private Refresher(LoggerContext loggerContext) {
+			turboFilters = loggerContext.getTurboFilterList();
+		}
+
+		private static synchronized Refresher getInstance(LoggerContext loggerContext) {
+			for (LoggerContextListener listener : loggerContext.getCopyOfListenerList()) {
+				if (listener instanceof Refresher) {
+					return (Refresher) listener;
+				}
+			}
+			Refresher refresher = new Refresher(loggerContext);
+			loggerContext.addListener(refresher);
+			return refresher;
+		}
+
+		private LevelCachingLogger getLogger(Logger logger) {
+			LevelCachingLogger levelCachingLogger = loggers.get(logger.getName());
+			if (levelCachingLogger == null) {
+				LevelCachingLogger newLevelCachingLogger = new LevelCachingLogger(logger, this);
+				levelCachingLogger = loggers.putIfAbsent(logger.getName(), newLevelCachingLogger);
+				if (levelCachingLogger == null) {
+					levelCachingLogger = newLevelCachingLogger;
+				}
+			}
+			return levelCachingLogger;
+		}
+
+		private boolean hasDecisiveTurboFilters() {
+			if (turboFilters.size() != checkedTurboFilterCount) {
+				checkTurboFilters();
+			}
+			return decisiveTurboFilters;
+		}
+
+		private synchronized void checkTurboFilters() {
+			// the count is read first and published last, so that it's never
+			// seen with a flag computed from older TurboFilters
+			int count = turboFilters.size();
+			boolean decisive = false;
+			for (TurboFilter turboFilter : turboFilters) {
+				if (!(turboFilter instanceof NeutralTurboFilter)) {
+					decisive = true;
+					break;
+				}
+			}
+			decisiveTurboFilters = decisive;
+			checkedTurboFilterCount = count;
+		}
+
+		private void refreshAll() {
+			checkedTurboFilterCount = -1;
+			for (LevelCachingLogger logger : loggers.values()) {
+				logger.refresh();
+			}
+		}
+
+		public boolean isResetResistant() {
+			return true;
+		}
+
+		public void onStart(LoggerContext context) {
+			refreshAll();
+		}
+
+		public void onReset(LoggerContext context) {
+			refreshAll();
+		}
+
+		public void onStop(LoggerContext context) {
+		}
+
+		/**
+		 * A level change also changes the effective level of the
+		 * descendants, so all the loggers are refreshed
+		 */
+		public void onLevelChange(Logger logger, Level level) {
+			refreshAll();
+		}
+	}
+}
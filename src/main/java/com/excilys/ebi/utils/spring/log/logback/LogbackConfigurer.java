@@ -15,10 +15,12 @@
  */
 package com.excilys.ebi.utils.spring.log.logback;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.net.URL;
 
 import org.slf4j.bridge.SLF4JBridgeHandler;
+import org.springframework.core.env.PropertyResolver;
 import org.springframework.util.ResourceUtils;
 import org.springframework.util.SystemPropertyUtils;
 
@@ -28,6 +30,9 @@ import ch.qos.logback.classic.util.ContextInitializer;
 import ch.qos.logback.classic.util.ContextSelectorStaticBinder;
 import ch.qos.logback.core.joran.spi.JoranException;
 
+import com.excilys.ebi.utils.spring.log.logback.level.LevelManager;
+import com.excilys.ebi.utils.spring.log.logback.metrics.LoggingMetrics;
+
 /**
  * Convenience class that features simple methods for custom Logback
  * configuration, inspired by {@link org.springframework.util.Log4jConfigurer}.
@@ -48,11 +53,30 @@ import ch.qos.logback.core.joran.spi.JoranException;
  *   <resetJUL>true</resetJUL>
  * </contextListener>
  * </code>
+ * <p>
+ * Once initialized, levels can be changed at runtime, without resetting the
+ * context, with the {@link LevelManager}, also published over JMX.
  * 
  * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
  */
 public class LogbackConfigurer {
 
+	/**
+	 * System property disabling the {@link LoggingMetrics} when set to false
+	 */
+	public static final String METRICS_PROPERTY = "logback.metrics";
+
+	/**
+	 * System property specifying how long {@link #shutdownLogging()} drains
+	 * the appenders at most, in milliseconds
+	 */
+	public static final String SHUTDOWN_TIMEOUT_PROPERTY = "logback.shutdownTimeout";
+
+	/**
+	 * Default drain deadline of {@link #shutdownLogging()}, in milliseconds
+	 */
+	public static final long DEFAULT_SHUTDOWN_TIMEOUT = 5000;
+
 	/**
 	 * Instantiates a new logback configurer.
 	 */
@@ -77,20 +101,142 @@ public class LogbackConfigurer {
 	 *             the joran exception
 	 */
 	public static void initLogging(String location) throws FileNotFoundException, JoranException {
+		initLogging(location, null);
+	}
+
+	/**
+	 * Initialize logback from the given XML file, like
+	 * {@link #initLogging(String)}, using a cache of parsed configurations.
+	 * <p>
+	 * The parsed configuration is stored in the cache directory, and replayed
+	 * without any XML parsing on later initializations as long as the file and
+	 * its includes are unchanged.
+	 * 
+	 * @param location
+	 *            the location of the config file, see
+	 *            {@link #initLogging(String)}
+	 * @param configCacheDirectory
+	 *            the directory where parsed configurations are cached, null to
+	 *            disable caching
+	 * @throws FileNotFoundException
+	 *             if the location specifies an invalid file path
+	 * @throws JoranException
+	 *             the joran exception
+	 */
+	public static void initLogging(String location, File configCacheDirectory) throws FileNotFoundException, JoranException {
 		String resolvedLocation = SystemPropertyUtils.resolvePlaceholders(location);
 		URL url = ResourceUtils.getURL(resolvedLocation);
 		ContextSelector selector = ContextSelectorStaticBinder.getSingleton().getContextSelector();
 		LoggerContext loggerContext = selector.getLoggerContext();
-		// in the current version logback automatically configures at startup
-		// the context, so we have to reset it
+		if (configCacheDirectory != null) {
+			RecordedConfiguration configuration = new ConfigurationCache(configCacheDirectory, loggerContext).record(url);
+			loggerContext.reset();
+			configuration.configure(loggerContext);
+		} else {
+			// in the current version logback automatically configures at
+			// startup the context, so we have to reset it
+			loggerContext.reset();
+			ContextInitializer contextInitializer = new ContextInitializer(loggerContext);
+			contextInitializer.configureByResource(url);
+		}
+		// so that the next reconfiguration can be incremental
+		new IncrementalConfigurator(loggerContext).registerConfiguration();
+
+		installJulBridge();
+		installManagement(loggerContext);
+	}
+
+	/**
+	 * Initialize logback from properties, typically the Spring
+	 * {@link org.springframework.core.env.Environment}, without any XML
+	 * parsing, see {@link EnvironmentConfigurator} for the supported
+	 * properties.
+	 * 
+	 * @param propertyResolver
+	 *            the properties
+	 * @throws IllegalStateException
+	 *             if a required property is missing
+	 * @throws IllegalArgumentException
+	 *             if a property has an unsupported value
+	 */
+	public static void initLogging(PropertyResolver propertyResolver) {
+		ContextSelector selector = ContextSelectorStaticBinder.getSingleton().getContextSelector();
+		LoggerContext loggerContext = selector.getLoggerContext();
 		loggerContext.reset();
-		ContextInitializer contextInitializer = new ContextInitializer(loggerContext);
-		contextInitializer.configureByResource(url);
+		new EnvironmentConfigurator(propertyResolver, loggerContext).configure();
+		// no XML configuration to record, next reconfiguration will reset
+		new IncrementalConfigurator(loggerContext).registerConfiguration();
+
+		installJulBridge();
+		installManagement(loggerContext);
+	}
 
+	/**
+	 * Reconfigure logback from the given XML file, without resetting the
+	 * context : only the differences with the current configuration are
+	 * applied (logger levels, additivity, added or removed appenders), and
+	 * appenders whose definition didn't change are kept open, so that no event
+	 * is lost while reconfiguring.
+	 * <p>
+	 * Falls back to a full reset if the context wasn't configured with
+	 * {@link #initLogging(String)} or {@link #reconfigureLogging(String)}, or
+	 * if the file uses <code>include</code> or <code>if</code> elements.
+	 * 
+	 * @param location
+	 *            the location of the config file, see
+	 *            {@link #initLogging(String)}
+	 * @throws FileNotFoundException
+	 *             if the location specifies an invalid file path
+	 * @throws JoranException
+	 *             the joran exception
+	 */
+	public static void reconfigureLogging(String location) throws FileNotFoundException, JoranException {
+		reconfigureLogging(location, null);
+	}
+
+	/**
+	 * Reconfigure logback from the given XML file, like
+	 * {@link #reconfigureLogging(String)}, using a cache of parsed
+	 * configurations, see {@link #initLogging(String, File)}.
+	 * 
+	 * @param location
+	 *            the location of the config file, see
+	 *            {@link #initLogging(String)}
+	 * @param configCacheDirectory
+	 *            the directory where parsed configurations are cached, null to
+	 *            disable caching
+	 * @throws FileNotFoundException
+	 *             if the location specifies an invalid file path
+	 * @throws JoranException
+	 *             the joran exception
+	 */
+	public static void reconfigureLogging(String location, File configCacheDirectory) throws FileNotFoundException, JoranException {
+		String resolvedLocation = SystemPropertyUtils.resolvePlaceholders(location);
+		URL url = ResourceUtils.getURL(resolvedLocation);
+		ContextSelector selector = ContextSelectorStaticBinder.getSingleton().getContextSelector();
+		LoggerContext loggerContext = selector.getLoggerContext();
+		RecordedConfiguration configuration = configCacheDirectory != null ? new ConfigurationCache(configCacheDirectory, loggerContext).record(url) : RecordedConfiguration.parse(url,
+				loggerContext);
+		new IncrementalConfigurator(loggerContext).reconfigure(configuration);
+
+		installJulBridge();
+		installManagement(loggerContext);
+	}
+
+	private static void installJulBridge() {
 		// reset JUL
 		// don't forget to configure the LevelChangePropagator contextListener
 		// in the config file!!!
-		SLF4JBridgeHandler.install();
+		if (!SLF4JBridgeHandler.isInstalled()) {
+			SLF4JBridgeHandler.install();
+		}
+	}
+
+	private static void installManagement(LoggerContext loggerContext) {
+		LevelManager.getInstance(loggerContext);
+		if (!"false".equalsIgnoreCase(System.getProperty(METRICS_PROPERTY))) {
+			LoggingMetrics.install(loggerContext);
+		}
 	}
 
 	/**
@@ -99,12 +245,46 @@ public class LogbackConfigurer {
 	 * This isn't strictly necessary, but recommended for shutting down logback
 	 * in a scenario where the host VM stays alive (for example, when shutting
 	 * down an application in a J2EE environment).
+	 * <p>
+	 * The appenders are drained for at most the time specified by the
+	 * {@link #SHUTDOWN_TIMEOUT_PROPERTY} system property, see
+	 * {@link #drainAndShutdownLogging(long)}.
 	 */
 	public static void shutdownLogging() {
+		drainAndShutdownLogging(getShutdownTimeout());
+	}
+
+	/**
+	 * Shut down logback, like {@link #shutdownLogging()}.
+	 * <p>
+	 * Before the context is reset, the
+	 * {@link com.excilys.ebi.utils.spring.log.logback.async.RingBufferAsyncAppender}
+	 * queues are drained and the output streams flushed, see
+	 * {@link DrainUtils#drain(LoggerContext, long)}.
+	 * 
+	 * @param drainTimeout
+	 *            how long the appenders are drained at most, in milliseconds
+	 * @return the number of events dropped while shutting down
+	 */
+	public static long drainAndShutdownLogging(long drainTimeout) {
 		ContextSelector selector = ContextSelectorStaticBinder.getSingleton().getContextSelector();
 		LoggerContext loggerContext = selector.getLoggerContext();
 		String loggerContextName = loggerContext.getName();
 		LoggerContext context = selector.detachLoggerContext(loggerContextName);
+		long droppedCount = DrainUtils.drain(context, drainTimeout);
+		LoggingMetrics.uninstall(context);
+		LevelManager.uninstall(context);
 		context.reset();
+		return droppedCount;
+	}
+
+	/**
+	 * @return the drain deadline specified by the
+	 *         {@link #SHUTDOWN_TIMEOUT_PROPERTY} system property, in
+	 *         milliseconds
+	 */
+	public static long getShutdownTimeout() {
+		String timeout = System.getProperty(SHUTDOWN_TIMEOUT_PROPERTY);
+		return timeout != null ? Long.parseLong(timeout.trim()) : DEFAULT_SHUTDOWN_TIMEOUT;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Initializes logback from the application context's
+ * {@link org.springframework.core.env.Environment} before any bean is
+ * created, see {@link LogbackConfigurer#initLogging(org.springframework.core.env.PropertyResolver)}.
+ * <p>
+ * In a web application, register it in web.xml:
+ * <p>
+ * <code>
+ * <context-param>
+ *   <param-name>contextInitializerClasses</param-name>
+ *   <param-value>com.excilys.ebi.utils.spring.log.logback.LogbackEnvironmentInitializer</param-value>
+ * </context-param>
+ * </code>
+ * <p>
+ * Otherwise, call {@link #initialize(ConfigurableApplicationContext)} before
+ * refreshing the context.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class LogbackEnvironmentInitializer implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+
+	public void initialize(ConfigurableApplicationContext applicationContext) {
+		LogbackConfigurer.initLogging(applicationContext.getEnvironment());
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+/**
+ * Appender queuing the events for a background thread, which
+ * {@link DrainUtils} drains before the context is shut down, and whose queue
+ * is published by the {@link com.excilys.ebi.utils.spring.log.logback.metrics.LoggingMetrics}.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public interface QueueingAppender {
+
+	/**
+	 * Wait for the queued events to be processed, without stopping the
+	 * appender.
+	 * 
+	 * @param timeout
+	 *            how long to wait at most, in milliseconds
+	 * @return the number of events still waiting to be processed
+	 */
+	int drain(long timeout);
+
+	/**
+	 * @return the number of events waiting to be processed
+	 */
+	int getQueueSize();
+
+	/**
+	 * @return the number of events dropped since this appender was started
+	 */
+	long getDroppedCount();
+}
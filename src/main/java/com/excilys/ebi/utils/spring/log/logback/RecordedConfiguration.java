@@ -0,0 +1,99 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+
+import org.xml.sax.InputSource;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.joran.JoranConfigurator;
+import ch.qos.logback.core.joran.GenericConfigurator;
+import ch.qos.logback.core.joran.event.SaxEvent;
+import ch.qos.logback.core.joran.event.SaxEventRecorder;
+import ch.qos.logback.core.joran.spi.JoranException;
+import ch.qos.logback.core.joran.util.ConfigurationWatchListUtil;
+
+/**
+ * The Joran events of an XML configuration file, ready to be played on a
+ * {@link LoggerContext}.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+class RecordedConfiguration {
+
+	private final URL url;
+
+	private final List<SaxEvent> events;
+
+	private final List<URL> includes;
+
+	/**
+	 * @param url
+	 *            the configuration file
+	 * @param events
+	 *            its events
+	 * @param includes
+	 *            the included files whose events were already inlined
+	 */
+	public RecordedConfiguration(URL url, List<SaxEvent> events, List<URL> includes) {
+		this.url = url;
+		this.events = events;
+		this.includes = includes;
+	}
+
+	/**
+	 * Parse a configuration file, includes being resolved when played.
+	 */
+	public static RecordedConfiguration parse(URL url, LoggerContext loggerContext) throws JoranException {
+		SaxEventRecorder recorder = new SaxEventRecorder();
+		recorder.setContext(loggerContext);
+		List<SaxEvent> events = recorder.recordEvents(new InputSource(url.toExternalForm()));
+		return new RecordedConfiguration(url, events, Collections.<URL> emptyList());
+	}
+
+	public URL getUrl() {
+		return url;
+	}
+
+	public List<SaxEvent> getEvents() {
+		return events;
+	}
+
+	/**
+	 * Register the configuration file and its inlined includes as the ones
+	 * used for configuring the context, for example for being scanned.
+	 */
+	public void informContext(LoggerContext loggerContext) {
+		GenericConfigurator.informContextOfURLUsedForConfiguration(loggerContext, url);
+		for (URL include : includes) {
+			ConfigurationWatchListUtil.addToWatchList(loggerContext, include);
+		}
+	}
+
+	/**
+	 * Fully configure a freshly reset context.
+	 */
+	public void configure(LoggerContext loggerContext) throws JoranException {
+		informContext(loggerContext);
+		JoranConfigurator configurator = new JoranConfigurator();
+		configurator.setContext(loggerContext);
+		configurator.doConfigure(events);
+		configurator.registerSafeConfiguration();
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.async;
+
+/**
+ * What a {@link RingBufferAsyncAppender} does with an event when its buffer is
+ * full.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * The logging thread waits for a free slot
+	 */
+	BLOCK,
+
+	/**
+	 * Events below the discarding threshold are dropped, other ones wait for
+	 * a free slot
+	 */
+	DISCARD_BELOW_THRESHOLD,
+
+	/**
+	 * Events are dropped, whatever their level
+	 */
+	DISCARD,
+
+	/**
+	 * Events are encoded into an off-heap spill area, and only dropped
+	 * when it's full
+	 */
+	SPILL
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.async;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, lock-free, multi-producer single-consumer ring buffer.
+ * <p>
+ * Slots are preallocated and reused: each one holds a sequence number telling
+ * if it is free for the producer claiming a given position, or published for
+ * the consumer reading it. Producers claim positions with a CAS on the tail
+ * cursor, so they never lock, and a full buffer is reported instead of
+ * blocking.
+ * 
+ * @param <E>
+ *            the element type
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+class RingBuffer<E> {
+
+	private final int mask;
+
+	private final Object[] elements;
+
+	private final AtomicLongArray sequences;
+
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Only written by the consumer thread
+	 */
+	private volatile long head;
+
+	/**
+	 * @param capacity
+	 *            the requested capacity, rounded up to the next power of 2
+	 */
+	public RingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		mask = size - 1;
+		elements = new Object[size];
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Publish an element, may be called concurrently by any thread.
+	 * 
+	 * @return false if the buffer is full
+	 */
+	public boolean offer(E element) {
+		for (;;) {
+			long position = tail.get();
+			int index = (int) position & mask;
+			long diff = sequences.get(index) - position;
+
+			if (diff == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					elements[index] = element;
+					// volatile write, publishes the element to the consumer
+					sequences.set(index, position + 1);
+					return true;
+				}
+			} else if (diff < 0) {
+				return false;
+			}
+			// else another producer claimed this position, retry
+		}
+	}
+
+	/**
+	 * Consume the next element, must only be called by the consumer thread.
+	 * 
+	 * @return the element, or null if the buffer is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		long position = head;
+		int index = (int) position & mask;
+
+		if (sequences.get(index) != position + 1) {
+			return null;
+		}
+
+		E element = (E) elements[index];
+		elements[index] = null;
+		// free the slot for the producer claiming it on the next lap
+		sequences.set(index, position + mask + 1);
+		head = position + 1;
+		return element;
+	}
+
+	/**
+	 * @return the approximate number of elements waiting in the buffer
+	 */
+	public int size() {
+		return (int) Math.max(0, tail.get() - head);
+	}
+
+	public int capacity() {
+		return mask + 1;
+	}
+}
@@ -0,0 +1,464 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.async;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
+import ch.qos.logback.core.util.FileSize;
+
+import com.excilys.ebi.utils.spring.log.logback.QueueingAppender;
+
+/**
+ * Asynchronous appender backed by a preallocated lock-free {@link RingBuffer}
+ * : logging threads only publish events, and a single worker thread dispatches
+ * them to the attached appenders.
+ * <p>
+ * Configuration example, to be loaded with
+ * {@link com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer}:
+ * <p>
+ * <code>
+ * <appender name="ASYNC" class="com.excilys.ebi.utils.spring.log.logback.async.RingBufferAsyncAppender">
+ *   <bufferSize>4096</bufferSize>
+ *   <waitStrategy>PARK</waitStrategy>
+ *   <overflowPolicy>DISCARD_BELOW_THRESHOLD</overflowPolicy>
+ *   <discardingThreshold>WARN</discardingThreshold>
+ *   <appender-ref ref="FILE" />
+ * </appender>
+ * </code>
+ * <p>
+ * With the {@link OverflowPolicy#SPILL} overflow policy, the events that
+ * don't fit in the buffer are encoded into a {@link SpillBuffer} stored
+ * outside of the heap, either a direct buffer or, if <code>spillFile</code> is
+ * set, a memory-mapped file. Once some events were spilled, the following ones
+ * are spilled too until the worker has caught up, so that the events of a
+ * given thread are dispatched in order. Events are only dropped once the
+ * spill area is full:
+ * <p>
+ * <code>
+ * <appender name="ASYNC" class="com.excilys.ebi.utils.spring.log.logback.async.RingBufferAsyncAppender">
+ *   <overflowPolicy>SPILL</overflowPolicy>
+ *   <spillSize>256MB</spillSize>
+ *   <spillFile>/var/tmp/app-spill.bin</spillFile>
+ *   <appender-ref ref="FILE" />
+ * </appender>
+ * </code>
+ * <p>
+ * On stop, for example when the context is reset by
+ * {@link com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer#shutdownLogging()}
+ * , the worker drains the buffer and the spill area for at most
+ * {@link #setMaxFlushTime(int)} milliseconds before the attached appenders are
+ * stopped. If it's exceeded, the worker is interrupted and stops the attached
+ * appenders itself once it's done with the event being dispatched.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class RingBufferAsyncAppender extends UnsynchronizedAppenderBase<ILoggingEvent> implements AppenderAttachable<ILoggingEvent>, QueueingAppender {
+
+	public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+	public static final int DEFAULT_MAX_FLUSH_TIME = 1000;
+
+	public static final FileSize DEFAULT_SPILL_SIZE = FileSize.valueOf("64MB");
+
+	private final AppenderAttachableImpl<ILoggingEvent> aai = new AppenderAttachableImpl<ILoggingEvent>();
+
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+	private WaitStrategy waitStrategy = WaitStrategy.PARK;
+
+	private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+	private Level discardingThreshold = Level.WARN;
+
+	private boolean includeCallerData;
+
+	private int maxFlushTime = DEFAULT_MAX_FLUSH_TIME;
+
+	private FileSize spillSize = DEFAULT_SPILL_SIZE;
+
+	private String spillFile;
+
+	private RingBuffer<ILoggingEvent> buffer;
+
+	/**
+	 * Null unless the overflow policy is {@link OverflowPolicy#SPILL}
+	 */
+	private SpillBuffer spill;
+
+	private Worker dispatcher;
+
+	private Thread worker;
+
+	/**
+	 * Set before the appender is stopped. Unlike the started flag, it's
+	 * volatile: producers check it after offering, so that either they see it
+	 * or the worker sees their event.
+	 */
+	private volatile boolean stopping;
+
+	@Override
+	public void start() {
+		if (bufferSize < 1) {
+			addError("Invalid bufferSize " + bufferSize);
+			return;
+		}
+		if (!aai.iteratorForAppenders().hasNext()) {
+			addError("No attached appender for " + getName());
+			return;
+		}
+
+		if (overflowPolicy == OverflowPolicy.SPILL) {
+			if (spillSize.getSize() < 1 || spillSize.getSize() > Integer.MAX_VALUE) {
+				addError("Invalid spillSize " + spillSize + ", must be between 1 byte and 2GB");
+				return;
+			}
+			try {
+				spill = new SpillBuffer((int) spillSize.getSize(), spillFile != null ? new File(spillFile) : null);
+			} catch (IOException e) {
+				addError("Could not map spill file " + spillFile, e);
+				return;
+			}
+		} else {
+			spill = null;
+		}
+
+		buffer = new RingBuffer<ILoggingEvent>(bufferSize);
+		droppedCount.set(0);
+		dispatcher = new Worker(buffer, spill);
+		worker = new Thread(dispatcher, "RingBufferAsyncAppender-Worker-" + getName());
+		worker.setDaemon(true);
+		stopping = false;
+		super.start();
+		worker.start();
+	}
+
+	@Override
+	public void stop() {
+		if (!isStarted()) {
+			return;
+		}
+
+		// the worker drains the buffer once it sees the appender stopped
+		stopping = true;
+		super.stop();
+
+		try {
+			worker.join(maxFlushTime);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (worker.isAlive()) {
+			// the worker may still be in an attached appender: it's the one
+			// closing the spill area and stopping the appenders once it exits
+			addWarn("Max flush time exceeded, " + getQueueSize() + " events may be discarded");
+			worker.interrupt();
+		} else {
+			dispatcher.tearDown();
+		}
+	}
+
+	@Override
+	protected void append(ILoggingEvent event) {
+
+		event.prepareForDeferredProcessing();
+		if (includeCallerData) {
+			event.getCallerData();
+		}
+
+		// once spilling, keep spilling until drained, to preserve ordering
+		if (spill != null && !spill.isEmpty()) {
+			spill(event);
+			return;
+		}
+
+		if (buffer.offer(event)) {
+			afterOffer();
+			return;
+		}
+
+		if (spill != null) {
+			spill(event);
+			return;
+		}
+
+		if (overflowPolicy == OverflowPolicy.DISCARD || (overflowPolicy == OverflowPolicy.DISCARD_BELOW_THRESHOLD && !event.getLevel().isGreaterOrEqual(discardingThreshold))) {
+			droppedCount.incrementAndGet();
+			return;
+		}
+
+		for (int attempt = 0; !buffer.offer(event); attempt++) {
+			if (stopping) {
+				droppedCount.incrementAndGet();
+				return;
+			}
+			waitStrategy.idle(attempt);
+		}
+		afterOffer();
+	}
+
+	/**
+	 * A producer that passed the started check may offer its event after the
+	 * worker exited
+	 */
+	private void afterOffer() {
+		if (stopping) {
+			dispatcher.dropLateEvents();
+		}
+	}
+
+	private void spill(ILoggingEvent event) {
+		if (!spill.offer(event)) {
+			droppedCount.incrementAndGet();
+		}
+	}
+
+	public int drain(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		for (int attempt = 0; isStarted() && getQueueSize() > 0 && System.currentTimeMillis() < deadline; attempt++) {
+			WaitStrategy.PARK.idle(attempt);
+		}
+		return getQueueSize();
+	}
+
+	public int getQueueSize() {
+		RingBuffer<ILoggingEvent> currentBuffer = buffer;
+		SpillBuffer currentSpill = spill;
+		return (currentBuffer != null ? currentBuffer.size() : 0) + (currentSpill != null ? currentSpill.size() : 0);
+	}
+
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * @param bufferSize
+	 *            the number of slots, rounded up to the next power of 2
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * @param waitStrategy
+	 *            how the worker waits for events, and how blocked logging
+	 *            threads wait for free slots
+	 */
+	public void setWaitStrategy(WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	public Level getDiscardingThreshold() {
+		return discardingThreshold;
+	}
+
+	/**
+	 * @param discardingThreshold
+	 *            events below this level are dropped when the buffer is full
+	 *            and overflow policy is
+	 *            {@link OverflowPolicy#DISCARD_BELOW_THRESHOLD}
+	 */
+	public void setDiscardingThreshold(Level discardingThreshold) {
+		this.discardingThreshold = discardingThreshold;
+	}
+
+	public boolean isIncludeCallerData() {
+		return includeCallerData;
+	}
+
+	public void setIncludeCallerData(boolean includeCallerData) {
+		this.includeCallerData = includeCallerData;
+	}
+
+	public int getMaxFlushTime() {
+		return maxFlushTime;
+	}
+
+	/**
+	 * @param maxFlushTime
+	 *            how long stop waits for the buffer to be drained, in
+	 *            milliseconds
+	 */
+	public void setMaxFlushTime(int maxFlushTime) {
+		this.maxFlushTime = maxFlushTime;
+	}
+
+	public FileSize getSpillSize() {
+		return spillSize;
+	}
+
+	/**
+	 * @param spillSize
+	 *            the size of the spill area, 2GB at most
+	 */
+	public void setSpillSize(FileSize spillSize) {
+		this.spillSize = spillSize;
+	}
+
+	public String getSpillFile() {
+		return spillFile;
+	}
+
+	/**
+	 * @param spillFile
+	 *            the file mapped as spill area, deleted on stop, or null for a
+	 *            direct buffer
+	 */
+	public void setSpillFile(String spillFile) {
+		this.spillFile = spillFile;
+	}
+
+	public void addAppender(Appender<ILoggingEvent> newAppender) {
+		aai.addAppender(newAppender);
+	}
+
+	public Iterator<Appender<ILoggingEvent>> iteratorForAppenders() {
+		return aai.iteratorForAppenders();
+	}
+
+	public Appender<ILoggingEvent> getAppender(String name) {
+		return aai.getAppender(name);
+	}
+
+	public boolean isAttached(Appender<ILoggingEvent> appender) {
+		return aai.isAttached(appender);
+	}
+
+	public void detachAndStopAllAppenders() {
+		aai.detachAndStopAllAppenders();
+	}
+
+	public boolean detachAppender(Appender<ILoggingEvent> appender) {
+		return aai.detachAppender(appender);
+	}
+
+	public boolean detachAppender(String name) {
+		return aai.detachAppender(name);
+	}
+
+	/**
+	 * Dispatches the buffered events, then the spilled ones, to the attached
+	 * appenders until the appender is stopped and both are drained.
+	 */
+	private class Worker implements Runnable {
+
+		private final RingBuffer<ILoggingEvent> buffer;
+
+		private final SpillBuffer spill;
+
+		private volatile boolean tornDown;
+
+		public Worker(RingBuffer<ILoggingEvent> buffer, SpillBuffer spill) {
+			this.buffer = buffer;
+			this.spill = spill;
+		}
+
+		private ILoggingEvent next() {
+			ILoggingEvent event = buffer.poll();
+			if (event == null && spill != null) {
+				event = spill.poll();
+			}
+			return event;
+		}
+
+		/**
+		 * Dispatch the events offered after the worker saw the buffer empty,
+		 * then close the spill area and stop the attached appenders, once the
+		 * worker won't dispatch events anymore. If the worker was interrupted,
+		 * the remaining events are counted as dropped instead.
+		 */
+		private synchronized void tearDown() {
+			if (tornDown) {
+				return;
+			}
+			boolean interrupted = Thread.currentThread().isInterrupted();
+			for (ILoggingEvent event = next(); event != null; event = next()) {
+				if (interrupted) {
+					droppedCount.incrementAndGet();
+				} else {
+					aai.appendLoopOnAppenders(event);
+				}
+			}
+			tornDown = true;
+			if (spill != null) {
+				droppedCount.addAndGet(spill.close());
+			}
+			aai.detachAndStopAllAppenders();
+		}
+
+		/**
+		 * Count the events offered once torn down as dropped, nothing
+		 * dispatching them anymore
+		 */
+		private synchronized void dropLateEvents() {
+			if (tornDown) {
+				while (buffer.poll() != null) {
+					droppedCount.incrementAndGet();
+				}
+			}
+		}
+
+		public void run() {
+			try {
+				int attempt = 0;
+				while (!Thread.currentThread().isInterrupted()) {
+					ILoggingEvent event = next();
+					if (event != null) {
+						aai.appendLoopOnAppenders(event);
+						attempt = 0;
+					} else if (!stopping) {
+						waitStrategy.idle(attempt++);
+					} else {
+						// stopped and drained
+						break;
+					}
+				}
+			} finally {
+				// if interrupted while started, stop() tears down
+				if (stopping) {
+					tearDown();
+				}
+			}
+		}
+	}
+}
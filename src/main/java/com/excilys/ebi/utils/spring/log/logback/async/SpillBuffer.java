@@ -0,0 +1,196 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.async;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggerContextVO;
+
+/**
+ * Bounded FIFO of encoded events, stored outside of the heap, either in a
+ * direct buffer or in a memory-mapped file.
+ * <p>
+ * Events are encoded with {@link SpillCodec} and stored as length prefixed
+ * records in a circular area, so that the retained events don't put any
+ * pressure on the garbage collector.
+ * Any thread can offer events, but only a single thread must poll them.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+class SpillBuffer {
+
+	private static final int HEADER_SIZE = 4;
+
+	private final ByteBuffer area;
+
+	private final int capacity;
+
+	private final File file;
+
+	private final byte[] header = new byte[HEADER_SIZE];
+
+	/** guarded by this */
+	private final SpillCodec.Writer writer = new SpillCodec.Writer();
+
+	/** only used by the consumer */
+	private final SpillCodec.Reader reader = new SpillCodec.Reader();
+
+	/**
+	 * Shared by the events of a context, guarded by this
+	 */
+	private LoggerContextVO loggerContextVO;
+
+	/**
+	 * Byte positions, guarded by this
+	 */
+	private long head, tail;
+
+	/**
+	 * Number of records, read without locking by the producers
+	 */
+	private volatile int size;
+
+	private boolean closed;
+
+	/**
+	 * @param capacity
+	 *            the size of the area, in bytes
+	 * @param file
+	 *            the file to be mapped, or null for a direct buffer
+	 * @throws IOException
+	 *             if the file couldn't be mapped
+	 */
+	public SpillBuffer(int capacity, File file) throws IOException {
+		this.capacity = capacity;
+		this.file = file;
+		if (file != null) {
+			RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+			try {
+				// the mapping stays valid once the channel is closed
+				area = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			} finally {
+				randomAccessFile.close();
+			}
+		} else {
+			area = ByteBuffer.allocateDirect(capacity);
+		}
+	}
+
+	/**
+	 * Encode and store an event, that must have been prepared for deferred
+	 * processing
+	 * 
+	 * @return false if there's not enough space left
+	 */
+	public synchronized boolean offer(ILoggingEvent event) {
+
+		if (closed) {
+			return false;
+		}
+		int length = writer.encode(event);
+		if (HEADER_SIZE + length > capacity - (tail - head)) {
+			return false;
+		}
+		loggerContextVO = event.getLoggerContextVO();
+		header[0] = (byte) (length >>> 24);
+		header[1] = (byte) (length >>> 16);
+		header[2] = (byte) (length >>> 8);
+		header[3] = (byte) length;
+		write(header, HEADER_SIZE);
+		write(writer.buffer(), length);
+		size++;
+		return true;
+	}
+
+	/**
+	 * Remove and decode the oldest event, must only be called by the consumer
+	 * thread
+	 * 
+	 * @return the event, or null if empty
+	 */
+	public ILoggingEvent poll() {
+
+		LoggerContextVO eventContextVO;
+		synchronized (this) {
+			if (closed || size == 0) {
+				return null;
+			}
+			read(header, HEADER_SIZE);
+			int length = (header[0] & 0xFF) << 24 | (header[1] & 0xFF) << 16 | (header[2] & 0xFF) << 8 | header[3] & 0xFF;
+			read(reader.buffer(length), length);
+			eventContextVO = loggerContextVO;
+			size--;
+		}
+
+		// decode outside of the lock
+		return reader.decode(eventContextVO);
+	}
+
+	private void write(byte[] source, int length) {
+		int index = (int) (tail % capacity);
+		int first = Math.min(length, capacity - index);
+		area.position(index);
+		area.put(source, 0, first);
+		if (first < length) {
+			area.position(0);
+			area.put(source, first, length - first);
+		}
+		tail += length;
+	}
+
+	private void read(byte[] target, int length) {
+		int index = (int) (head % capacity);
+		int first = Math.min(length, capacity - index);
+		area.position(index);
+		area.get(target, 0, first);
+		if (first < length) {
+			area.position(0);
+			area.get(target, first, length - first);
+		}
+		head += length;
+	}
+
+	/**
+	 * @return the number of events waiting
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Discard the remaining events and delete the file, if any
+	 * 
+	 * @return the number of discarded events
+	 */
+	public synchronized int close() {
+		closed = true;
+		int discarded = size;
+		size = 0;
+		if (file != null && !file.delete()) {
+			file.deleteOnExit();
+		}
+		return discarded;
+	}
+}
@@ -0,0 +1,513 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.async;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+import org.slf4j.helpers.MessageFormatter;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.CallerData;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.LoggerContextVO;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+
+/**
+ * Compact binary encoding of the events stored in a {@link SpillBuffer}.
+ * <p>
+ * Like {@link ch.qos.logback.classic.spi.LoggingEventVO}, the arguments are
+ * kept as strings, but the fields are written one after the other into a
+ * reused buffer instead of going through Java serialization. Strings are
+ * written as their length followed by their UTF-8 bytes, surrogates being
+ * encoded separately. The LoggerContextVO is shared by all the events of a
+ * context, so it isn't written.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+final class SpillCodec {
+
+	private static final int INITIAL_SIZE = 512;
+
+	/**
+	 * Above this size, the buffers are dropped once used, so that a very
+	 * large event doesn't stay retained
+	 */
+	private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+	private static final int NULL = -1;
+
+	private SpillCodec() {
+	}
+
+	/**
+	 * Encodes events into a reused buffer, not thread-safe
+	 */
+	static final class Writer {
+
+		private byte[] buffer = new byte[INITIAL_SIZE];
+
+		private int position;
+
+		/**
+		 * @return the length of the record, available with {@link #buffer()}
+		 *         until the next call
+		 */
+		int encode(ILoggingEvent event) {
+			if (buffer.length > MAX_RETAINED_SIZE) {
+				buffer = new byte[INITIAL_SIZE];
+			}
+			position = 0;
+
+			writeLong(event.getTimeStamp());
+			writeInt(event.getLevel().levelInt);
+			writeString(event.getThreadName());
+			writeString(event.getLoggerName());
+			writeString(event.getMessage());
+
+			Object[] arguments = event.getArgumentArray();
+			if (arguments == null) {
+				writeInt(NULL);
+			} else {
+				writeInt(arguments.length);
+				for (Object argument : arguments) {
+					writeString(argument != null ? argument.toString() : null);
+				}
+			}
+
+			writeMarker(event.getMarker());
+
+			Map<String, String> mdc = event.getMDCPropertyMap();
+			if (mdc == null) {
+				writeInt(NULL);
+			} else {
+				writeInt(mdc.size());
+				for (Map.Entry<String, String> entry : mdc.entrySet()) {
+					writeString(entry.getKey());
+					writeString(entry.getValue());
+				}
+			}
+
+			writeThrowableProxy(event.getThrowableProxy());
+
+			// don't compute the caller data if the appender didn't ask for it
+			if (event.hasCallerData()) {
+				writeStackTrace(event.getCallerData());
+			} else {
+				writeInt(NULL);
+			}
+
+			return position;
+		}
+
+		byte[] buffer() {
+			return buffer;
+		}
+
+		private void writeMarker(Marker marker) {
+			if (marker == null) {
+				writeInt(NULL);
+				return;
+			}
+			int references = 0;
+			for (Iterator<?> it = marker.iterator(); it.hasNext(); it.next()) {
+				references++;
+			}
+			writeInt(references);
+			writeString(marker.getName());
+			for (Iterator<?> it = marker.iterator(); it.hasNext();) {
+				writeMarker((Marker) it.next());
+			}
+		}
+
+		private void writeThrowableProxy(IThrowableProxy throwableProxy) {
+			if (throwableProxy == null) {
+				writeInt(NULL);
+				return;
+			}
+			writeInt(throwableProxy.getCommonFrames());
+			writeString(throwableProxy.getClassName());
+			writeString(throwableProxy.getMessage());
+
+			StackTraceElementProxy[] proxies = throwableProxy.getStackTraceElementProxyArray();
+			writeInt(proxies.length);
+			for (StackTraceElementProxy proxy : proxies) {
+				writeStackTraceElement(proxy.getStackTraceElement());
+			}
+
+			writeThrowableProxy(throwableProxy.getCause());
+
+			IThrowableProxy[] suppressed = throwableProxy.getSuppressed();
+			if (suppressed == null) {
+				writeInt(NULL);
+			} else {
+				writeInt(suppressed.length);
+				for (IThrowableProxy proxy : suppressed) {
+					writeThrowableProxy(proxy);
+				}
+			}
+		}
+
+		private void writeStackTrace(StackTraceElement[] elements) {
+			writeInt(elements.length);
+			for (StackTraceElement element : elements) {
+				writeStackTraceElement(element);
+			}
+		}
+
+		private void writeStackTraceElement(StackTraceElement element) {
+			writeString(element.getClassName());
+			writeString(element.getMethodName());
+			writeString(element.getFileName());
+			writeInt(element.getLineNumber());
+		}
+
+		private void writeString(String value) {
+			if (value == null) {
+				writeInt(NULL);
+				return;
+			}
+			int length = value.length();
+			writeInt(length);
+			ensureCapacity(length * 3);
+			for (int i = 0; i < length; i++) {
+				char c = value.charAt(i);
+				if (c < 0x80) {
+					buffer[position++] = (byte) c;
+				} else if (c < 0x800) {
+					buffer[position++] = (byte) (0xC0 | c >> 6);
+					buffer[position++] = (byte) (0x80 | c & 0x3F);
+				} else {
+					buffer[position++] = (byte) (0xE0 | c >> 12);
+					buffer[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+					buffer[position++] = (byte) (0x80 | c & 0x3F);
+				}
+			}
+		}
+
+		private void writeInt(int value) {
+			ensureCapacity(4);
+			buffer[position++] = (byte) (value >>> 24);
+			buffer[position++] = (byte) (value >>> 16);
+			buffer[position++] = (byte) (value >>> 8);
+			buffer[position++] = (byte) value;
+		}
+
+		private void writeLong(long value) {
+			writeInt((int) (value >>> 32));
+			writeInt((int) value);
+		}
+
+		private void ensureCapacity(int length) {
+			if (position + length > buffer.length) {
+				byte[] newBuffer = new byte[Math.max(buffer.length * 2, position + length)];
+				System.arraycopy(buffer, 0, newBuffer, 0, position);
+				buffer = newBuffer;
+			}
+		}
+	}
+
+	/**
+	 * Decodes events from a reused buffer, not thread-safe
+	 */
+	static final class Reader {
+
+		private byte[] buffer = new byte[INITIAL_SIZE];
+
+		private char[] chars = new char[INITIAL_SIZE];
+
+		private int position;
+
+		/**
+		 * @return a buffer able to hold a record of the given length, to be
+		 *         filled before calling {@link #decode(LoggerContextVO)}
+		 */
+		byte[] buffer(int length) {
+			if (buffer.length < length || buffer.length > MAX_RETAINED_SIZE) {
+				buffer = new byte[Math.max(length, INITIAL_SIZE)];
+			}
+			return buffer;
+		}
+
+		ILoggingEvent decode(LoggerContextVO loggerContextVO) {
+			position = 0;
+			if (chars.length > MAX_RETAINED_SIZE) {
+				chars = new char[INITIAL_SIZE];
+			}
+
+			SpilledEvent event = new SpilledEvent();
+			event.loggerContextVO = loggerContextVO;
+			event.timeStamp = readLong();
+			event.level = Level.toLevel(readInt());
+			event.threadName = readString();
+			event.loggerName = readString();
+			event.message = readString();
+
+			int argumentCount = readInt();
+			if (argumentCount != NULL) {
+				event.argumentArray = new Object[argumentCount];
+				for (int i = 0; i < argumentCount; i++) {
+					event.argumentArray[i] = readString();
+				}
+			}
+
+			event.marker = readMarker();
+
+			int mdcSize = readInt();
+			if (mdcSize == NULL) {
+				event.mdcPropertyMap = Collections.emptyMap();
+			} else {
+				event.mdcPropertyMap = new HashMap<String, String>(mdcSize * 4 / 3 + 1);
+				for (int i = 0; i < mdcSize; i++) {
+					event.mdcPropertyMap.put(readString(), readString());
+				}
+			}
+
+			event.throwableProxy = readThrowableProxy();
+			event.callerData = readStackTrace();
+
+			return event;
+		}
+
+		private Marker readMarker() {
+			int references = readInt();
+			if (references == NULL) {
+				return null;
+			}
+			Marker marker = MarkerFactory.getDetachedMarker(readString());
+			for (int i = 0; i < references; i++) {
+				marker.add(readMarker());
+			}
+			return marker;
+		}
+
+		private IThrowableProxy readThrowableProxy() {
+			int commonFrames = readInt();
+			if (commonFrames == NULL) {
+				return null;
+			}
+			SpilledThrowableProxy throwableProxy = new SpilledThrowableProxy();
+			throwableProxy.commonFrames = commonFrames;
+			throwableProxy.className = readString();
+			throwableProxy.message = readString();
+
+			throwableProxy.stackTraceElementProxyArray = new StackTraceElementProxy[readInt()];
+			for (int i = 0; i < throwableProxy.stackTraceElementProxyArray.length; i++) {
+				throwableProxy.stackTraceElementProxyArray[i] = new StackTraceElementProxy(readStackTraceElement());
+			}
+
+			throwableProxy.cause = readThrowableProxy();
+
+			int suppressedCount = readInt();
+			if (suppressedCount != NULL) {
+				throwableProxy.suppressed = new IThrowableProxy[suppressedCount];
+				for (int i = 0; i < suppressedCount; i++) {
+					throwableProxy.suppressed[i] = readThrowableProxy();
+				}
+			}
+			return throwableProxy;
+		}
+
+		private StackTraceElement[] readStackTrace() {
+			int length = readInt();
+			if (length == NULL) {
+				return null;
+			}
+			StackTraceElement[] elements = new StackTraceElement[length];
+			for (int i = 0; i < length; i++) {
+				elements[i] = readStackTraceElement();
+			}
+			return elements;
+		}
+
+		private StackTraceElement readStackTraceElement() {
+			return new StackTraceElement(readString(), readString(), readString(), readInt());
+		}
+
+		private String readString() {
+			int length = readInt();
+			if (length == NULL) {
+				return null;
+			}
+			if (chars.length < length) {
+				chars = new char[length];
+			}
+			for (int i = 0; i < length; i++) {
+				int b = buffer[position++];
+				if (b >= 0) {
+					chars[i] = (char) b;
+				} else if ((b & 0xE0) == 0xC0) {
+					chars[i] = (char) ((b & 0x1F) << 6 | buffer[position++] & 0x3F);
+				} else {
+					chars[i] = (char) ((b & 0x0F) << 12 | (buffer[position++] & 0x3F) << 6 | buffer[position++] & 0x3F);
+				}
+			}
+			return new String(chars, 0, length);
+		}
+
+		private int readInt() {
+			return (buffer[position++] & 0xFF) << 24 | (buffer[position++] & 0xFF) << 16 | (buffer[position++] & 0xFF) << 8 | buffer[position++] & 0xFF;
+		}
+
+		private long readLong() {
+			return (long) readInt() << 32 | readInt() & 0xFFFFFFFFL;
+		}
+	}
+
+	/**
+	 * Event read back from the spill area
+	 */
+	private static final class SpilledEvent implements ILoggingEvent {
+
+		private String threadName;
+
+		private String loggerName;
+
+		private LoggerContextVO loggerContextVO;
+
+		private Level level;
+
+		private String message;
+
+		private String formattedMessage;
+
+		private Object[] argumentArray;
+
+		private IThrowableProxy throwableProxy;
+
+		private StackTraceElement[] callerData;
+
+		private Marker marker;
+
+		private Map<String, String> mdcPropertyMap;
+
+		private long timeStamp;
+
+		public String getThreadName() {
+			return threadName;
+		}
+
+		public Level getLevel() {
+			return level;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		public Object[] getArgumentArray() {
+			return argumentArray;
+		}
+
+		public String getFormattedMessage() {
+			if (formattedMessage == null) {
+				formattedMessage = argumentArray != null ? MessageFormatter.arrayFormat(message, argumentArray).getMessage() : message;
+			}
+			return formattedMessage;
+		}
+
+		public String getLoggerName() {
+			return loggerName;
+		}
+
+		public LoggerContextVO getLoggerContextVO() {
+			return loggerContextVO;
+		}
+
+		public IThrowableProxy getThrowableProxy() {
+			return throwableProxy;
+		}
+
+		public StackTraceElement[] getCallerData() {
+			return callerData != null ? callerData : CallerData.EMPTY_CALLER_DATA_ARRAY;
+		}
+
+		public boolean hasCallerData() {
+			return callerData != null;
+		}
+
+		public Marker getMarker() {
+			return marker;
+		}
+
+		public Map<String, String> getMDCPropertyMap() {
+			return mdcPropertyMap;
+		}
+
+		public Map<String, String> getMdc() {
+			return mdcPropertyMap;
+		}
+
+		public long getTimeStamp() {
+			return timeStamp;
+		}
+
+		public void prepareForDeferredProcessing() {
+		}
+
+		@Override
+		public String toString() {
+			return '[' + level.toString() + "] " + getFormattedMessage();
+		}
+	}
+
+	/**
+	 * Throwable proxy read back from the spill area
+	 */
+	private static final class SpilledThrowableProxy implements IThrowableProxy {
+
+		private String className;
+
+		private String message;
+
+		private int commonFrames;
+
+		private StackTraceElementProxy[] stackTraceElementProxyArray;
+
+		private IThrowableProxy cause;
+
+		private IThrowableProxy[] suppressed;
+
+		public String getMessage() {
+			return message;
+		}
+
+		public String getClassName() {
+			return className;
+		}
+
+		public StackTraceElementProxy[] getStackTraceElementProxyArray() {
+			return stackTraceElementProxyArray;
+		}
+
+		public int getCommonFrames() {
+			return commonFrames;
+		}
+
+		public IThrowableProxy getCause() {
+			return cause;
+		}
+
+		public IThrowableProxy[] getSuppressed() {
+			return suppressed;
+		}
+	}
+}
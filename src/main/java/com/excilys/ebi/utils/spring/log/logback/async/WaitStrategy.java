@@ -0,0 +1,76 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.async;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a thread waits for the {@link RingBuffer} to become non empty
+ * (consumer) or non full (blocked producer).
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public enum WaitStrategy {
+
+	/**
+	 * Busy spin: lowest latency, but burns a core while idle
+	 */
+	SPIN {
+		@Override
+		public void idle(int attempt) {
+		}
+	},
+
+	/**
+	 * Spin a little, then yield the processor
+	 */
+	YIELD {
+		@Override
+		public void idle(int attempt) {
+			if (attempt > SPIN_TRIES) {
+				Thread.yield();
+			}
+		}
+	},
+
+	/**
+	 * Spin, then yield, then park: highest latency, but nearly free while idle
+	 */
+	PARK {
+		@Override
+		public void idle(int attempt) {
+			if (attempt > SPIN_TRIES + YIELD_TRIES) {
+				LockSupport.parkNanos(PARK_NANOS);
+			} else if (attempt > SPIN_TRIES) {
+				Thread.yield();
+			}
+		}
+	};
+
+	private static final int SPIN_TRIES = 100;
+
+	private static final int YIELD_TRIES = 100;
+
+	private static final long PARK_NANOS = 100000L;
+
+	/**
+	 * Wait a bit before trying again.
+	 * 
+	 * @param attempt
+	 *            the number of unsuccessful attempts so far, starting at 0
+	 */
+	public abstract void idle(int attempt);
+}
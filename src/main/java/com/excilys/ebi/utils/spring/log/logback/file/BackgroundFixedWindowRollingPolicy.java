@@ -0,0 +1,255 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.file;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.rolling.FixedWindowRollingPolicy;
+import ch.qos.logback.core.rolling.RolloverFailure;
+import ch.qos.logback.core.rolling.helper.CompressionMode;
+import ch.qos.logback.core.rolling.helper.Compressor;
+import ch.qos.logback.core.rolling.helper.RenameUtil;
+
+/**
+ * FixedWindowRollingPolicy that doesn't compress the archive on the thread
+ * triggering the rollover: the active file is only renamed, and the archives
+ * are shifted and compressed by the {@link RolloverCoordinator} of the
+ * context.
+ * <p>
+ * The active file is renamed to a unique pending name, such as
+ * <code>myapp.log.1337.rolled</code>, so that a rollover never waits for the
+ * compression of the previous archive: the pending files are compressed one
+ * after the other, in the order they were rolled. The pending files left by a
+ * crash or a failed compression are compressed when the policy starts.
+ * <p>
+ * <code>
+ * <appender name="FILE" class="ch.qos.logback.core.rolling.RollingFileAppender">
+ *   <file>/var/log/myapp/myapp.log</file>
+ *   <rollingPolicy class="com.excilys.ebi.utils.spring.log.logback.file.BackgroundFixedWindowRollingPolicy">
+ *     <fileNamePattern>/var/log/myapp/myapp.%i.log.gz</fileNamePattern>
+ *     <maxIndex>5</maxIndex>
+ *   </rollingPolicy>
+ *   <triggeringPolicy class="ch.qos.logback.core.rolling.SizeBasedTriggeringPolicy">
+ *     <maxFileSize>100MB</maxFileSize>
+ *   </triggeringPolicy>
+ *   <encoder>
+ *     <pattern>%d %level %logger - %msg%n</pattern>
+ *   </encoder>
+ * </appender>
+ * </code>
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class BackgroundFixedWindowRollingPolicy extends FixedWindowRollingPolicy {
+
+	/** suffix of the renamed active file, until it's compressed */
+	public static final String ROLLED_SUFFIX = ".rolled";
+
+	private final RenameUtil renameUtil = new RenameUtil();
+
+	private Compressor compressor;
+
+	/** the rolled files waiting for compression, oldest first */
+	private final LinkedList<String> pending = new LinkedList<String>();
+
+	/** if a task is compressing the pending files, guarded by pending */
+	private boolean compressing;
+
+	/** sequence of the last rolled file, guarded by pending */
+	private long lastSequence;
+
+	@Override
+	public void start() {
+		super.start();
+		if (!isStarted()) {
+			return;
+		}
+		renameUtil.setContext(context);
+		if (compressionMode != CompressionMode.NONE) {
+			compressor = new Compressor(compressionMode);
+			compressor.setContext(context);
+			recoverRolledFiles();
+		}
+	}
+
+	/**
+	 * Queue the rolled files left by a previous run, oldest first
+	 */
+	private void recoverRolledFiles() {
+		File activeFile = new File(getActiveFileName()).getAbsoluteFile();
+		final String prefix = activeFile.getName() + '.';
+		File[] rolledFiles = activeFile.getParentFile().listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith(prefix) && name.endsWith(ROLLED_SUFFIX);
+			}
+		});
+		if (rolledFiles == null || rolledFiles.length == 0) {
+			return;
+		}
+
+		Arrays.sort(rolledFiles, new Comparator<File>() {
+			public int compare(File file1, File file2) {
+				long sequence1 = sequence(file1.getName(), prefix);
+				long sequence2 = sequence(file2.getName(), prefix);
+				return sequence1 < sequence2 ? -1 : sequence1 == sequence2 ? 0 : 1;
+			}
+		});
+		for (File rolledFile : rolledFiles) {
+			addInfo("Compressing " + rolledFile + ", left by a previous run");
+			enqueue(rolledFile.getPath());
+		}
+	}
+
+	/**
+	 * @return the sequence of a rolled file name, 0 if it doesn't have any
+	 */
+	private static long sequence(String name, String prefix) {
+		if (name.length() <= prefix.length() + ROLLED_SUFFIX.length()) {
+			return 0;
+		}
+		try {
+			return Long.parseLong(name.substring(prefix.length(), name.length() - ROLLED_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	@Override
+	public void rollover() throws RolloverFailure {
+
+		if (compressor == null) {
+			shift();
+			renameUtil.rename(getActiveFileName(), fileNamePattern.convertInt(getMinIndex()));
+			return;
+		}
+
+		String rolled = nextRolledFileName();
+		renameUtil.rename(getActiveFileName(), rolled);
+		enqueue(rolled);
+	}
+
+	private String nextRolledFileName() {
+		synchronized (pending) {
+			long sequence = Math.max(System.currentTimeMillis(), lastSequence + 1);
+			File rolled;
+			while ((rolled = new File(getActiveFileName() + '.' + sequence + ROLLED_SUFFIX)).exists()) {
+				sequence++;
+			}
+			lastSequence = sequence;
+			return rolled.getPath();
+		}
+	}
+
+	/**
+	 * Queue a rolled file, and start compressing the pending files if not
+	 * already done
+	 */
+	private void enqueue(String rolled) {
+		synchronized (pending) {
+			pending.add(rolled);
+			if (compressing) {
+				return;
+			}
+			compressing = true;
+		}
+		RolloverCoordinator.getInstance((LoggerContext) context).submit(new Runnable() {
+			public void run() {
+				compressPending();
+			}
+		});
+	}
+
+	private void compressPending() {
+		String rolled = null;
+		try {
+			while ((rolled = nextPending()) != null) {
+				try {
+					shift();
+					String archive = fileNamePattern.convertInt(getMinIndex());
+					compressor.compress(rolled, archive, innerEntryName(archive));
+				} catch (RolloverFailure e) {
+					addError("Failed to archive " + rolled, e);
+				}
+			}
+		} finally {
+			if (rolled != null) {
+				// aborted, the rolled files are left for the next rollover or
+				// start
+				synchronized (pending) {
+					compressing = false;
+					pending.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the oldest pending file, or null if none, the compression being
+	 *         then over
+	 */
+	private String nextPending() {
+		synchronized (pending) {
+			String rolled = pending.poll();
+			if (rolled == null) {
+				compressing = false;
+				pending.notifyAll();
+			}
+			return rolled;
+		}
+	}
+
+	/**
+	 * Shift the archives by one index, the oldest one being deleted
+	 */
+	private void shift() throws RolloverFailure {
+		File oldest = new File(fileNamePattern.convertInt(getMaxIndex()));
+		if (oldest.exists() && !oldest.delete()) {
+			addWarn("Failed to delete " + oldest);
+		}
+		for (int i = getMaxIndex() - 1; i >= getMinIndex(); i--) {
+			String archive = fileNamePattern.convertInt(i);
+			if (new File(archive).exists()) {
+				renameUtil.rename(archive, fileNamePattern.convertInt(i + 1));
+			}
+		}
+	}
+
+	private String innerEntryName(String archive) {
+		String name = new File(archive).getName();
+		return name.endsWith(".zip") ? name.substring(0, name.length() - ".zip".length()) : name;
+	}
+
+	/**
+	 * Wait for the pending files to be compressed, if any
+	 */
+	public void awaitCompression() {
+		synchronized (pending) {
+			while (compressing) {
+				try {
+					pending.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+}
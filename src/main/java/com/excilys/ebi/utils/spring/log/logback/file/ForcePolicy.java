@@ -0,0 +1,47 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.file;
+
+/**
+ * When a {@link MappedFileAppender} forces the written events to the storage
+ * device, on top of the writeback the operating system does anyway.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public enum ForcePolicy {
+
+	/**
+	 * Only when the appender is stopped: fastest, but the events of the last
+	 * chunks may be lost if the machine crashes
+	 */
+	NEVER,
+
+	/**
+	 * Each time a chunk is full and the next one is mapped
+	 */
+	CHUNK,
+
+	/**
+	 * When an event is appended at least forceInterval milliseconds after the
+	 * last force, and each time a chunk is full
+	 */
+	INTERVAL,
+
+	/**
+	 * After each event: slowest, but no acknowledged event is lost
+	 */
+	EVENT
+}
@@ -0,0 +1,555 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.file;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.joran.spi.DefaultClass;
+
+import com.excilys.ebi.utils.spring.log.logback.QueueingAppender;
+
+/**
+ * Durable file appender committing the events in groups: logging threads only
+ * queue their events, and a single writer thread writes all the events queued
+ * since the last commit, and forces them to the storage device with one fsync.
+ * The more threads log concurrently, the larger the groups, so that the fsync
+ * cost is shared.
+ * <p>
+ * With durable set to true, logging threads wait until their event is
+ * committed, for at most maxLatency milliseconds, so that an event whose
+ * logging call returned survives a crash. Otherwise, they don't wait, and
+ * only the events committed before a crash survive it. If a commit fails, its
+ * events are dropped and the durable logging threads waiting for it return
+ * right away, see {@link #getUncommittedCount()}.
+ * <p>
+ * Configuration example, to be loaded with
+ * {@link com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer}:
+ * <p>
+ * <code>
+ * <appender name="TRANSACTIONS" class="com.excilys.ebi.utils.spring.log.logback.file.GroupCommitFileAppender">
+ *   <file>/var/log/myapp/transactions.log</file>
+ *   <durable>true</durable>
+ *   <maxLatency>50</maxLatency>
+ *   <maxQueueSize>8192</maxQueueSize>
+ *   <encoder>
+ *     <pattern>%d %level %logger - %msg%n</pattern>
+ *   </encoder>
+ * </appender>
+ * </code>
+ * <p>
+ * On stop, for example when the context is reset by
+ * {@link com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer#shutdownLogging()}
+ * , the queued events are committed for at most {@link #setMaxFlushTime(int)}
+ * milliseconds before the file is closed. If it's exceeded, the events still
+ * queued are dropped, and the writer closes the file once it's done with the
+ * commit in progress.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class GroupCommitFileAppender extends UnsynchronizedAppenderBase<ILoggingEvent> implements QueueingAppender {
+
+	public static final int DEFAULT_MAX_QUEUE_SIZE = 8192;
+
+	public static final long DEFAULT_MAX_LATENCY = 100;
+
+	public static final int DEFAULT_MAX_FLUSH_TIME = 1000;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition notEmpty = lock.newCondition();
+
+	private final Condition notFull = lock.newCondition();
+
+	private final Condition committed = lock.newCondition();
+
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	private final AtomicLong latencyExceededCount = new AtomicLong();
+
+	private final AtomicLong uncommittedCount = new AtomicLong();
+
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	private Encoder<ILoggingEvent> encoder;
+
+	private String file;
+
+	private boolean append = true;
+
+	private boolean durable;
+
+	private long maxLatency = DEFAULT_MAX_LATENCY;
+
+	private int maxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+
+	private boolean includeCallerData;
+
+	private int maxFlushTime = DEFAULT_MAX_FLUSH_TIME;
+
+	/** guarded by lock */
+	private List<ILoggingEvent> queue = new ArrayList<ILoggingEvent>();
+
+	/** sequence of the last queued event, guarded by lock */
+	private long queuedSequence;
+
+	/** sequence of the last committed or dropped event, guarded by lock */
+	private long committedSequence;
+
+	/** the batch the queued events belong to, guarded by lock */
+	private Batch queuedBatch;
+
+	/**
+	 * set once stop gave up waiting for the queue to be committed, guarded by
+	 * lock
+	 */
+	private boolean abandoned;
+
+	private volatile long commitCount;
+
+	private FileOutputStream fileOutputStream;
+
+	private BufferedOutputStream bufferedOutputStream;
+
+	private Thread writer;
+
+	@Override
+	public void start() {
+		int errors = 0;
+		if (encoder == null) {
+			addError("No encoder set for the appender named \"" + name + "\".");
+			errors++;
+		}
+		if (file == null) {
+			addError("No file set for the appender named \"" + name + "\".");
+			errors++;
+		}
+		if (maxQueueSize < 1) {
+			addError("Invalid maxQueueSize " + maxQueueSize + " for the appender named \"" + name + "\".");
+			errors++;
+		}
+		if (errors > 0) {
+			return;
+		}
+
+		try {
+			open();
+		} catch (IOException e) {
+			addError("Failed to open file " + file, e);
+			return;
+		}
+
+		droppedCount.set(0);
+		latencyExceededCount.set(0);
+		uncommittedCount.set(0);
+		closed.set(false);
+		abandoned = false;
+		queuedBatch = new Batch();
+		writer = new Thread(new Writer(), "GroupCommitFileAppender-Writer-" + getName());
+		writer.setDaemon(true);
+		super.start();
+		writer.start();
+	}
+
+	private void open() throws IOException {
+		File logFile = new File(file);
+		File parent = logFile.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Failed to create parent directories of " + logFile);
+		}
+		fileOutputStream = new FileOutputStream(logFile, append);
+		bufferedOutputStream = new BufferedOutputStream(fileOutputStream, BUFFER_SIZE);
+		// the writer flushes once per commit, whatever the encoder's
+		// immediateFlush
+		encoder.init(new FilterOutputStream(bufferedOutputStream) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void flush() {
+			}
+		});
+	}
+
+	@Override
+	public void stop() {
+		if (!isStarted()) {
+			return;
+		}
+
+		// the writer commits the queue once it sees the appender stopped
+		lock.lock();
+		try {
+			super.stop();
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+
+		try {
+			writer.join(maxFlushTime);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (writer.isAlive()) {
+			// interrupting the writer could close the channel under a
+			// commit : it drops the queue and closes the file itself once
+			// the commit in progress is over
+			addWarn("Max flush time exceeded, " + getQueueSize() + " events may be discarded");
+			lock.lock();
+			try {
+				abandoned = true;
+				notEmpty.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		} else {
+			close();
+		}
+	}
+
+	/**
+	 * Close the file, once the writer won't commit anymore
+	 */
+	private void close() {
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			encoder.close();
+			bufferedOutputStream.flush();
+		} catch (IOException e) {
+			addError("Failed to write footer", e);
+		}
+		try {
+			fileOutputStream.close();
+		} catch (IOException e) {
+			addError("Failed to close file " + file, e);
+		}
+	}
+
+	@Override
+	protected void append(ILoggingEvent event) {
+
+		event.prepareForDeferredProcessing();
+		if (includeCallerData) {
+			event.getCallerData();
+		}
+
+		lock.lock();
+		try {
+			while (queue.size() >= maxQueueSize) {
+				if (!isStarted()) {
+					droppedCount.incrementAndGet();
+					return;
+				}
+				notFull.await();
+			}
+
+			queue.add(event);
+			queuedSequence++;
+			notEmpty.signal();
+
+			if (durable) {
+				Batch batch = queuedBatch;
+				long nanos = TimeUnit.MILLISECONDS.toNanos(maxLatency);
+				while (!batch.done) {
+					if (nanos <= 0) {
+						latencyExceededCount.incrementAndGet();
+						break;
+					}
+					nanos = committed.awaitNanos(nanos);
+				}
+				if (batch.done && !batch.committed) {
+					uncommittedCount.incrementAndGet();
+				}
+			}
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int drain(long timeout) {
+		long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+		lock.lock();
+		try {
+			while (committedSequence < queuedSequence && nanos > 0) {
+				nanos = committed.awaitNanos(nanos);
+			}
+			return (int) (queuedSequence - committedSequence);
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return (int) (queuedSequence - committedSequence);
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of events queued or being committed
+	 */
+	public int getQueueSize() {
+		lock.lock();
+		try {
+			return (int) (queuedSequence - committedSequence);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of events dropped since this appender was started,
+	 *         because the appender was stopped or the commit failed
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * @return the number of durable logging calls that returned before their
+	 *         event was committed, as maxLatency was exceeded
+	 */
+	public long getLatencyExceededCount() {
+		return latencyExceededCount.get();
+	}
+
+	/**
+	 * @return the number of durable logging calls that returned without their
+	 *         event being committed, as the commit failed or the appender was
+	 *         stopped
+	 */
+	public long getUncommittedCount() {
+		return uncommittedCount.get();
+	}
+
+	/**
+	 * @return the number of fsyncs since this appender was started
+	 */
+	public long getCommitCount() {
+		return commitCount;
+	}
+
+	public Encoder<ILoggingEvent> getEncoder() {
+		return encoder;
+	}
+
+	@DefaultClass(PatternLayoutEncoder.class)
+	public void setEncoder(Encoder<ILoggingEvent> encoder) {
+		this.encoder = encoder;
+	}
+
+	public String getFile() {
+		return file;
+	}
+
+	public void setFile(String file) {
+		this.file = file != null ? file.trim() : null;
+	}
+
+	public boolean isAppend() {
+		return append;
+	}
+
+	public void setAppend(boolean append) {
+		this.append = append;
+	}
+
+	public boolean isDurable() {
+		return durable;
+	}
+
+	/**
+	 * @param durable
+	 *            if logging threads wait for their event to be committed
+	 */
+	public void setDurable(boolean durable) {
+		this.durable = durable;
+	}
+
+	public long getMaxLatency() {
+		return maxLatency;
+	}
+
+	/**
+	 * @param maxLatency
+	 *            how long durable logging threads wait at most for their event
+	 *            to be committed, in milliseconds
+	 */
+	public void setMaxLatency(long maxLatency) {
+		this.maxLatency = maxLatency;
+	}
+
+	public int getMaxQueueSize() {
+		return maxQueueSize;
+	}
+
+	/**
+	 * @param maxQueueSize
+	 *            the maximum number of queued events, logging threads being
+	 *            blocked beyond
+	 */
+	public void setMaxQueueSize(int maxQueueSize) {
+		this.maxQueueSize = maxQueueSize;
+	}
+
+	public boolean isIncludeCallerData() {
+		return includeCallerData;
+	}
+
+	public void setIncludeCallerData(boolean includeCallerData) {
+		this.includeCallerData = includeCallerData;
+	}
+
+	public int getMaxFlushTime() {
+		return maxFlushTime;
+	}
+
+	/**
+	 * @param maxFlushTime
+	 *            how long stop waits for the queue to be committed, in
+	 *            milliseconds
+	 */
+	public void setMaxFlushTime(int maxFlushTime) {
+		this.maxFlushTime = maxFlushTime;
+	}
+
+	/**
+	 * Outcome of the commit of a group of events, guarded by lock
+	 */
+	private static final class Batch {
+
+		private boolean done;
+
+		private boolean committed;
+	}
+
+	/**
+	 * Commits the queued events until the appender is stopped and the queue
+	 * committed, and then closes the file.
+	 */
+	private class Writer implements Runnable {
+
+		private List<ILoggingEvent> events = new ArrayList<ILoggingEvent>();
+
+		public void run() {
+			try {
+				for (;;) {
+					Batch batch;
+					long lastSequence;
+					lock.lock();
+					try {
+						while (queue.isEmpty() && isStarted() && !abandoned) {
+							notEmpty.await();
+						}
+						if (abandoned) {
+							drop();
+							return;
+						}
+						if (queue.isEmpty()) {
+							// stopped and committed
+							return;
+						}
+						List<ILoggingEvent> queued = queue;
+						queue = events;
+						events = queued;
+						batch = queuedBatch;
+						queuedBatch = new Batch();
+						lastSequence = queuedSequence;
+						notFull.signalAll();
+
+					} catch (InterruptedException e) {
+						drop();
+						return;
+
+					} finally {
+						lock.unlock();
+					}
+
+					boolean success = commit(events);
+					events.clear();
+
+					lock.lock();
+					try {
+						committedSequence = lastSequence;
+						batch.done = true;
+						batch.committed = success;
+						committed.signalAll();
+					} finally {
+						lock.unlock();
+					}
+				}
+			} finally {
+				// if interrupted while started, stop closes the file
+				if (!isStarted()) {
+					close();
+				}
+			}
+		}
+
+		/**
+		 * Drop the queued events, with the lock held
+		 */
+		private void drop() {
+			droppedCount.addAndGet(queue.size());
+			queue.clear();
+			committedSequence = queuedSequence;
+			queuedBatch.done = true;
+			committed.signalAll();
+		}
+
+		private boolean commit(List<ILoggingEvent> events) {
+			try {
+				for (ILoggingEvent event : events) {
+					encoder.doEncode(event);
+				}
+				bufferedOutputStream.flush();
+				fileOutputStream.getChannel().force(false);
+				commitCount++;
+				return true;
+			} catch (IOException e) {
+				droppedCount.addAndGet(events.size());
+				addError("Failed to commit " + events.size() + " events", e);
+				return false;
+			}
+		}
+	}
+}
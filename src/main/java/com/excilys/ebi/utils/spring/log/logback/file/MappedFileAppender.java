@@ -0,0 +1,337 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.file;
+
+import java.io.File;
+import java.io.IOException;
+
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.joran.spi.DefaultClass;
+import ch.qos.logback.core.util.FileSize;
+
+/**
+ * File appender writing the encoded events into a memory-mapped region of the
+ * file instead of issuing a write system call per event. The file is mapped in
+ * chunks of chunkSize bytes, and truncated to the written length when the
+ * appender is stopped or the file rolled over.
+ * <p>
+ * When maxFileSize is set, the file is rolled over with a fixed window: the
+ * file is renamed with the .1 suffix, the previous .1 file with the .2 suffix,
+ * and so on up to maxIndex.
+ * <p>
+ * Configuration example, to be loaded with
+ * {@link com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer}:
+ * <p>
+ * <code>
+ * <appender name="AUDIT" class="com.excilys.ebi.utils.spring.log.logback.file.MappedFileAppender">
+ *   <file>/var/log/myapp/audit.log</file>
+ *   <chunkSize>32MB</chunkSize>
+ *   <forcePolicy>INTERVAL</forcePolicy>
+ *   <forceInterval>1000</forceInterval>
+ *   <maxFileSize>1GB</maxFileSize>
+ *   <maxIndex>5</maxIndex>
+ *   <encoder>
+ *     <pattern>%d %level %logger - %msg%n</pattern>
+ *   </encoder>
+ * </appender>
+ * </code>
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class MappedFileAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+	public static final FileSize DEFAULT_CHUNK_SIZE = FileSize.valueOf("32MB");
+
+	public static final long DEFAULT_FORCE_INTERVAL = 1000;
+
+	public static final int DEFAULT_MAX_INDEX = 7;
+
+	private final Object lock = new Object();
+
+	private Encoder<ILoggingEvent> encoder;
+
+	private String file;
+
+	private boolean append = true;
+
+	private FileSize chunkSize = DEFAULT_CHUNK_SIZE;
+
+	private ForcePolicy forcePolicy = ForcePolicy.CHUNK;
+
+	private long forceInterval = DEFAULT_FORCE_INTERVAL;
+
+	private FileSize maxFileSize;
+
+	private int maxIndex = DEFAULT_MAX_INDEX;
+
+	private MappedOutputStream outputStream;
+
+	private long lastForce;
+
+	@Override
+	public void start() {
+		int errors = 0;
+		if (encoder == null) {
+			addError("No encoder set for the appender named \"" + name + "\".");
+			errors++;
+		}
+		if (file == null) {
+			addError("No file set for the appender named \"" + name + "\".");
+			errors++;
+		}
+		if (chunkSize.getSize() <= 0 || chunkSize.getSize() > Integer.MAX_VALUE) {
+			addError("Invalid chunkSize " + chunkSize.getSize() + " for the appender named \"" + name + "\".");
+			errors++;
+		}
+		if (maxIndex < 1) {
+			addError("Invalid maxIndex " + maxIndex + " for the appender named \"" + name + "\".");
+			errors++;
+		}
+		if (errors > 0) {
+			return;
+		}
+
+		synchronized (lock) {
+			try {
+				open(append);
+			} catch (IOException e) {
+				addError("Failed to open file " + file, e);
+				return;
+			}
+		}
+		super.start();
+	}
+
+	@Override
+	public void stop() {
+		synchronized (lock) {
+			if (!isStarted()) {
+				return;
+			}
+			super.stop();
+			close();
+		}
+	}
+
+	private void open(boolean appendToFile) throws IOException {
+		File logFile = new File(file);
+		File parent = logFile.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Failed to create parent directories of " + logFile);
+		}
+		outputStream = new MappedOutputStream(logFile, appendToFile, chunkSize.getSize(), forcePolicy != ForcePolicy.NEVER);
+		lastForce = System.currentTimeMillis();
+		encoder.init(outputStream);
+	}
+
+	private void close() {
+		if (outputStream == null) {
+			return;
+		}
+		try {
+			encoder.close();
+		} catch (IOException e) {
+			addError("Failed to write footer", e);
+		}
+		try {
+			outputStream.close();
+		} catch (IOException e) {
+			addError("Failed to close file " + file, e);
+		}
+		outputStream = null;
+	}
+
+	@Override
+	protected void append(ILoggingEvent event) {
+		synchronized (lock) {
+			if (!isStarted()) {
+				return;
+			}
+			try {
+				encoder.doEncode(event);
+				afterWrite();
+			} catch (IOException e) {
+				// same as OutputStreamAppender
+				super.stop();
+				addError("IO failure in appender", e);
+			}
+		}
+	}
+
+	private void afterWrite() throws IOException {
+		switch (forcePolicy) {
+		case EVENT:
+			outputStream.force();
+			break;
+		case INTERVAL:
+			long now = System.currentTimeMillis();
+			if (now - lastForce >= forceInterval) {
+				outputStream.force();
+				lastForce = now;
+			}
+			break;
+		default:
+			break;
+		}
+
+		if (maxFileSize != null && outputStream.position() >= maxFileSize.getSize()) {
+			rollover();
+		}
+	}
+
+	/**
+	 * Truncate and close the current file, shift the archived ones and start a
+	 * new file
+	 * 
+	 * @throws IOException
+	 *             if the new file can't be opened, in which case the appender
+	 *             is stopped
+	 */
+	public void rollover() throws IOException {
+		synchronized (lock) {
+			if (!isStarted()) {
+				return;
+			}
+			close();
+			File deleted = archive(maxIndex);
+			if (deleted.exists() && !deleted.delete()) {
+				addWarn("Failed to delete " + deleted);
+			}
+			for (int i = maxIndex - 1; i >= 0; i--) {
+				File source = i == 0 ? new File(file) : archive(i);
+				if (source.exists() && !source.renameTo(archive(i + 1))) {
+					addWarn("Failed to rename " + source + " to " + archive(i + 1));
+				}
+			}
+			try {
+				open(false);
+			} catch (IOException e) {
+				super.stop();
+				throw e;
+			}
+		}
+	}
+
+	private File archive(int index) {
+		return new File(file + '.' + index);
+	}
+
+	/**
+	 * Force the written events to the storage device, whatever the
+	 * {@link ForcePolicy}
+	 */
+	public void force() {
+		synchronized (lock) {
+			if (outputStream != null) {
+				outputStream.force();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of bytes written to the current file
+	 */
+	public long getPosition() {
+		synchronized (lock) {
+			return outputStream != null ? outputStream.position() : 0;
+		}
+	}
+
+	public Encoder<ILoggingEvent> getEncoder() {
+		return encoder;
+	}
+
+	@DefaultClass(PatternLayoutEncoder.class)
+	public void setEncoder(Encoder<ILoggingEvent> encoder) {
+		this.encoder = encoder;
+	}
+
+	public String getFile() {
+		return file;
+	}
+
+	public void setFile(String file) {
+		this.file = file != null ? file.trim() : null;
+	}
+
+	public boolean isAppend() {
+		return append;
+	}
+
+	public void setAppend(boolean append) {
+		this.append = append;
+	}
+
+	public FileSize getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @param chunkSize
+	 *            the size of the mapped regions, at most 2GB
+	 */
+	public void setChunkSize(FileSize chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	public ForcePolicy getForcePolicy() {
+		return forcePolicy;
+	}
+
+	public void setForcePolicy(ForcePolicy forcePolicy) {
+		this.forcePolicy = forcePolicy;
+	}
+
+	public long getForceInterval() {
+		return forceInterval;
+	}
+
+	/**
+	 * @param forceInterval
+	 *            the minimum time between two forces with
+	 *            {@link ForcePolicy#INTERVAL}, in milliseconds
+	 */
+	public void setForceInterval(long forceInterval) {
+		this.forceInterval = forceInterval;
+	}
+
+	public FileSize getMaxFileSize() {
+		return maxFileSize;
+	}
+
+	/**
+	 * @param maxFileSize
+	 *            the size triggering a rollover, null to never roll over
+	 */
+	public void setMaxFileSize(FileSize maxFileSize) {
+		this.maxFileSize = maxFileSize;
+	}
+
+	public int getMaxIndex() {
+		return maxIndex;
+	}
+
+	/**
+	 * @param maxIndex
+	 *            the number of archived files kept on rollover
+	 */
+	public void setMaxIndex(int maxIndex) {
+		this.maxIndex = maxIndex;
+	}
+}
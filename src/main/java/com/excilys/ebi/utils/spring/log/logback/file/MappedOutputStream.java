@@ -0,0 +1,207 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * OutputStream writing into a memory-mapped region of a file, mapping the next
+ * region of chunkSize bytes when the current one is full.
+ * <p>
+ * As mapping extends the file, the file is truncated to the written length on
+ * close. If it wasn't, because the JVM crashed, the trailing zeros of the last
+ * chunk are skipped when the file is opened again in append mode.
+ * <p>
+ * Not thread safe.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+class MappedOutputStream extends OutputStream {
+
+	private static final int SCAN_BLOCK_SIZE = 8192;
+
+	private final RandomAccessFile file;
+
+	private final FileChannel channel;
+
+	private final long chunkSize;
+
+	private final boolean forceOnRemap;
+
+	private MappedByteBuffer buffer;
+
+	private long bufferStart;
+
+	private int remapCount;
+
+	public MappedOutputStream(File file, boolean append, long chunkSize, boolean forceOnRemap) throws IOException {
+		this.file = new RandomAccessFile(file, "rw");
+		this.channel = this.file.getChannel();
+		this.chunkSize = chunkSize;
+		this.forceOnRemap = forceOnRemap;
+		try {
+			map(append ? writtenLength() : 0);
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the length of the file without the zeros a previous mapping may
+	 *         have left at its end
+	 */
+	private long writtenLength() throws IOException {
+		long end = channel.size();
+		ByteBuffer block = ByteBuffer.allocate(SCAN_BLOCK_SIZE);
+		long scanned = 0;
+		while (end > 0 && scanned < chunkSize) {
+			int length = (int) Math.min(SCAN_BLOCK_SIZE, end);
+			block.clear().limit(length);
+			channel.read(block, end - length);
+			for (int i = length - 1; i >= 0; i--) {
+				if (block.get(i) != 0) {
+					return end - length + i + 1;
+				}
+			}
+			end -= length;
+			scanned += length;
+		}
+		return end;
+	}
+
+	private void map(long position) throws IOException {
+		bufferStart = position;
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, chunkSize);
+	}
+
+	private void remap() throws IOException {
+		long position = position();
+		if (forceOnRemap) {
+			buffer.force();
+		}
+		unmap(buffer);
+		map(position);
+		remapCount++;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (!buffer.hasRemaining()) {
+			remap();
+		}
+		buffer.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (!buffer.hasRemaining()) {
+				remap();
+			}
+			int length = Math.min(len, buffer.remaining());
+			buffer.put(b, off, length);
+			off += length;
+			len -= length;
+		}
+	}
+
+	/**
+	 * Nothing to do, as the written bytes are already in the page cache, see
+	 * {@link #force()}
+	 */
+	@Override
+	public void flush() {
+	}
+
+	/**
+	 * Force the written bytes to the storage device
+	 */
+	public void force() {
+		buffer.force();
+	}
+
+	/**
+	 * @return the number of bytes in the file
+	 */
+	public long position() {
+		return bufferStart + buffer.position();
+	}
+
+	/**
+	 * @return the number of chunks mapped after the first one
+	 */
+	public int getRemapCount() {
+		return remapCount;
+	}
+
+	/**
+	 * Unmap the current chunk and truncate the file to the written length
+	 */
+	@Override
+	public void close() throws IOException {
+		if (buffer == null) {
+			return;
+		}
+		long length = position();
+		try {
+			buffer.force();
+			unmap(buffer);
+			buffer = null;
+			channel.truncate(length);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Release the mapping right away instead of waiting for the buffer to be
+	 * garbage collected, which also lets the file be truncated or renamed on
+	 * platforms locking mapped files. Best effort, as it relies on JDK
+	 * internals.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			// Java 9+
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			return;
+		} catch (Exception e) {
+			// fall back to Java 6-8
+		}
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (Exception e) {
+			// left to the garbage collector
+		}
+	}
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.file;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggerContextListener;
+import ch.qos.logback.core.spi.ContextAwareBase;
+import ch.qos.logback.core.spi.LifeCycle;
+
+/**
+ * Compresses the archives of the {@link BackgroundFixedWindowRollingPolicy}s
+ * of a LoggerContext on a bounded pool of background threads, so that the
+ * number of concurrent compressions is capped across all the appenders of the
+ * context, and that compressing doesn't compete with the application threads.
+ * <p>
+ * Installed with the configuration loaded by
+ * {@link com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer}, before
+ * the appenders:
+ * <p>
+ * <code>
+ * <contextListener class="com.excilys.ebi.utils.spring.log.logback.file.RolloverCoordinator">
+ *   <maxConcurrentCompressions>2</maxConcurrentCompressions>
+ *   <maxQueuedCompressions>64</maxQueuedCompressions>
+ *   <threadPriority>1</threadPriority>
+ * </contextListener>
+ * </code>
+ * <p>
+ * If not configured, a coordinator with the default settings is installed on
+ * the first rollover. When the context is reset, the pending compressions are
+ * completed in the background before the threads stop. The threads are
+ * daemons, so that they don't keep the JVM alive when logging isn't shut
+ * down : the files whose compression was interrupted are compressed on the
+ * next start. When the queue is full, the thread rolling over compresses the
+ * archive itself.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class RolloverCoordinator extends ContextAwareBase implements LoggerContextListener, LifeCycle {
+
+	public static final int DEFAULT_MAX_CONCURRENT_COMPRESSIONS = 1;
+
+	public static final int DEFAULT_MAX_QUEUED_COMPRESSIONS = 64;
+
+	public static final int DEFAULT_THREAD_PRIORITY = Thread.MIN_PRIORITY;
+
+	private static final long KEEP_ALIVE_SECONDS = 60;
+
+	private int maxConcurrentCompressions = DEFAULT_MAX_CONCURRENT_COMPRESSIONS;
+
+	private int maxQueuedCompressions = DEFAULT_MAX_QUEUED_COMPRESSIONS;
+
+	private int threadPriority = DEFAULT_THREAD_PRIORITY;
+
+	private volatile ThreadPoolExecutor executor;
+
+	/**
+	 * Get the RolloverCoordinator of the given LoggerContext, creating and
+	 * installing one with the default settings if necessary
+	 * 
+	 * @param loggerContext
+	 *            the LoggerContext
+	 * @return the RolloverCoordinator
+	 */
+	public static synchronized RolloverCoordinator getInstance(LoggerContext loggerContext) {
+		for (LoggerContextListener listener : loggerContext.getCopyOfListenerList()) {
+			if (listener instanceof RolloverCoordinator) {
+				return (RolloverCoordinator) listener;
+			}
+		}
+		RolloverCoordinator coordinator = new RolloverCoordinator();
+		coordinator.setContext(loggerContext);
+		coordinator.start();
+		loggerContext.addListener(coordinator);
+		return coordinator;
+	}
+
+	public void start() {
+		if (maxConcurrentCompressions < 1 || maxQueuedCompressions < 1) {
+			addError("Invalid maxConcurrentCompressions " + maxConcurrentCompressions + " or maxQueuedCompressions " + maxQueuedCompressions);
+			return;
+		}
+		final String contextName = getContext().getName();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConcurrentCompressions, maxConcurrentCompressions, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(maxQueuedCompressions), new ThreadFactory() {
+
+					private final AtomicInteger count = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "logback-compression-" + contextName + "-" + count.incrementAndGet());
+						thread.setPriority(threadPriority);
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new RejectedExecutionHandler() {
+
+					public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+						// queue full or stopped meanwhile : unlike
+						// CallerRunsPolicy, never discard the task
+						r.run();
+					}
+				});
+		pool.allowCoreThreadTimeOut(true);
+		executor = pool;
+	}
+
+	/**
+	 * Stop accepting compressions, the pending ones being completed in the
+	 * background
+	 */
+	public void stop() {
+		ThreadPoolExecutor pool = executor;
+		if (pool != null) {
+			executor = null;
+			pool.shutdown();
+		}
+	}
+
+	public boolean isStarted() {
+		return executor != null;
+	}
+
+	/**
+	 * Run a compression task in the background
+	 * 
+	 * @param task
+	 *            the task
+	 * @return the pending task, or null if it was run synchronously as the
+	 *         coordinator is stopped
+	 */
+	public Future<?> submit(Runnable task) {
+		ThreadPoolExecutor pool = executor;
+		if (pool == null) {
+			addWarn("Coordinator stopped, compressing synchronously");
+			task.run();
+			return null;
+		}
+		return pool.submit(task);
+	}
+
+	/**
+	 * @return the number of compressions waiting for a thread
+	 */
+	public int getQueuedCompressions() {
+		ThreadPoolExecutor pool = executor;
+		return pool != null ? pool.getQueue().size() : 0;
+	}
+
+	/**
+	 * @return the number of compressions in progress
+	 */
+	public int getActiveCompressions() {
+		ThreadPoolExecutor pool = executor;
+		return pool != null ? pool.getActiveCount() : 0;
+	}
+
+	public int getMaxConcurrentCompressions() {
+		return maxConcurrentCompressions;
+	}
+
+	public void setMaxConcurrentCompressions(int maxConcurrentCompressions) {
+		this.maxConcurrentCompressions = maxConcurrentCompressions;
+	}
+
+	public int getMaxQueuedCompressions() {
+		return maxQueuedCompressions;
+	}
+
+	/**
+	 * @param maxQueuedCompressions
+	 *            the number of compressions waiting for a thread beyond which
+	 *            the thread rolling over compresses the archive itself
+	 */
+	public void setMaxQueuedCompressions(int maxQueuedCompressions) {
+		this.maxQueuedCompressions = maxQueuedCompressions;
+	}
+
+	public int getThreadPriority() {
+		return threadPriority;
+	}
+
+	/**
+	 * @param threadPriority
+	 *            the priority of the compression threads, from
+	 *            {@link Thread#MIN_PRIORITY} to {@link Thread#MAX_PRIORITY}
+	 */
+	public void setThreadPriority(int threadPriority) {
+		this.threadPriority = Math.max(Thread.MIN_PRIORITY, Math.min(Thread.MAX_PRIORITY, threadPriority));
+	}
+
+	public boolean isResetResistant() {
+		return false;
+	}
+
+	public void onStart(LoggerContext context) {
+	}
+
+	public void onReset(LoggerContext context) {
+		stop();
+	}
+
+	public void onStop(LoggerContext context) {
+		stop();
+	}
+
+	public void onLevelChange(Logger logger, Level level) {
+	}
+}
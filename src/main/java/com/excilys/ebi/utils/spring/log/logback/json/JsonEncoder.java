@@ -0,0 +1,210 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.json;
+
+import java.io.IOException;
+import java.util.Map;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.core.encoder.EncoderBase;
+
+/**
+ * Encoder writing each event as a JSON object on a single line, for example:
+ * <p>
+ * <code>
+ * {"timestamp":"2012-05-14T09:32:17.042Z","level":"INFO","logger":"com.foo.Bar","thread":"main","message":"Hello \"world\"","mdc":{"user":"joe"}}
+ * </code>
+ * <p>
+ * The event is written straight into a byte buffer reused from one event to
+ * the next, escaping and encoding the characters in place, so that no intermediate
+ * String nor map is created on the common path. The message is formatted in
+ * place too, unless an argument is neither a String, a boxed integer, a Boolean
+ * or null, in which case the formatted message of the event is used.
+ * Exceptions, if any, are written with their stack trace in the "exception"
+ * field.
+ * <p>
+ * Configuration example, to be loaded with
+ * {@link com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer}:
+ * <p>
+ * <code>
+ * <appender name="JSON" class="ch.qos.logback.core.FileAppender">
+ *   <file>/var/log/myapp/events.json</file>
+ *   <encoder class="com.excilys.ebi.utils.spring.log.logback.json.JsonEncoder">
+ *     <includeMdc>true</includeMdc>
+ *   </encoder>
+ * </appender>
+ * </code>
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class JsonEncoder extends EncoderBase<ILoggingEvent> {
+
+	private static final byte[] TIMESTAMP = ascii("{\"timestamp\":");
+
+	private static final byte[] LEVEL = ascii(",\"level\":");
+
+	private static final byte[] LOGGER = ascii(",\"logger\":");
+
+	private static final byte[] THREAD = ascii(",\"thread\":");
+
+	private static final byte[] MESSAGE = ascii(",\"message\":\"");
+
+	private static final byte[] MDC = ascii(",\"mdc\":{");
+
+	private static final byte[] EXCEPTION = ascii(",\"exception\":");
+
+	private static final byte[] END = ascii("}\n");
+
+	private static final Level[] LEVELS = { Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR };
+
+	private static final byte[][] LEVEL_VALUES = new byte[LEVELS.length][];
+
+	static {
+		for (int i = 0; i < LEVELS.length; i++) {
+			LEVEL_VALUES[i] = ascii('"' + LEVELS[i].toString() + '"');
+		}
+	}
+
+	/**
+	 * Above this size, the buffer is dropped once the event is written, so
+	 * that a very large event doesn't stay retained
+	 */
+	private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+	/**
+	 * guarded by the appender, that encodes one event at a time
+	 */
+	private JsonWriter writer = new JsonWriter();
+
+	private boolean includeMdc = true;
+
+	private boolean immediateFlush = true;
+
+	private static byte[] ascii(String s) {
+		byte[] bytes = new byte[s.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) s.charAt(i);
+		}
+		return bytes;
+	}
+
+	public void doEncode(ILoggingEvent event) throws IOException {
+		writer.reset();
+		write(event, writer);
+		outputStream.write(writer.getBytes(), 0, writer.getLength());
+		if (writer.getBytes().length > MAX_RETAINED_SIZE) {
+			writer = new JsonWriter();
+		}
+		if (immediateFlush) {
+			outputStream.flush();
+		}
+	}
+
+	void write(ILoggingEvent event, JsonWriter writer) {
+
+		writer.writeRaw(TIMESTAMP);
+		writer.writeTimestamp(event.getTimeStamp());
+
+		writer.writeRaw(LEVEL);
+		writeLevel(event.getLevel(), writer);
+
+		writer.writeRaw(LOGGER);
+		writer.writeString(event.getLoggerName());
+
+		writer.writeRaw(THREAD);
+		writer.writeString(event.getThreadName());
+
+		writer.writeRaw(MESSAGE);
+		writeMessage(event, writer);
+		writer.writeByte('"');
+
+		if (includeMdc) {
+			Map<String, String> mdc = event.getMDCPropertyMap();
+			if (mdc != null && !mdc.isEmpty()) {
+				writer.writeRaw(MDC);
+				boolean first = true;
+				for (Map.Entry<String, String> entry : mdc.entrySet()) {
+					if (!first) {
+						writer.writeByte(',');
+					}
+					first = false;
+					writer.writeString(entry.getKey());
+					writer.writeByte(':');
+					writer.writeString(entry.getValue());
+				}
+				writer.writeByte('}');
+			}
+		}
+
+		IThrowableProxy throwableProxy = event.getThrowableProxy();
+		if (throwableProxy != null) {
+			writer.writeRaw(EXCEPTION);
+			writer.writeString(ThrowableProxyUtil.asString(throwableProxy));
+		}
+
+		writer.writeRaw(END);
+	}
+
+	private void writeLevel(Level level, JsonWriter writer) {
+		for (int i = 0; i < LEVELS.length; i++) {
+			if (LEVELS[i] == level) {
+				writer.writeRaw(LEVEL_VALUES[i]);
+				return;
+			}
+		}
+		writer.writeString(level.toString());
+	}
+
+	private void writeMessage(ILoggingEvent event, JsonWriter writer) {
+		String message = event.getMessage();
+		Object[] args = event.getArgumentArray();
+		if (message == null) {
+			return;
+		}
+		if (args == null || args.length == 0) {
+			writer.writeEscaped(message, 0, message.length());
+		} else if (!writer.writeFormattedMessage(message, args)) {
+			String formattedMessage = event.getFormattedMessage();
+			writer.writeEscaped(formattedMessage, 0, formattedMessage.length());
+		}
+	}
+
+	public void close() throws IOException {
+	}
+
+	public boolean isIncludeMdc() {
+		return includeMdc;
+	}
+
+	public void setIncludeMdc(boolean includeMdc) {
+		this.includeMdc = includeMdc;
+	}
+
+	public boolean isImmediateFlush() {
+		return immediateFlush;
+	}
+
+	/**
+	 * @param immediateFlush
+	 *            if the output stream is flushed after each event
+	 */
+	public void setImmediateFlush(boolean immediateFlush) {
+		this.immediateFlush = immediateFlush;
+	}
+}
@@ -0,0 +1,317 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.json;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Reusable UTF-8 byte buffer with JSON writing methods that escape and encode
+ * the characters in place, without creating intermediate Strings.
+ * <p>
+ * Not thread safe: {@link JsonEncoder} owns a single one, guarded by the lock
+ * of its appender, which already serializes the encoding. Per thread writers
+ * wouldn't save any contention, but would keep one buffer per logging thread
+ * alive, beyond redeployments. The encoder replaces its writer after an event
+ * larger than 64KB, so that the buffer doesn't stay oversized.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+final class JsonWriter {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+	private static final String NULL = "null";
+
+	private byte[] bytes = new byte[INITIAL_CAPACITY];
+
+	private int length;
+
+	/** "yyyy-MM-ddT" of the day of the last timestamp */
+	private final byte[] day = new byte[11];
+
+	private long dayStart = Long.MIN_VALUE;
+
+	private long dayEnd = Long.MIN_VALUE;
+
+	public void reset() {
+		length = 0;
+	}
+
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Go back to a previous length, dropping what was written since
+	 * 
+	 * @param length
+	 *            a length returned by {@link #getLength()}
+	 */
+	public void truncate(int length) {
+		this.length = length;
+	}
+
+	private void ensureCapacity(int extra) {
+		if (length + extra > bytes.length) {
+			byte[] grown = new byte[Math.max(bytes.length * 2, length + extra)];
+			System.arraycopy(bytes, 0, grown, 0, length);
+			bytes = grown;
+		}
+	}
+
+	public void writeByte(int b) {
+		ensureCapacity(1);
+		bytes[length++] = (byte) b;
+	}
+
+	/**
+	 * @param ascii
+	 *            already encoded and escaped bytes
+	 */
+	public void writeRaw(byte[] ascii) {
+		ensureCapacity(ascii.length);
+		System.arraycopy(ascii, 0, bytes, length, ascii.length);
+		length += ascii.length;
+	}
+
+	/**
+	 * Write a quoted and escaped JSON string, or null
+	 */
+	public void writeString(CharSequence s) {
+		if (s == null) {
+			writeAscii(NULL);
+		} else {
+			writeByte('"');
+			writeEscaped(s, 0, s.length());
+			writeByte('"');
+		}
+	}
+
+	private void writeAscii(String s) {
+		ensureCapacity(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			bytes[length++] = (byte) s.charAt(i);
+		}
+	}
+
+	/**
+	 * Escape and UTF-8 encode a range of characters, without quotes
+	 */
+	public void writeEscaped(CharSequence s, int start, int end) {
+		// worst case: 6 bytes per char for control characters
+		ensureCapacity((end - start) * 6);
+		byte[] b = bytes;
+		int l = length;
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c >= 0x20 && c < 0x80) {
+				if (c == '"' || c == '\\') {
+					b[l++] = '\\';
+				}
+				b[l++] = (byte) c;
+			} else if (c < 0x20) {
+				b[l++] = '\\';
+				switch (c) {
+				case '\n':
+					b[l++] = 'n';
+					break;
+				case '\r':
+					b[l++] = 'r';
+					break;
+				case '\t':
+					b[l++] = 't';
+					break;
+				default:
+					b[l++] = 'u';
+					b[l++] = '0';
+					b[l++] = '0';
+					b[l++] = HEX[c >> 4];
+					b[l++] = HEX[c & 0xF];
+				}
+			} else if (c < 0x800) {
+				b[l++] = (byte) (0xC0 | c >> 6);
+				b[l++] = (byte) (0x80 | c & 0x3F);
+			} else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, s.charAt(++i));
+				b[l++] = (byte) (0xF0 | codePoint >> 18);
+				b[l++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+				b[l++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+				b[l++] = (byte) (0x80 | codePoint & 0x3F);
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				// lone surrogate, same replacement as String.getBytes
+				b[l++] = '?';
+			} else {
+				b[l++] = (byte) (0xE0 | c >> 12);
+				b[l++] = (byte) (0x80 | c >> 6 & 0x3F);
+				b[l++] = (byte) (0x80 | c & 0x3F);
+			}
+		}
+		length = l;
+	}
+
+	/**
+	 * Write the decimal digits of a number
+	 */
+	public void writeLong(long value) {
+		if (value == Long.MIN_VALUE) {
+			writeAscii("-9223372036854775808");
+			return;
+		}
+		ensureCapacity(20);
+		if (value < 0) {
+			bytes[length++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (long v = value / 10; v > 0; v /= 10) {
+			digits++;
+		}
+		for (int i = length + digits - 1; i >= length; i--) {
+			bytes[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		length += digits;
+	}
+
+	/**
+	 * Write a quoted ISO 8601 UTC date, such as "2012-05-14T09:32:17.042Z".
+	 * The date part is only computed again when the day changes.
+	 */
+	public void writeTimestamp(long timestamp) {
+		if (timestamp < dayStart || timestamp >= dayEnd) {
+			computeDay(timestamp);
+		}
+		int millisOfDay = (int) (timestamp - dayStart);
+
+		ensureCapacity(26);
+		bytes[length++] = '"';
+		System.arraycopy(day, 0, bytes, length, day.length);
+		length += day.length;
+		writeTwoDigits(millisOfDay / 3600000);
+		bytes[length++] = ':';
+		writeTwoDigits(millisOfDay / 60000 % 60);
+		bytes[length++] = ':';
+		writeTwoDigits(millisOfDay / 1000 % 60);
+		bytes[length++] = '.';
+		int millis = millisOfDay % 1000;
+		bytes[length++] = (byte) ('0' + millis / 100);
+		writeTwoDigits(millis % 100);
+		bytes[length++] = 'Z';
+		bytes[length++] = '"';
+	}
+
+	private void writeTwoDigits(int value) {
+		bytes[length++] = (byte) ('0' + value / 10);
+		bytes[length++] = (byte) ('0' + value % 10);
+	}
+
+	private void computeDay(long timestamp) {
+		Calendar calendar = Calendar.getInstance(UTC);
+		calendar.setTimeInMillis(timestamp);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		dayStart = calendar.getTimeInMillis();
+		dayEnd = dayStart + MILLIS_PER_DAY;
+
+		int year = calendar.get(Calendar.YEAR);
+		int month = calendar.get(Calendar.MONTH) + 1;
+		int dayOfMonth = calendar.get(Calendar.DAY_OF_MONTH);
+		day[0] = (byte) ('0' + year / 1000 % 10);
+		day[1] = (byte) ('0' + year / 100 % 10);
+		day[2] = (byte) ('0' + year / 10 % 10);
+		day[3] = (byte) ('0' + year % 10);
+		day[4] = '-';
+		day[5] = (byte) ('0' + month / 10);
+		day[6] = (byte) ('0' + month % 10);
+		day[7] = '-';
+		day[8] = (byte) ('0' + dayOfMonth / 10);
+		day[9] = (byte) ('0' + dayOfMonth % 10);
+		day[10] = 'T';
+	}
+
+	/**
+	 * Write the escaped message, without quotes, substituting the {}
+	 * placeholders with the arguments the same way as SLF4J's
+	 * MessageFormatter does.
+	 * 
+	 * @return false, with nothing written, if an argument isn't a String, a
+	 *         boxed integer, a Boolean or null, so that the caller falls back
+	 *         to the formatted message
+	 */
+	public boolean writeFormattedMessage(String pattern, Object[] args) {
+
+		int mark = length;
+		int i = 0;
+		for (int argIndex = 0; argIndex < args.length; argIndex++) {
+			int j = pattern.indexOf("{}", i);
+			if (j == -1) {
+				break;
+			}
+			if (j > 0 && pattern.charAt(j - 1) == '\\') {
+				if (j > 1 && pattern.charAt(j - 2) == '\\') {
+					// double escaped: the backslash is kept
+					writeEscaped(pattern, i, j - 1);
+				} else {
+					// escaped: the placeholder is kept, the argument is
+					// substituted to the next one
+					argIndex--;
+					writeEscaped(pattern, i, j - 1);
+					writeByte('{');
+					i = j + 1;
+					continue;
+				}
+			} else {
+				writeEscaped(pattern, i, j);
+			}
+			if (!writeArgument(args[argIndex])) {
+				length = mark;
+				return false;
+			}
+			i = j + 2;
+		}
+		writeEscaped(pattern, i, pattern.length());
+		return true;
+	}
+
+	private boolean writeArgument(Object arg) {
+		if (arg == null) {
+			writeAscii(NULL);
+		} else if (arg instanceof String) {
+			String s = (String) arg;
+			writeEscaped(s, 0, s.length());
+		} else if (arg instanceof Integer || arg instanceof Long || arg instanceof Short || arg instanceof Byte) {
+			writeLong(((Number) arg).longValue());
+		} else if (arg instanceof Boolean) {
+			writeAscii(((Boolean) arg).booleanValue() ? "true" : "false");
+		} else {
+			return false;
+		}
+		return true;
+	}
+}
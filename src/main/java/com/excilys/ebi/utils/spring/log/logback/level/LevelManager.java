@@ -0,0 +1,402 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.level;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.jul.LevelChangePropagator;
+import ch.qos.logback.classic.spi.LoggerContextListener;
+
+import com.excilys.ebi.utils.spring.log.logback.JmxUtils;
+
+/**
+ * Reads and changes logger levels at runtime, without reconfiguring the
+ * LoggerContext : appenders are left untouched, so no event is lost.
+ * <p>
+ * Changes are applied under the context configuration lock, so concurrent
+ * changes and configurations don't interleave. Logging threads don't take
+ * the lock though : while a subtree change is applied, they may see the new
+ * level on the subtree root while the descendants still have their own. A change can be reverted
+ * automatically after a given duration, for example DEBUG on "com.foo" for 5
+ * minutes : the previous levels are then restored, except on loggers whose
+ * level was changed again in the meantime. Pending reverts are cancelled when
+ * the context is reset, as the new configuration takes over.
+ * <p>
+ * Installed and published over JMX by
+ * {@link com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer}, see
+ * {@link #getInstance(LoggerContext)} for programmatic use.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public final class LevelManager implements LevelManagerMXBean, LoggerContextListener {
+
+	private final LoggerContext loggerContext;
+
+	private final ObjectName objectName;
+
+	private final List<Revert> pendingReverts = new ArrayList<Revert>();
+
+	private ScheduledExecutorService scheduler;
+
+	private LevelManager(LoggerContext loggerContext) {
+		this.loggerContext = loggerContext;
+		objectName = JmxUtils.objectName("LevelManager", loggerContext, null);
+	}
+
+	/**
+	 * Get the LevelManager of the given LoggerContext, creating it and
+	 * registering its MBean if necessary
+	 * 
+	 * @param loggerContext
+	 *            the LoggerContext
+	 * @return the LevelManager
+	 */
+	public static synchronized LevelManager getInstance(LoggerContext loggerContext) {
+		for (LoggerContextListener listener : loggerContext.getCopyOfListenerList()) {
+			if (listener instanceof LevelManager) {
+				return (LevelManager) listener;
+			}
+		}
+		LevelManager levelManager = new LevelManager(loggerContext);
+		JmxUtils.registerMBean(levelManager, levelManager.objectName, loggerContext);
+		loggerContext.addListener(levelManager);
+		return levelManager;
+	}
+
+	/**
+	 * Remove the LevelManager of the given LoggerContext, cancelling its
+	 * pending reverts and unregistering its MBean, if it was installed
+	 * 
+	 * @param loggerContext
+	 *            the LoggerContext
+	 */
+	public static synchronized void uninstall(LoggerContext loggerContext) {
+		for (LoggerContextListener listener : loggerContext.getCopyOfListenerList()) {
+			if (listener instanceof LevelManager) {
+				loggerContext.removeListener(listener);
+				((LevelManager) listener).close();
+			}
+		}
+	}
+
+	private void close() {
+		synchronized (loggerContext.getConfigurationLock()) {
+			cancelReverts();
+			if (scheduler != null) {
+				scheduler.shutdownNow();
+				scheduler = null;
+			}
+		}
+		JmxUtils.unregisterMBean(objectName, loggerContext);
+	}
+
+	private static Level parseLevel(String level) {
+		if (!StringUtils.hasText(level) || "null".equalsIgnoreCase(level.trim())) {
+			return null;
+		}
+		Level parsed = Level.toLevel(level.trim(), null);
+		Assert.notNull(parsed, "Unknown level " + level);
+		return parsed;
+	}
+
+	private static String toString(Level level) {
+		return level != null ? level.toString() : null;
+	}
+
+	public String getLevel(String loggerName) {
+		Logger logger = existingLogger(loggerName);
+		return logger != null ? toString(logger.getLevel()) : null;
+	}
+
+	public String getEffectiveLevel(String loggerName) {
+		// the level of the closest existing ancestor
+		String name = loggerName;
+		Logger logger = existingLogger(name);
+		while (logger == null) {
+			int separator = Math.max(name.lastIndexOf('.'), name.lastIndexOf('$'));
+			name = separator != -1 ? name.substring(0, separator) : Logger.ROOT_LOGGER_NAME;
+			logger = existingLogger(name);
+		}
+		return logger.getEffectiveLevel().toString();
+	}
+
+	/**
+	 * @return the logger, or null if it doesn't exist, so that reading levels
+	 *         doesn't create loggers
+	 */
+	private Logger existingLogger(String loggerName) {
+		return Logger.ROOT_LOGGER_NAME.equalsIgnoreCase(loggerName) ? loggerContext.getLogger(Logger.ROOT_LOGGER_NAME) : loggerContext.exists(loggerName);
+	}
+
+	public Map<String, String> getConfiguredLevels() {
+		Map<String, String> levels = new TreeMap<String, String>();
+		for (Logger logger : loggerContext.getLoggerList()) {
+			if (logger.getLevel() != null) {
+				levels.put(logger.getName(), logger.getLevel().toString());
+			}
+		}
+		return levels;
+	}
+
+	public void setLevelName(String loggerName, String level) {
+		setLevel(loggerName, parseLevel(level));
+	}
+
+	/**
+	 * @param loggerName
+	 *            the logger name
+	 * @param level
+	 *            the level, null to inherit it
+	 * @return the previous levels
+	 */
+	public Map<String, Level> setLevel(String loggerName, Level level) {
+		return apply(loggerName, level, false);
+	}
+
+	public void setSubtreeLevelName(String loggerName, String level) {
+		setSubtreeLevel(loggerName, parseLevel(level));
+	}
+
+	/**
+	 * @param loggerName
+	 *            the name of the subtree root
+	 * @param level
+	 *            the level, null to inherit it
+	 * @return the previous levels of the subtree
+	 */
+	public Map<String, Level> setSubtreeLevel(String loggerName, Level level) {
+		return apply(loggerName, level, true);
+	}
+
+	public void setLevelTemporarily(String loggerName, String level, long durationInSeconds) {
+		setTemporarily(loggerName, parseLevel(level), false, durationInSeconds, TimeUnit.SECONDS);
+	}
+
+	public void setSubtreeLevelTemporarily(String loggerName, String level, long durationInSeconds) {
+		setTemporarily(loggerName, parseLevel(level), true, durationInSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Change the level of a logger or of a subtree, and schedule the revert
+	 * 
+	 * @param loggerName
+	 *            the logger name
+	 * @param level
+	 *            the level, null to inherit it
+	 * @param subtree
+	 *            true to make the descendants inherit the level
+	 * @param duration
+	 *            the duration before the revert
+	 * @param unit
+	 *            the duration unit
+	 */
+	public void setTemporarily(String loggerName, Level level, boolean subtree, long duration, TimeUnit unit) {
+		Assert.isTrue(duration > 0, "duration must be positive");
+		synchronized (loggerContext.getConfigurationLock()) {
+			Map<String, Level> previousLevels = apply(loggerName, level, subtree);
+			Revert revert = new Revert(loggerName, level, previousLevels, System.currentTimeMillis() + unit.toMillis(duration));
+			if (scheduler == null) {
+				scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "logback-level-revert");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			}
+			revert.future = scheduler.schedule(revert, duration, unit);
+			pendingReverts.add(revert);
+		}
+	}
+
+	private Map<String, Level> apply(String loggerName, Level level, boolean subtree) {
+		Assert.hasText(loggerName, "loggerName is required");
+		boolean root = Logger.ROOT_LOGGER_NAME.equalsIgnoreCase(loggerName);
+		Assert.isTrue(!(root && level == null), "The root logger level can't be null");
+
+		synchronized (loggerContext.getConfigurationLock()) {
+			Logger logger = loggerContext.getLogger(loggerName);
+			Map<String, Level> previousLevels = new LinkedHashMap<String, Level>();
+
+			if (subtree) {
+				String prefix = logger.getName() + ".";
+				for (Logger descendant : loggerContext.getLoggerList()) {
+					if (descendant.getLevel() != null && (root ? descendant != logger : descendant.getName().startsWith(prefix))) {
+						previousLevels.put(descendant.getName(), descendant.getLevel());
+					}
+				}
+			}
+
+			// set the subtree root first so that the descendants switch
+			// directly to the new level when their own is cleared
+			previousLevels.put(logger.getName(), logger.getLevel());
+			setLevel(logger, level);
+			for (String descendantName : previousLevels.keySet()) {
+				if (!descendantName.equals(logger.getName())) {
+					setLevel(loggerContext.getLogger(descendantName), null);
+				}
+			}
+			return previousLevels;
+		}
+	}
+
+	/**
+	 * Only called under the configuration lock
+	 */
+	private void setLevel(Logger logger, Level level) {
+		if (level == null) {
+			installNullSafePropagators();
+		}
+		logger.setLevel(level);
+	}
+
+	/**
+	 * The LevelChangePropagator of Logback 1.0.3 fails on null levels : replace
+	 * it once with a {@link NullSafeLevelChangePropagator}, added before the
+	 * original one is removed so that no change is missed
+	 */
+	private void installNullSafePropagators() {
+		for (LoggerContextListener listener : loggerContext.getCopyOfListenerList()) {
+			if (listener instanceof LevelChangePropagator && !(listener instanceof NullSafeLevelChangePropagator)) {
+				NullSafeLevelChangePropagator propagator = new NullSafeLevelChangePropagator();
+				propagator.setContext(loggerContext);
+				if (((LevelChangePropagator) listener).isStarted()) {
+					propagator.start();
+				}
+				loggerContext.addListener(propagator);
+				loggerContext.removeListener(listener);
+			}
+		}
+	}
+
+	public List<String> getPendingReverts() {
+		List<String> reverts = new ArrayList<String>();
+		synchronized (loggerContext.getConfigurationLock()) {
+			for (Revert revert : pendingReverts) {
+				reverts.add(revert.toString());
+			}
+		}
+		return reverts;
+	}
+
+	public void revertAll() {
+		List<Revert> reverts;
+		synchronized (loggerContext.getConfigurationLock()) {
+			reverts = new ArrayList<Revert>(pendingReverts);
+		}
+		// most recent first, so that older previous levels win
+		for (int i = reverts.size() - 1; i >= 0; i--) {
+			reverts.get(i).future.cancel(false);
+			reverts.get(i).run();
+		}
+	}
+
+	private void cancelReverts() {
+		for (Revert revert : pendingReverts) {
+			revert.future.cancel(false);
+		}
+		pendingReverts.clear();
+	}
+
+	/**
+	 * The configuration being replaced, pending reverts would restore stale
+	 * levels
+	 */
+	public void onReset(LoggerContext context) {
+		synchronized (loggerContext.getConfigurationLock()) {
+			cancelReverts();
+		}
+	}
+
+	public void onStop(LoggerContext context) {
+		close();
+	}
+
+	public boolean isResetResistant() {
+		return true;
+	}
+
+	public void onStart(LoggerContext context) {
+	}
+
+	public void onLevelChange(Logger logger, Level level) {
+	}
+
+	/**
+	 * Restores the previous levels of a temporary change
+	 */
+	private final class Revert implements Runnable {
+
+		private final String loggerName;
+
+		private final Level level;
+
+		private final Map<String, Level> previousLevels;
+
+		private final long time;
+
+		private ScheduledFuture<?> future;
+
+		private Revert(String loggerName, Level level, Map<String, Level> previousLevels, long time) {
+			this.loggerName = loggerName;
+			this.level = level;
+			this.previousLevels = previousLevels;
+			this.time = time;
+		}
+
+		public void run() {
+			synchronized (loggerContext.getConfigurationLock()) {
+				if (!pendingReverts.remove(this)) {
+					return;
+				}
+				Logger root = loggerContext.getLogger(loggerName);
+				// leave the loggers changed again in the meantime
+				if (root.getLevel() != level) {
+					return;
+				}
+				for (Map.Entry<String, Level> previousLevel : previousLevels.entrySet()) {
+					Logger logger = loggerContext.getLogger(previousLevel.getKey());
+					if (logger == root || logger.getLevel() == null) {
+						setLevel(logger, previousLevel.getValue());
+					}
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return loggerName + ": " + level + " until " + new Date(time);
+		}
+	}
+}
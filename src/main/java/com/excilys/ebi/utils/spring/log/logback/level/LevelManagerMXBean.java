@@ -0,0 +1,68 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.level;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JMX view of the {@link LevelManager}. Levels are passed as names, null or
+ * an empty string meaning that the logger inherits its level.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public interface LevelManagerMXBean {
+
+	/**
+	 * @return the level set on the logger, null if it's inherited
+	 */
+	String getLevel(String loggerName);
+
+	String getEffectiveLevel(String loggerName);
+
+	/**
+	 * @return the levels of the loggers that have one set
+	 */
+	Map<String, String> getConfiguredLevels();
+
+	void setLevelName(String loggerName, String level);
+
+	/**
+	 * Set the level of a logger and make all its descendants inherit it
+	 */
+	void setSubtreeLevelName(String loggerName, String level);
+
+	/**
+	 * {@link #setLevelName(String, String)}, reverted after the given duration
+	 */
+	void setLevelTemporarily(String loggerName, String level, long durationInSeconds);
+
+	/**
+	 * {@link #setSubtreeLevelName(String, String)}, reverted after the given
+	 * duration
+	 */
+	void setSubtreeLevelTemporarily(String loggerName, String level, long durationInSeconds);
+
+	/**
+	 * @return the scheduled reverts, as "logger: level until date"
+	 */
+	List<String> getPendingReverts();
+
+	/**
+	 * Apply all the scheduled reverts now
+	 */
+	void revertAll();
+}
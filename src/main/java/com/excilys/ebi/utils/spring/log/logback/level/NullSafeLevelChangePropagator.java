@@ -0,0 +1,48 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.level;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.jul.JULHelper;
+import ch.qos.logback.classic.jul.LevelChangePropagator;
+
+/**
+ * LevelChangePropagator that also propagates the levels being cleared: the one
+ * of Logback 1.0.3 fails on null levels. The JUL logger then inherits its
+ * level, as the Logback one does.
+ * <p>
+ * The {@link LevelManager} replaces the other LevelChangePropagators with
+ * this one the first time it clears a level, it can also be declared directly
+ * in the configuration:
+ * <p>
+ * <code>
+ * &lt;contextListener class="com.excilys.ebi.utils.spring.log.logback.level.NullSafeLevelChangePropagator" /&gt;
+ * </code>
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class NullSafeLevelChangePropagator extends LevelChangePropagator {
+
+	@Override
+	public void onLevelChange(Logger logger, Level level) {
+		if (level == null) {
+			JULHelper.asJULLogger(logger).setLevel(null);
+		} else {
+			super.onLevelChange(logger, level);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.metrics;
+
+import java.util.Map;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+
+import com.excilys.ebi.utils.spring.log.logback.QueueingAppender;
+
+/**
+ * Metrics of an appender
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+final class AppenderMetrics implements AppenderMetricsMXBean {
+
+	private final Appender<ILoggingEvent> appender;
+
+	private final StripedCounter bytesCounter = new StripedCounter();
+
+	private final LatencyHistogram histogram = new LatencyHistogram();
+
+	AppenderMetrics(Appender<ILoggingEvent> appender) {
+		this.appender = appender;
+	}
+
+	StripedCounter getBytesCounter() {
+		return bytesCounter;
+	}
+
+	LatencyHistogram getHistogram() {
+		return histogram;
+	}
+
+	public String getAppenderClass() {
+		return appender.getClass().getName();
+	}
+
+	public long getEventCount() {
+		return histogram.getCount();
+	}
+
+	public long getBytesWritten() {
+		return bytesCounter.sum();
+	}
+
+	public long getTotalAppendTime() {
+		return histogram.getTotal();
+	}
+
+	public long getMeanAppendTime() {
+		return histogram.getMean();
+	}
+
+	public long getMedianAppendTime() {
+		return histogram.getPercentile(50);
+	}
+
+	public long get99thPercentileAppendTime() {
+		return histogram.getPercentile(99);
+	}
+
+	public long getMaxAppendTime() {
+		return histogram.getMax();
+	}
+
+	public Map<String, Long> getAppendTimeHistogram() {
+		return histogram.toMap();
+	}
+
+	public int getQueueSize() {
+		return appender instanceof QueueingAppender ? ((QueueingAppender) appender).getQueueSize() : -1;
+	}
+
+	public long getDroppedCount() {
+		return appender instanceof QueueingAppender ? ((QueueingAppender) appender).getDroppedCount() : -1;
+	}
+
+	public void resetCounters() {
+		bytesCounter.reset();
+		histogram.reset();
+	}
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of an appender. Times are in nanoseconds, and only
+ * measured for OutputStreamAppenders (console, file...), from encoding to
+ * writing, lock wait excluded.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public interface AppenderMetricsMXBean {
+
+	String getAppenderClass();
+
+	/**
+	 * @return the number of events written
+	 */
+	long getEventCount();
+
+	long getBytesWritten();
+
+	long getTotalAppendTime();
+
+	long getMeanAppendTime();
+
+	long getMedianAppendTime();
+
+	long get99thPercentileAppendTime();
+
+	long getMaxAppendTime();
+
+	/**
+	 * @return the number of events by bucket upper bound
+	 */
+	Map<String, Long> getAppendTimeHistogram();
+
+	/**
+	 * @return the number of events waiting in the queue of an asynchronous
+	 *         appender, -1 for other appenders
+	 */
+	int getQueueSize();
+
+	/**
+	 * @return the number of events dropped by an asynchronous appender, -1 for
+	 *         other appenders
+	 */
+	long getDroppedCount();
+
+	void resetCounters();
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+
+import org.springframework.util.ReflectionUtils;
+
+import ch.qos.logback.core.Context;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.encoder.EncoderBase;
+import ch.qos.logback.core.status.Status;
+
+/**
+ * Encoder wrapper measuring the time spent encoding and writing each event,
+ * and counting the bytes written to the appender's stream.
+ * <p>
+ * The encoder is initialized with each new stream of the appender, for
+ * example on rollover, so the counting stream survives them.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+final class InstrumentedEncoder<E> implements Encoder<E> {
+
+	private static final Field OUTPUT_STREAM_FIELD = ReflectionUtils.findField(EncoderBase.class, "outputStream");
+
+	static {
+		ReflectionUtils.makeAccessible(OUTPUT_STREAM_FIELD);
+	}
+
+	private final Encoder<E> delegate;
+
+	private final AppenderMetrics metrics;
+
+	InstrumentedEncoder(Encoder<E> delegate, AppenderMetrics metrics) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+	}
+
+	AppenderMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Count the bytes written to the stream the delegate was already
+	 * initialized with, if it exposes it
+	 */
+	void countCurrentStream() {
+		if (delegate instanceof EncoderBase) {
+			OutputStream outputStream = (OutputStream) ReflectionUtils.getField(OUTPUT_STREAM_FIELD, delegate);
+			if (outputStream != null && !(outputStream instanceof CountingOutputStream)) {
+				ReflectionUtils.setField(OUTPUT_STREAM_FIELD, delegate, new CountingOutputStream(outputStream, metrics.getBytesCounter()));
+			}
+		}
+	}
+
+	public void init(OutputStream os) throws IOException {
+		delegate.init(new CountingOutputStream(os, metrics.getBytesCounter()));
+	}
+
+	public void doEncode(E event) throws IOException {
+		long start = System.nanoTime();
+		try {
+			delegate.doEncode(event);
+		} finally {
+			metrics.getHistogram().record(System.nanoTime() - start);
+		}
+	}
+
+	public void close() throws IOException {
+		delegate.close();
+	}
+
+	public void start() {
+		delegate.start();
+	}
+
+	public void stop() {
+		delegate.stop();
+	}
+
+	public boolean isStarted() {
+		return delegate.isStarted();
+	}
+
+	public void setContext(Context context) {
+		delegate.setContext(context);
+	}
+
+	public Context getContext() {
+		return delegate.getContext();
+	}
+
+	public void addStatus(Status status) {
+		delegate.addStatus(status);
+	}
+
+	public void addInfo(String msg) {
+		delegate.addInfo(msg);
+	}
+
+	public void addInfo(String msg, Throwable ex) {
+		delegate.addInfo(msg, ex);
+	}
+
+	public void addWarn(String msg) {
+		delegate.addWarn(msg);
+	}
+
+	public void addWarn(String msg, Throwable ex) {
+		delegate.addWarn(msg, ex);
+	}
+
+	public void addError(String msg) {
+		delegate.addError(msg);
+	}
+
+	public void addError(String msg, Throwable ex) {
+		delegate.addError(msg, ex);
+	}
+}
@@ -0,0 +1,348 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.ObjectName;
+
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggerContextListener;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.OutputStreamAppender;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.spi.FilterReply;
+
+import com.excilys.ebi.utils.spring.log.logback.AppenderUtils;
+import com.excilys.ebi.utils.spring.log.logback.JmxUtils;
+import com.excilys.ebi.utils.spring.log.logback.turbo.NeutralTurboFilter;
+
+/**
+ * Logging metrics of a LoggerContext, published over JMX :
+ * <ul>
+ * <li>events per level and per logger prefix, counted by a TurboFilter
+ * installed first, when they pass the logger level check</li>
+ * <li>bytes written, and time spent encoding and writing, per
+ * OutputStreamAppender, measured by wrapping its encoder</li>
+ * <li>queue size and dropped events per
+ * {@link com.excilys.ebi.utils.spring.log.logback.async.RingBufferAsyncAppender}
+ * </li>
+ * </ul>
+ * All the counters are striped so that logging threads rarely contend on
+ * them.
+ * <p>
+ * Installed by
+ * {@link com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer} after
+ * each (re)configuration, unless the "logback.metrics" system property is set
+ * to false. The MBeans are registered in the platform MBeanServer, under the
+ * {@link JmxUtils#DOMAIN} domain.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public final class LoggingMetrics implements LoggingMetricsMXBean, LoggerContextListener {
+
+	public static final int DEFAULT_LOGGER_PREFIX_DEPTH = 2;
+
+	private static final Level[] LEVELS = { Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR };
+
+	private final LoggerContext loggerContext;
+
+	private final ObjectName objectName;
+
+	private final StripedCounter[] levelCounters = new StripedCounter[LEVELS.length];
+
+	/**
+	 * Counters by prefix, shared by the loggers with that prefix
+	 */
+	private final ConcurrentMap<String, StripedCounter> prefixCounters = new ConcurrentHashMap<String, StripedCounter>();
+
+	/**
+	 * Counters by logger name, so that events don't compute their prefix
+	 */
+	private final ConcurrentMap<String, StripedCounter> loggerCounters = new ConcurrentHashMap<String, StripedCounter>();
+
+	private volatile int loggerPrefixDepth = DEFAULT_LOGGER_PREFIX_DEPTH;
+
+	private final EventCounter eventCounter = new EventCounter();
+
+	/**
+	 * Metrics of the current appenders, with their MBean names
+	 */
+	private final Map<Appender<ILoggingEvent>, ObjectName> appenderObjectNames = new IdentityHashMap<Appender<ILoggingEvent>, ObjectName>();
+
+	private LoggingMetrics(LoggerContext loggerContext) {
+		this.loggerContext = loggerContext;
+		objectName = JmxUtils.objectName("LoggingMetrics", loggerContext, null);
+		for (int i = 0; i < levelCounters.length; i++) {
+			levelCounters[i] = new StripedCounter();
+		}
+		eventCounter.setName(LoggingMetrics.class.getName());
+		eventCounter.setContext(loggerContext);
+	}
+
+	/**
+	 * Install the metrics on the given LoggerContext, or update them after a
+	 * reconfiguration : the TurboFilter is added again if it was removed, and
+	 * the new appenders are instrumented.
+	 * 
+	 * @param loggerContext
+	 *            the LoggerContext
+	 * @return the metrics
+	 */
+	public static synchronized LoggingMetrics install(LoggerContext loggerContext) {
+		LoggingMetrics metrics = find(loggerContext);
+		if (metrics == null) {
+			metrics = new LoggingMetrics(loggerContext);
+			JmxUtils.registerMBean(metrics, metrics.objectName, loggerContext);
+			loggerContext.addListener(metrics);
+		}
+		metrics.update();
+		return metrics;
+	}
+
+	/**
+	 * Remove the metrics of the given LoggerContext and unregister their
+	 * MBeans, if they were installed
+	 * 
+	 * @param loggerContext
+	 *            the LoggerContext
+	 */
+	public static synchronized void uninstall(LoggerContext loggerContext) {
+		LoggingMetrics metrics = find(loggerContext);
+		if (metrics != null) {
+			loggerContext.removeListener(metrics);
+			loggerContext.getTurboFilterList().remove(metrics.eventCounter);
+			metrics.eventCounter.stop();
+			metrics.unregisterAppenders();
+			JmxUtils.unregisterMBean(metrics.objectName, loggerContext);
+		}
+	}
+
+	private static LoggingMetrics find(LoggerContext loggerContext) {
+		for (LoggerContextListener listener : loggerContext.getCopyOfListenerList()) {
+			if (listener instanceof LoggingMetrics) {
+				return (LoggingMetrics) listener;
+			}
+		}
+		return null;
+	}
+
+	private synchronized void update() {
+
+		if (!eventCounter.isStarted()) {
+			eventCounter.start();
+		}
+		if (!loggerContext.getTurboFilterList().contains(eventCounter)) {
+			loggerContext.getTurboFilterList().add(0, eventCounter);
+		}
+
+		Set<Appender<ILoggingEvent>> appenders = AppenderUtils.collectAppenders(loggerContext);
+
+		for (Appender<ILoggingEvent> appender : new ArrayList<Appender<ILoggingEvent>>(appenderObjectNames.keySet())) {
+			if (!appenders.contains(appender)) {
+				JmxUtils.unregisterMBean(appenderObjectNames.remove(appender), loggerContext);
+			}
+		}
+
+		for (Appender<ILoggingEvent> appender : appenders) {
+			if (!appenderObjectNames.containsKey(appender)) {
+				AppenderMetrics appenderMetrics = instrument(appender);
+				String name = appender.getName() != null ? appender.getName() : appender.getClass().getSimpleName() + "@" + System.identityHashCode(appender);
+				ObjectName appenderObjectName = JmxUtils.objectName("AppenderMetrics", loggerContext, name);
+				if (JmxUtils.registerMBean(appenderMetrics, appenderObjectName, loggerContext)) {
+					appenderObjectNames.put(appender, appenderObjectName);
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private AppenderMetrics instrument(Appender<ILoggingEvent> appender) {
+		if (appender instanceof OutputStreamAppender) {
+			OutputStreamAppender<ILoggingEvent> outputStreamAppender = (OutputStreamAppender<ILoggingEvent>) appender;
+			Encoder<ILoggingEvent> encoder = outputStreamAppender.getEncoder();
+			if (encoder instanceof InstrumentedEncoder) {
+				return ((InstrumentedEncoder<ILoggingEvent>) encoder).getMetrics();
+			} else if (encoder != null) {
+				AppenderMetrics appenderMetrics = new AppenderMetrics(appender);
+				InstrumentedEncoder<ILoggingEvent> instrumentedEncoder = new InstrumentedEncoder<ILoggingEvent>(encoder, appenderMetrics);
+				instrumentedEncoder.countCurrentStream();
+				outputStreamAppender.setEncoder(instrumentedEncoder);
+				return appenderMetrics;
+			}
+		}
+		return new AppenderMetrics(appender);
+	}
+
+	private synchronized void unregisterAppenders() {
+		for (ObjectName name : appenderObjectNames.values()) {
+			JmxUtils.unregisterMBean(name, loggerContext);
+		}
+		appenderObjectNames.clear();
+	}
+
+	private void count(Logger logger, Level level) {
+
+		levelCounters[indexOf(level)].increment();
+
+		StripedCounter counter = loggerCounters.get(logger.getName());
+		if (counter == null) {
+			String prefix = prefixOf(logger.getName());
+			counter = prefixCounters.get(prefix);
+			if (counter == null) {
+				StripedCounter newCounter = new StripedCounter();
+				counter = prefixCounters.putIfAbsent(prefix, newCounter);
+				if (counter == null) {
+					counter = newCounter;
+				}
+			}
+			loggerCounters.put(logger.getName(), counter);
+		}
+		counter.increment();
+	}
+
+	private static int indexOf(Level level) {
+		switch (level.levelInt) {
+		case Level.TRACE_INT:
+			return 0;
+		case Level.DEBUG_INT:
+			return 1;
+		case Level.INFO_INT:
+			return 2;
+		case Level.WARN_INT:
+			return 3;
+		default:
+			return 4;
+		}
+	}
+
+	private String prefixOf(String loggerName) {
+		int end = -1;
+		for (int i = 0; i < loggerPrefixDepth; i++) {
+			end = loggerName.indexOf('.', end + 1);
+			if (end == -1) {
+				return loggerName;
+			}
+		}
+		return loggerName.substring(0, end);
+	}
+
+	public Map<String, Long> getEventCountsByLevel() {
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		for (int i = 0; i < LEVELS.length; i++) {
+			counts.put(LEVELS[i].toString(), levelCounters[i].sum());
+		}
+		return counts;
+	}
+
+	public Map<String, Long> getEventCountsByLoggerPrefix() {
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, StripedCounter> entry : prefixCounters.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().sum());
+		}
+		return counts;
+	}
+
+	public List<String> getNoisiestLoggerPrefixes() {
+		List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(getEventCountsByLoggerPrefix().entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+			public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+				return o2.getValue().compareTo(o1.getValue());
+			}
+		});
+		List<String> noisiest = new ArrayList<String>();
+		for (Map.Entry<String, Long> entry : entries.subList(0, Math.min(10, entries.size()))) {
+			noisiest.add(entry.getKey() + "=" + entry.getValue());
+		}
+		return noisiest;
+	}
+
+	public int getLoggerPrefixDepth() {
+		return loggerPrefixDepth;
+	}
+
+	public void setLoggerPrefixDepth(int loggerPrefixDepth) {
+		this.loggerPrefixDepth = Math.max(1, loggerPrefixDepth);
+		loggerCounters.clear();
+		prefixCounters.clear();
+	}
+
+	public void resetCounters() {
+		for (StripedCounter counter : levelCounters) {
+			counter.reset();
+		}
+		loggerCounters.clear();
+		prefixCounters.clear();
+	}
+
+	/**
+	 * The event counts survive a reset, but the appenders are gone
+	 */
+	public void onReset(LoggerContext context) {
+		unregisterAppenders();
+	}
+
+	/**
+	 * The listeners are being iterated, and will all be removed by the
+	 * context, so only the MBeans are unregistered
+	 */
+	public void onStop(LoggerContext context) {
+		eventCounter.stop();
+		unregisterAppenders();
+		JmxUtils.unregisterMBean(objectName, loggerContext);
+	}
+
+	public boolean isResetResistant() {
+		return true;
+	}
+
+	public void onStart(LoggerContext context) {
+	}
+
+	public void onLevelChange(Logger logger, Level level) {
+	}
+
+	/**
+	 * TurboFilter counting the events, always neutral
+	 */
+	private final class EventCounter extends TurboFilter implements NeutralTurboFilter {
+
+		@Override
+		public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+			// skip isXxxEnabled() checks and the events the logger level will
+			// deny
+			if (format != null && level != null && level.levelInt >= logger.getEffectiveLevel().levelInt) {
+				count(logger, level);
+			}
+			return FilterReply.NEUTRAL;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JMX view of the events logged in a LoggerContext
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public interface LoggingMetricsMXBean {
+
+	/**
+	 * @return the number of events by level name
+	 */
+	Map<String, Long> getEventCountsByLevel();
+
+	/**
+	 * @return the number of events by logger prefix, see
+	 *         {@link #getLoggerPrefixDepth()}
+	 */
+	Map<String, Long> getEventCountsByLoggerPrefix();
+
+	/**
+	 * @return the 10 logger prefixes with the most events, as
+	 *         "prefix=count"
+	 */
+	List<String> getNoisiestLoggerPrefixes();
+
+	/**
+	 * @return the number of leading segments of the logger names events are
+	 *         grouped by, 2 meaning "com.excilys" for example
+	 */
+	int getLoggerPrefixDepth();
+
+	/**
+	 * Change the prefix depth, resetting the counts by prefix
+	 */
+	void setLoggerPrefixDepth(int loggerPrefixDepth);
+
+	void resetCounters();
+}
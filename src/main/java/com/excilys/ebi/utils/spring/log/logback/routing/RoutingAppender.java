@@ -0,0 +1,390 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.sift.MDCBasedDiscriminator;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.FileAppender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.joran.spi.DefaultClass;
+import ch.qos.logback.core.sift.Discriminator;
+import ch.qos.logback.core.util.Duration;
+
+/**
+ * Routes each event to a file appender dedicated to the event's key, as
+ * computed by a {@link Discriminator}, typically a tenant id stored in the
+ * MDC.
+ * <p>
+ * Unlike the sifting appender, the per-key appenders are looked up in a
+ * concurrent map, and are built directly instead of by replaying a Joran
+ * configuration, so that they can be closed and reopened cheaply:
+ * <ul>
+ * <li>at most maxAppenders are open at once: when opening one more, the least
+ * recently used eighth of them is closed</li>
+ * <li>the appenders that didn't get any event during timeToIdle are
+ * closed</li>
+ * </ul>
+ * A closed appender is reopened on the next event for its key, the files being
+ * always appended to.
+ * The file name is built by replacing {@link #KEY_TOKEN} in fileNamePattern
+ * with the key, whose characters other than letters, digits, '.', '-' and '_'
+ * are replaced with '_'. When the key had to be changed, the hash code of the
+ * original key is appended, so that distinct keys such as "a/b" and "a:b"
+ * don't share a file.
+ * <p>
+ * Configuration example, to be loaded with
+ * {@link com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer}:
+ * <p>
+ * <code>
+ * <appender name="TENANTS" class="com.excilys.ebi.utils.spring.log.logback.routing.RoutingAppender">
+ *   <discriminator>
+ *     <key>tenant</key>
+ *     <defaultValue>unknown</defaultValue>
+ *   </discriminator>
+ *   <fileNamePattern>/var/log/myapp/tenant-%key.log</fileNamePattern>
+ *   <pattern>%d %level %logger - %msg%n</pattern>
+ *   <maxAppenders>500</maxAppenders>
+ *   <timeToIdle>10 minutes</timeToIdle>
+ * </appender>
+ * </code>
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class RoutingAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+	/**
+	 * Token of the fileNamePattern replaced with the key
+	 */
+	public static final String KEY_TOKEN = "%key";
+
+	public static final int DEFAULT_MAX_APPENDERS = 1000;
+
+	public static final Duration DEFAULT_TIME_TO_IDLE = Duration.buildByMinutes(30);
+
+	/**
+	 * Minimum delay between two idle appenders checks, in milliseconds
+	 */
+	private static final long IDLE_CHECK_INTERVAL = 1000;
+
+	/**
+	 * Ratio of the appenders closed when maxAppenders is reached, so that
+	 * the cost of sorting them is amortized
+	 */
+	private static final int EVICTION_RATIO = 8;
+
+	private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<String, Route>();
+
+	/**
+	 * Guards the creation and the eviction of the routes
+	 */
+	private final Object lock = new Object();
+
+	private final AtomicLong nextIdleCheck = new AtomicLong();
+
+	private final AtomicLong openCount = new AtomicLong();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	private Discriminator<ILoggingEvent> discriminator;
+
+	private String fileNamePattern;
+
+	private String pattern;
+
+	private int maxAppenders = DEFAULT_MAX_APPENDERS;
+
+	private Duration timeToIdle = DEFAULT_TIME_TO_IDLE;
+
+	@Override
+	public void start() {
+		int errors = 0;
+		if (discriminator == null) {
+			addError("No discriminator set for the appender named \"" + name + "\".");
+			errors++;
+		}
+		if (fileNamePattern == null || !fileNamePattern.contains(KEY_TOKEN)) {
+			addError("No fileNamePattern containing " + KEY_TOKEN + " set for the appender named \"" + name + "\".");
+			errors++;
+		}
+		if (pattern == null) {
+			addError("No pattern set for the appender named \"" + name + "\".");
+			errors++;
+		}
+		if (maxAppenders < 1) {
+			addError("Invalid maxAppenders " + maxAppenders + " for the appender named \"" + name + "\".");
+			errors++;
+		}
+		if (errors > 0) {
+			return;
+		}
+		super.start();
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		synchronized (lock) {
+			for (Route route : routes.values()) {
+				route.close();
+			}
+			routes.clear();
+		}
+	}
+
+	@Override
+	protected void append(ILoggingEvent event) {
+
+		long now = event.getTimeStamp();
+		String key = String.valueOf(discriminator.getDiscriminatingValue(event));
+
+		// a route may be closed concurrently, then get a new one
+		while (isStarted()) {
+			Route route = routes.get(key);
+			if (route == null) {
+				route = open(key, now);
+			}
+			if (route.append(event, now)) {
+				break;
+			}
+		}
+
+		evictIdleRoutes(now);
+	}
+
+	private Route open(String key, long now) {
+		synchronized (lock) {
+			Route route = routes.get(key);
+			if (route == null) {
+				if (routes.size() >= maxAppenders) {
+					evictLeastRecentlyUsedRoutes();
+				}
+				route = new Route(key, buildAppender(key), now);
+				routes.put(key, route);
+				openCount.incrementAndGet();
+			}
+			return route;
+		}
+	}
+
+	private FileAppender<ILoggingEvent> buildAppender(String key) {
+
+		PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+		encoder.setContext(getContext());
+		encoder.setPattern(pattern);
+		encoder.start();
+
+		FileAppender<ILoggingEvent> appender = new FileAppender<ILoggingEvent>();
+		appender.setContext(getContext());
+		appender.setName(getName() + "-" + key);
+		appender.setFile(fileNamePattern.replace(KEY_TOKEN, sanitize(key)));
+		// reopened after an eviction, so never truncated
+		appender.setAppend(true);
+		appender.setEncoder(encoder);
+		appender.start();
+		return appender;
+	}
+
+	static String sanitize(String key) {
+		StringBuilder sb = new StringBuilder(key.length() + 9);
+		for (int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			sb.append(Character.isLetterOrDigit(c) || c == '.' || c == '-' || c == '_' ? c : '_');
+		}
+		// no parent directory escape
+		String sanitized = sb.toString().replace("..", "__");
+		return sanitized.equals(key) ? key : sanitized + '-' + Integer.toHexString(key.hashCode());
+	}
+
+	/**
+	 * Close the least recently used routes, must hold the lock
+	 */
+	private void evictLeastRecentlyUsedRoutes() {
+		List<Route> candidates = new ArrayList<Route>(routes.values());
+		Collections.sort(candidates, new Comparator<Route>() {
+			public int compare(Route r1, Route r2) {
+				return r1.lastAccess < r2.lastAccess ? -1 : (r1.lastAccess == r2.lastAccess ? 0 : 1);
+			}
+		});
+		int count = Math.max(1, candidates.size() / EVICTION_RATIO);
+		for (Route route : candidates.subList(0, count)) {
+			evict(route);
+		}
+	}
+
+	/**
+	 * Close the routes idle for more than timeToIdle, at most once per
+	 * {@link #IDLE_CHECK_INTERVAL}, by a single thread
+	 */
+	private void evictIdleRoutes(long now) {
+		long next = nextIdleCheck.get();
+		if (now < next || timeToIdle.getMilliseconds() <= 0 || !nextIdleCheck.compareAndSet(next, now + IDLE_CHECK_INTERVAL)) {
+			return;
+		}
+		long threshold = now - timeToIdle.getMilliseconds();
+		synchronized (lock) {
+			for (Route route : routes.values()) {
+				if (route.lastAccess < threshold) {
+					evict(route);
+				}
+			}
+		}
+	}
+
+	private void evict(Route route) {
+		routes.remove(route.key);
+		route.close();
+		evictionCount.incrementAndGet();
+		addInfo("Closed the appender of key [" + route.key + "]");
+	}
+
+	/**
+	 * @return the number of appenders currently open
+	 */
+	public int getAppenderCount() {
+		return routes.size();
+	}
+
+	/**
+	 * @return the number of appenders opened since start, including reopened
+	 *         ones
+	 */
+	public long getOpenCount() {
+		return openCount.get();
+	}
+
+	/**
+	 * @return the number of appenders closed because of maxAppenders or
+	 *         timeToIdle
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	public Discriminator<ILoggingEvent> getDiscriminator() {
+		return discriminator;
+	}
+
+	@DefaultClass(MDCBasedDiscriminator.class)
+	public void setDiscriminator(Discriminator<ILoggingEvent> discriminator) {
+		this.discriminator = discriminator;
+	}
+
+	public String getFileNamePattern() {
+		return fileNamePattern;
+	}
+
+	/**
+	 * @param fileNamePattern
+	 *            the file of each key, containing {@link #KEY_TOKEN}
+	 */
+	public void setFileNamePattern(String fileNamePattern) {
+		this.fileNamePattern = fileNamePattern;
+	}
+
+	public String getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * @param pattern
+	 *            the layout pattern of the per-key appenders
+	 */
+	public void setPattern(String pattern) {
+		this.pattern = pattern;
+	}
+
+	public int getMaxAppenders() {
+		return maxAppenders;
+	}
+
+	public void setMaxAppenders(int maxAppenders) {
+		this.maxAppenders = maxAppenders;
+	}
+
+	public Duration getTimeToIdle() {
+		return timeToIdle;
+	}
+
+	/**
+	 * @param timeToIdle
+	 *            how long an appender is kept open without any event, 0 to
+	 *            keep it until evicted by maxAppenders
+	 */
+	public void setTimeToIdle(Duration timeToIdle) {
+		this.timeToIdle = timeToIdle;
+	}
+
+	/**
+	 * The appender of a key. The read lock is held while appending, so that
+	 * it's never closed in the middle of an event.
+	 */
+	private static class Route {
+
+		private final String key;
+
+		private final FileAppender<ILoggingEvent> appender;
+
+		private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+		private volatile long lastAccess;
+
+		private boolean closed;
+
+		public Route(String key, FileAppender<ILoggingEvent> appender, long now) {
+			this.key = key;
+			this.appender = appender;
+			lastAccess = now;
+		}
+
+		/**
+		 * @return false if the route was closed
+		 */
+		public boolean append(ILoggingEvent event, long now) {
+			closeLock.readLock().lock();
+			try {
+				if (closed) {
+					return false;
+				}
+				lastAccess = now;
+				appender.doAppend(event);
+				return true;
+			} finally {
+				closeLock.readLock().unlock();
+			}
+		}
+
+		public void close() {
+			closeLock.writeLock().lock();
+			try {
+				closed = true;
+				appender.stop();
+			} finally {
+				closeLock.writeLock().unlock();
+			}
+		}
+	}
+}
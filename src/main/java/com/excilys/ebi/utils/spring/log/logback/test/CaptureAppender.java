@@ -0,0 +1,228 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.test;
+
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+
+/**
+ * Appender capturing log output for test assertions.
+ * <p>
+ * Contrary to a ListAppender, it doesn't retain the events themselves : only
+ * the level, the logger name and the formatted message are stored, in
+ * preallocated arrays used as a ring buffer, so that the oldest entries are
+ * overwritten once the capacity is reached.
+ * <p>
+ * Enable it with <code>@Logback(capture = true)</code> :
+ * {@link LogbackConfigurerTestExecutionListener} attaches it to the root
+ * logger and clears it before each test method. Events from loggers with
+ * additivity set to false don't reach it.
+ * 
+ * <pre>
+ * CaptureAppender.getCaptureAppender().assertLogged(Level.WARN, &quot;connection lost&quot;);
+ * </pre>
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class CaptureAppender extends AppenderBase<ILoggingEvent> {
+
+	/**
+	 * Name of the appender attached by the listener
+	 */
+	public static final String NAME = "CAPTURE";
+
+	public static final int DEFAULT_CAPACITY = 1000;
+
+	private Level[] levels;
+
+	private String[] loggerNames;
+
+	private String[] messages;
+
+	/**
+	 * Total number of events appended since the last clear
+	 */
+	private long count;
+
+	public CaptureAppender() {
+		setCapacity(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @return the CaptureAppender attached to the root logger of the current
+	 *         LoggerContext
+	 * @throws IllegalStateException
+	 *             if capture is not enabled
+	 */
+	public static CaptureAppender getCaptureAppender() {
+		LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+		CaptureAppender appender = (CaptureAppender) loggerContext.getLogger(Logger.ROOT_LOGGER_NAME).getAppender(NAME);
+		if (appender == null) {
+			throw new IllegalStateException("No CaptureAppender, did you set @Logback(capture = true)?");
+		}
+		return appender;
+	}
+
+	@Override
+	protected void append(ILoggingEvent event) {
+		int index = (int) (count++ % levels.length);
+		levels[index] = event.getLevel();
+		loggerNames[index] = event.getLoggerName();
+		messages[index] = event.getFormattedMessage();
+	}
+
+	/**
+	 * Reallocate the buffer if the capacity changes, discarding the captured
+	 * events.
+	 * 
+	 * @param capacity
+	 *            the maximum number of events kept
+	 */
+	public synchronized void setCapacity(int capacity) {
+		Assert.isTrue(capacity > 0, "capacity must be positive");
+		if (levels == null || levels.length != capacity) {
+			levels = new Level[capacity];
+			loggerNames = new String[capacity];
+			messages = new String[capacity];
+			count = 0;
+		}
+	}
+
+	public synchronized int getCapacity() {
+		return levels.length;
+	}
+
+	/**
+	 * Forget the captured events, reusing the buffer
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < size(); i++) {
+			loggerNames[i] = null;
+			messages[i] = null;
+			levels[i] = null;
+		}
+		count = 0;
+	}
+
+	/**
+	 * @return the number of captured events still in the buffer
+	 */
+	public synchronized int size() {
+		return (int) Math.min(count, levels.length);
+	}
+
+	/**
+	 * @return the number of events that were overwritten because the buffer
+	 *         was full
+	 */
+	public synchronized long getOverwrittenCount() {
+		return count - size();
+	}
+
+	private int indexOf(int i) {
+		if (i < 0 || i >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size());
+		}
+		return (int) ((count - size() + i) % levels.length);
+	}
+
+	/**
+	 * @param i
+	 *            the index of the event, 0 being the oldest one still in the
+	 *            buffer
+	 */
+	public synchronized Level getLevel(int i) {
+		return levels[indexOf(i)];
+	}
+
+	public synchronized String getLoggerName(int i) {
+		return loggerNames[indexOf(i)];
+	}
+
+	public synchronized String getMessage(int i) {
+		return messages[indexOf(i)];
+	}
+
+	/**
+	 * Count the captured events matching all the given criteria, null
+	 * meaning any value
+	 * 
+	 * @param level
+	 *            the exact level
+	 * @param loggerPrefix
+	 *            the logger name or the name of one of its ancestors
+	 * @param messagePart
+	 *            a substring of the formatted message
+	 * @return the number of matching events
+	 */
+	public synchronized int count(Level level, String loggerPrefix, String messagePart) {
+		int matches = 0;
+		for (int i = 0; i < size(); i++) {
+			int index = indexOf(i);
+			if ((level == null || level.equals(levels[index])) && (loggerPrefix == null || isDescendant(loggerNames[index], loggerPrefix))
+					&& (messagePart == null || messages[index] != null && messages[index].contains(messagePart))) {
+				matches++;
+			}
+		}
+		return matches;
+	}
+
+	private boolean isDescendant(String loggerName, String prefix) {
+		return loggerName.startsWith(prefix) && (loggerName.length() == prefix.length() || loggerName.charAt(prefix.length()) == '.');
+	}
+
+	public boolean contains(Level level, String messagePart) {
+		return count(level, null, messagePart) > 0;
+	}
+
+	/**
+	 * @throws AssertionError
+	 *             if no event matches
+	 */
+	public void assertLogged(Level level, String messagePart) {
+		if (!contains(level, messagePart)) {
+			throw new AssertionError("Expected a " + level + " event containing \"" + messagePart + "\", captured:\n" + dump());
+		}
+	}
+
+	/**
+	 * @throws AssertionError
+	 *             if an event matches
+	 */
+	public void assertNotLogged(Level level, String messagePart) {
+		if (contains(level, messagePart)) {
+			throw new AssertionError("Unexpected " + level + " event containing \"" + messagePart + "\", captured:\n" + dump());
+		}
+	}
+
+	/**
+	 * @return the captured events, one per line
+	 */
+	public synchronized String dump() {
+		StringBuilder buffer = new StringBuilder();
+		for (int i = 0; i < size(); i++) {
+			int index = indexOf(i);
+			buffer.append(levels[index]).append(' ').append(loggerNames[index]).append(" - ").append(messages[index]).append('\n');
+		}
+		return buffer.toString();
+	}
+}
@@ -29,4 +29,14 @@ import java.lang.annotation.Target;
 public @interface Logback {
 
 	String value() default "";
+
+	/**
+	 * Attach a {@link CaptureAppender} to the root logger
+	 */
+	boolean capture() default false;
+
+	/**
+	 * Number of events kept by the {@link CaptureAppender}
+	 */
+	int captureCapacity() default CaptureAppender.DEFAULT_CAPACITY;
 }
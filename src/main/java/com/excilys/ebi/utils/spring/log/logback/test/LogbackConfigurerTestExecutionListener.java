@@ -15,6 +15,9 @@
  */
 package com.excilys.ebi.utils.spring.log.logback.test;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.LoggerFactory;
 import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.core.io.support.ResourcePatternUtils;
 import org.springframework.test.context.TestContext;
@@ -24,6 +27,12 @@ import org.springframework.util.ClassUtils;
 import org.springframework.util.ResourceUtils;
 import org.springframework.util.StringUtils;
 
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.selector.ContextSelector;
+import ch.qos.logback.classic.util.ContextSelectorStaticBinder;
+
+import com.excilys.ebi.utils.spring.log.logback.DrainUtils;
 import com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer;
 
 /**
@@ -33,6 +42,18 @@ import com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer;
  * It looks for a {@Logback} annotation to get the config file
  * location
  * 
+ * The configured context is kept alive from one test class to the next as
+ * long as the resolved location doesn't change, and is only shut down once
+ * when the JVM exits. Logback is configured again if the location changes
+ * or if something else reset the context in between.
+ * <p>
+ * With the {@link LogbackTestContextSelector}, each location gets its own
+ * LoggerContext, bound to the thread running the test class, so that test
+ * classes can safely run in parallel.
+ * <p>
+ * With <code>@Logback(capture = true)</code>, a {@link CaptureAppender} is
+ * attached to the root logger, and cleared before each test method.
+ * 
  * @see #processLocation for conventions on how the resource is loaded
  * 
  * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
@@ -44,6 +65,20 @@ public class LogbackConfigurerTestExecutionListener extends AbstractTestExecutio
 	 */
 	private static final String DEFAULT_RESOURCE_NAME = "logback-test.xml";
 
+	/**
+	 * Key of the LoggerContext object holding the location it was configured
+	 * with. It's cleared on every reset, so a context configured or stopped
+	 * by someone else is never mistaken for ours.
+	 */
+	private static final String CONFIGURED_LOCATION_KEY = LogbackConfigurerTestExecutionListener.class.getName() + ".CONFIGURED_LOCATION";
+
+	private static final AtomicBoolean SHUTDOWN_HOOK_REGISTERED = new AtomicBoolean();
+
+	/**
+	 * Binding of the thread running a test method, before the method
+	 */
+	private static final ThreadLocal<LoggerContext> PREVIOUS_BINDING = new ThreadLocal<LoggerContext>();
+
 	@Override
 	public void beforeTestClass(TestContext testContext) throws Exception {
 
@@ -51,13 +86,102 @@ public class LogbackConfigurerTestExecutionListener extends AbstractTestExecutio
 
 		if (annotation != null) {
 			String location = processLocation(testContext.getTestClass(), annotation.value());
-			LogbackConfigurer.initLogging(location);
+
+			ContextSelector selector = ContextSelectorStaticBinder.getSingleton().getContextSelector();
+			if (selector instanceof LogbackTestContextSelector) {
+				((LogbackTestContextSelector) selector).bind(location);
+			}
+
+			LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+			synchronized (loggerContext) {
+				if (!location.equals(loggerContext.getObject(CONFIGURED_LOCATION_KEY))) {
+					LogbackConfigurer.initLogging(location);
+					loggerContext.putObject(CONFIGURED_LOCATION_KEY, location);
+					registerShutdownHook();
+				}
+				updateCaptureAppender(loggerContext, annotation);
+			}
+		}
+	}
+
+	private void updateCaptureAppender(LoggerContext loggerContext, Logback annotation) {
+		Logger root = loggerContext.getLogger(Logger.ROOT_LOGGER_NAME);
+		CaptureAppender appender = (CaptureAppender) root.getAppender(CaptureAppender.NAME);
+
+		if (annotation.capture()) {
+			if (appender == null) {
+				appender = new CaptureAppender();
+				appender.setName(CaptureAppender.NAME);
+				appender.setContext(loggerContext);
+				appender.start();
+				root.addAppender(appender);
+			}
+			appender.setCapacity(annotation.captureCapacity());
+			appender.clear();
+
+		} else if (appender != null) {
+			root.detachAppender(appender);
+			appender.stop();
+		}
+	}
+
+	@Override
+	public void beforeTestMethod(TestContext testContext) throws Exception {
+		Logback annotation = AnnotationUtils.findAnnotation(testContext.getTestClass(), Logback.class);
+		if (annotation == null) {
+			return;
+		}
+
+		// parallel runners may run the methods on pooled threads, that
+		// didn't inherit the binding of the thread running the class
+		ContextSelector selector = ContextSelectorStaticBinder.getSingleton().getContextSelector();
+		if (selector instanceof LogbackTestContextSelector) {
+			LogbackTestContextSelector testSelector = (LogbackTestContextSelector) selector;
+			PREVIOUS_BINDING.set(testSelector.getBoundLoggerContext());
+			testSelector.bind(processLocation(testContext.getTestClass(), annotation.value()));
+		}
+
+		if (annotation.capture()) {
+			CaptureAppender.getCaptureAppender().clear();
+		}
+	}
+
+	@Override
+	public void afterTestMethod(TestContext testContext) throws Exception {
+		ContextSelector selector = ContextSelectorStaticBinder.getSingleton().getContextSelector();
+		if (selector instanceof LogbackTestContextSelector && AnnotationUtils.findAnnotation(testContext.getTestClass(), Logback.class) != null) {
+			((LogbackTestContextSelector) selector).setBoundLoggerContext(PREVIOUS_BINDING.get());
+			PREVIOUS_BINDING.remove();
 		}
 	}
 
 	@Override
 	public void afterTestClass(TestContext testContext) throws Exception {
-		LogbackConfigurer.shutdownLogging();
+		ContextSelector selector = ContextSelectorStaticBinder.getSingleton().getContextSelector();
+		if (selector instanceof LogbackTestContextSelector) {
+			((LogbackTestContextSelector) selector).unbind();
+		}
+	}
+
+	private void registerShutdownHook() {
+		if (SHUTDOWN_HOOK_REGISTERED.compareAndSet(false, true)) {
+			Runtime.getRuntime().addShutdownHook(new Thread("logback-test-shutdown") {
+				@Override
+				public void run() {
+					// dropped events are reported by DrainUtils to the
+					// contexts StatusManager
+					long timeout = LogbackConfigurer.getShutdownTimeout();
+					ContextSelector selector = ContextSelectorStaticBinder.getSingleton().getContextSelector();
+					if (selector instanceof LogbackTestContextSelector) {
+						for (LoggerContext loggerContext : ((LogbackTestContextSelector) selector).detachLoggerContexts()) {
+							DrainUtils.drain(loggerContext, timeout);
+							loggerContext.stop();
+						}
+					}
+					LogbackConfigurer.drainAndShutdownLogging(timeout);
+				}
+			});
+		}
 	}
 
 	/**
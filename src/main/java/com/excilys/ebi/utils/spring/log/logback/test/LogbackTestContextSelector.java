@@ -0,0 +1,188 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.selector.ContextSelector;
+import ch.qos.logback.core.CoreConstants;
+import ch.qos.logback.core.status.WarnStatus;
+
+/**
+ * ContextSelector giving every test class its own LoggerContext, so that
+ * test classes can run in parallel without sharing (and shutting down) each
+ * other's logging.
+ * <p>
+ * Enable it with the
+ * <code>-Dlogback.ContextSelector=com.excilys.ebi.utils.spring.log.logback.test.LogbackTestContextSelector</code>
+ * system property, for example in the Surefire <code>systemPropertyVariables</code>.
+ * {@link LogbackConfigurerTestExecutionListener} then binds the running
+ * thread to the LoggerContext of the {@link Logback} location of the test
+ * class before configuring it. Test classes sharing the same location share
+ * the same LoggerContext, which is only configured once.
+ * <p>
+ * The binding is inherited by the threads started by the test, and the
+ * listener binds the thread running each test method too, for the runners
+ * running them on pooled threads. Loggers obtained before the binding, for
+ * example in static initializers, or on other unbound threads, such as the
+ * ones of an executor started before, belong to the default LoggerContext :
+ * a warning is then added to its status, the first time.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class LogbackTestContextSelector implements ContextSelector {
+
+	private final LoggerContext defaultLoggerContext;
+
+	/**
+	 * LoggerContexts by location
+	 */
+	private final ConcurrentMap<String, LoggerContext> loggerContexts = new ConcurrentHashMap<String, LoggerContext>();
+
+	private final ThreadLocal<LoggerContext> currentLoggerContext = new InheritableThreadLocal<LoggerContext>();
+
+	private final AtomicBoolean fallbackWarned = new AtomicBoolean();
+
+	public LogbackTestContextSelector(LoggerContext defaultLoggerContext) {
+		this.defaultLoggerContext = defaultLoggerContext;
+	}
+
+	/**
+	 * Bind the current thread to the LoggerContext of the given location,
+	 * creating it if necessary
+	 * 
+	 * @param location
+	 *            the config file location
+	 * @return the bound LoggerContext
+	 */
+	public LoggerContext bind(String location) {
+		LoggerContext loggerContext = loggerContexts.get(location);
+		if (loggerContext == null) {
+			LoggerContext newLoggerContext = new LoggerContext();
+			newLoggerContext.setName(CoreConstants.DEFAULT_CONTEXT_NAME);
+			loggerContext = loggerContexts.putIfAbsent(location, newLoggerContext);
+			if (loggerContext == null) {
+				loggerContext = newLoggerContext;
+			}
+		}
+		currentLoggerContext.set(loggerContext);
+		return loggerContext;
+	}
+
+	/**
+	 * Bind the current thread to the given LoggerContext
+	 * 
+	 * @param loggerContext
+	 *            a LoggerContext returned by {@link #getBoundLoggerContext()},
+	 *            null to unbind
+	 */
+	public void setBoundLoggerContext(LoggerContext loggerContext) {
+		if (loggerContext == null) {
+			currentLoggerContext.remove();
+		} else {
+			currentLoggerContext.set(loggerContext);
+		}
+	}
+
+	/**
+	 * @return the LoggerContext bound to the current thread, null if none
+	 */
+	public LoggerContext getBoundLoggerContext() {
+		return currentLoggerContext.get();
+	}
+
+	/**
+	 * Bind the current thread back to the default LoggerContext
+	 */
+	public void unbind() {
+		currentLoggerContext.remove();
+	}
+
+	/**
+	 * Detach all the LoggerContexts created by this selector
+	 * 
+	 * @return the detached LoggerContexts
+	 */
+	public List<LoggerContext> detachLoggerContexts() {
+		List<LoggerContext> detached = new ArrayList<LoggerContext>();
+		for (String location : loggerContexts.keySet()) {
+			LoggerContext loggerContext = loggerContexts.remove(location);
+			if (loggerContext != null) {
+				detached.add(loggerContext);
+			}
+		}
+		return detached;
+	}
+
+	public LoggerContext getLoggerContext() {
+		LoggerContext loggerContext = currentLoggerContext.get();
+		if (loggerContext != null) {
+			return loggerContext;
+		}
+		if (!loggerContexts.isEmpty() && fallbackWarned.compareAndSet(false, true)) {
+			defaultLoggerContext.getStatusManager().add(
+					new WarnStatus("Thread [" + Thread.currentThread().getName() + "] isn't bound to a test LoggerContext, using the default one", this));
+		}
+		return defaultLoggerContext;
+	}
+
+	public LoggerContext getLoggerContext(String name) {
+		LoggerContext current = getLoggerContext();
+		if (current.getName().equals(name)) {
+			return current;
+		}
+		for (LoggerContext loggerContext : loggerContexts.values()) {
+			if (loggerContext.getName().equals(name)) {
+				return loggerContext;
+			}
+		}
+		return defaultLoggerContext.getName().equals(name) ? defaultLoggerContext : null;
+	}
+
+	public LoggerContext getDefaultLoggerContext() {
+		return defaultLoggerContext;
+	}
+
+	/**
+	 * Detach the LoggerContext with the given name, looking first at the one
+	 * bound to the current thread, as test contexts usually all bear the
+	 * default name.
+	 */
+	public LoggerContext detachLoggerContext(String name) {
+		LoggerContext loggerContext = getLoggerContext(name);
+		if (loggerContext != null && loggerContext != defaultLoggerContext) {
+			loggerContexts.values().remove(loggerContext);
+			if (currentLoggerContext.get() == loggerContext) {
+				currentLoggerContext.remove();
+			}
+		}
+		return loggerContext;
+	}
+
+	public List<String> getContextNames() {
+		List<String> names = new ArrayList<String>();
+		names.add(defaultLoggerContext.getName());
+		for (LoggerContext loggerContext : loggerContexts.values()) {
+			names.add(loggerContext.getName());
+		}
+		return names;
+	}
+}
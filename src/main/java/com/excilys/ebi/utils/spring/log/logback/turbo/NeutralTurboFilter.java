@@ -0,0 +1,30 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.turbo;
+
+/**
+ * Marker for the TurboFilters that always reply
+ * {@link ch.qos.logback.core.spi.FilterReply#NEUTRAL}, for example to observe
+ * the events.
+ * <p>
+ * As they can't change the outcome of a level check, they are ignored by
+ * {@link com.excilys.ebi.utils.spring.log.logback.LevelCachingLogger} when
+ * deciding if the cached level can be used.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public interface NeutralTurboFilter {
+}
@@ -0,0 +1,362 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.turbo;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+import org.slf4j.spi.LocationAwareLogger;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+
+/**
+ * TurboFilter limiting the rate of the events per logger and message template
+ * (the unformatted message), with a token bucket for each of them : up to
+ * {@link #setBurst(int) burst} events are let through at once, then
+ * {@link #setEventsPerSecond(double) eventsPerSecond}.
+ * <p>
+ * The buckets are spread over {@link #setStripes(int) stripes}, each with its
+ * own lock and holding at most {@link #setMaxTemplates(int) maxTemplates}
+ * buckets (least recently used ones are dropped), so that threads logging
+ * different messages rarely contend.
+ * <p>
+ * Suppressed events are counted and summarized, at most every
+ * {@link #setSummaryPeriod(long) summaryPeriod} milliseconds, by an event
+ * from the same logger, with the same level and the {@link #SUMMARY_MARKER}
+ * : "Suppressed 48213 similar events: Connection to {} failed". Pending
+ * summaries are also logged when the filter is stopped.
+ * <p>
+ * Only the events at or above {@link #setLevel(String) level} (WARN by
+ * default) are limited. Configuration example :
+ * <p>
+ * <code>
+ * &lt;turboFilter class="com.excilys.ebi.utils.spring.log.logback.turbo.RateLimitingTurboFilter"&gt;<br/>
+ * &nbsp;&nbsp;&lt;eventsPerSecond&gt;10&lt;/eventsPerSecond&gt;<br/>
+ * &nbsp;&nbsp;&lt;burst&gt;100&lt;/burst&gt;<br/>
+ * &lt;/turboFilter&gt;
+ * </code>
+ * <p>
+ * It can also be declared as a Spring bean, and installed with a
+ * {@link TurboFilterRegistrar}.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class RateLimitingTurboFilter extends TurboFilter {
+
+	/**
+	 * Marker of the summary events, never limited
+	 */
+	public static final Marker SUMMARY_MARKER = MarkerFactory.getMarker("RATE_LIMIT_SUMMARY");
+
+	private static final String FQCN = RateLimitingTurboFilter.class.getName();
+
+	private Level level = Level.WARN;
+
+	private double eventsPerSecond = 10;
+
+	private int burst = 100;
+
+	private int stripes = 16;
+
+	private int maxTemplates = 1000;
+
+	private long summaryPeriod = 10000;
+
+	private Stripe[] stripeArray;
+
+	private long summaryPeriodNanos;
+
+	private volatile long nextSweep;
+
+	public void setLevel(String level) {
+		this.level = Level.toLevel(level, Level.WARN);
+	}
+
+	public void setEventsPerSecond(double eventsPerSecond) {
+		this.eventsPerSecond = eventsPerSecond;
+	}
+
+	public void setBurst(int burst) {
+		this.burst = burst;
+	}
+
+	/**
+	 * @param stripes
+	 *            the number of stripes, rounded up to a power of 2
+	 */
+	public void setStripes(int stripes) {
+		this.stripes = stripes;
+	}
+
+	/**
+	 * @param maxTemplates
+	 *            the number of buckets per stripe
+	 */
+	public void setMaxTemplates(int maxTemplates) {
+		this.maxTemplates = maxTemplates;
+	}
+
+	/**
+	 * @param summaryPeriod
+	 *            the minimum period between summaries of the same template,
+	 *            in milliseconds
+	 */
+	public void setSummaryPeriod(long summaryPeriod) {
+		this.summaryPeriod = summaryPeriod;
+	}
+
+	@Override
+	public void start() {
+		if (eventsPerSecond <= 0 || burst < 1 || stripes < 1 || maxTemplates < 1) {
+			addError("eventsPerSecond, burst, stripes and maxTemplates must be positive");
+			return;
+		}
+		int size = Integer.highestOneBit(stripes);
+		if (size < stripes) {
+			size <<= 1;
+		}
+		stripeArray = new Stripe[size];
+		for (int i = 0; i < size; i++) {
+			stripeArray[i] = new Stripe(maxTemplates);
+		}
+		summaryPeriodNanos = TimeUnit.MILLISECONDS.toNanos(summaryPeriod);
+		nextSweep = System.nanoTime() + summaryPeriodNanos;
+		super.start();
+	}
+
+	@Override
+	public void stop() {
+		if (isStarted()) {
+			super.stop();
+			sweep(Long.MAX_VALUE, true);
+		}
+	}
+
+	@Override
+	public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+
+		// isXxxEnabled() checks, events that will be denied by the logger
+		// level anyway and summaries are not limited
+		if (format == null || level == null || !isStarted() || !level.isGreaterOrEqual(this.level) || !level.isGreaterOrEqual(logger.getEffectiveLevel())
+				|| marker == SUMMARY_MARKER) {
+			return FilterReply.NEUTRAL;
+		}
+
+		long now = System.nanoTime();
+		if (now - nextSweep >= 0) {
+			nextSweep = now + summaryPeriodNanos;
+			sweep(now, false);
+		}
+
+		String loggerName = logger.getName();
+		int hash = 31 * loggerName.hashCode() + format.hashCode();
+		Stripe stripe = stripeArray[(hash ^ (hash >>> 16)) & (stripeArray.length - 1)];
+
+		boolean accepted;
+		long suppressed = 0;
+		stripe.lock.lock();
+		try {
+			Bucket bucket = stripe.lookup(loggerName, format, hash);
+			if (bucket == null) {
+				bucket = stripe.add(new Bucket(logger, level, format, hash, burst, now));
+			}
+			accepted = bucket.tryAcquire(now, eventsPerSecond, burst);
+			if (accepted && bucket.suppressed > 0 && now - bucket.lastSummary >= summaryPeriodNanos) {
+				suppressed = bucket.suppressed;
+				bucket.suppressed = 0;
+				bucket.lastSummary = now;
+			}
+		} finally {
+			stripe.lock.unlock();
+		}
+
+		if (suppressed > 0) {
+			logSummary(logger, level, format, suppressed);
+		}
+
+		return accepted ? FilterReply.NEUTRAL : FilterReply.DENY;
+	}
+
+	/**
+	 * Log the summaries that are due, or all of them
+	 */
+	private void sweep(long now, boolean all) {
+		List<Bucket> due = new ArrayList<Bucket>();
+		List<Long> counts = new ArrayList<Long>();
+
+		for (Stripe stripe : stripeArray) {
+			if (all) {
+				stripe.lock.lock();
+			} else if (!stripe.lock.tryLock()) {
+				continue;
+			}
+			try {
+				for (Bucket bucket : stripe.buckets.values()) {
+					if (bucket.suppressed > 0 && (all || now - bucket.lastSummary >= summaryPeriodNanos)) {
+						due.add(bucket);
+						counts.add(bucket.suppressed);
+						bucket.suppressed = 0;
+						bucket.lastSummary = now;
+					}
+				}
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+
+		for (int i = 0; i < due.size(); i++) {
+			Bucket bucket = due.get(i);
+			logSummary(bucket.logger, bucket.level, bucket.format, counts.get(i));
+		}
+	}
+
+	private void logSummary(Logger logger, Level level, String format, long suppressed) {
+		logger.log(SUMMARY_MARKER, FQCN, toLocationAwareLevel(level), "Suppressed {} similar events: {}", new Object[] { suppressed, format }, null);
+	}
+
+	private static int toLocationAwareLevel(Level level) {
+		switch (level.levelInt) {
+		case Level.TRACE_INT:
+			return LocationAwareLogger.TRACE_INT;
+		case Level.DEBUG_INT:
+			return LocationAwareLogger.DEBUG_INT;
+		case Level.INFO_INT:
+			return LocationAwareLogger.INFO_INT;
+		case Level.WARN_INT:
+			return LocationAwareLogger.WARN_INT;
+		default:
+			return LocationAwareLogger.ERROR_INT;
+		}
+	}
+
+	/**
+	 * The buckets of a stripe, in access order
+	 */
+	private static final class Stripe {
+
+		private final ReentrantLock lock = new ReentrantLock();
+
+		private final Map<Bucket, Bucket> buckets;
+
+		/**
+		 * Reused key for lookups, guarded by the lock
+		 */
+		private final Bucket key = new Bucket(null, null, null, 0, 0, 0);
+
+		private Stripe(final int maxTemplates) {
+			buckets = new LinkedHashMap<Bucket, Bucket>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				/**
+				 * Keep the buckets with a pending summary, but only up to twice
+				 * the capacity
+				 */
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Bucket, Bucket> eldest) {
+					return size() > maxTemplates && (eldest.getValue().suppressed == 0 || size() > 2 * maxTemplates);
+				}
+			};
+		}
+
+		private Bucket lookup(String loggerName, String format, int hash) {
+			key.loggerName = loggerName;
+			key.format = format;
+			key.hash = hash;
+			Bucket bucket = buckets.get(key);
+			key.loggerName = null;
+			key.format = null;
+			return bucket;
+		}
+
+		private Bucket add(Bucket bucket) {
+			buckets.put(bucket, bucket);
+			return bucket;
+		}
+	}
+
+	/**
+	 * Token bucket of a logger and message template, also used as its own map
+	 * key
+	 */
+	private static final class Bucket {
+
+		private final Logger logger;
+
+		private final Level level;
+
+		private String loggerName;
+
+		private String format;
+
+		private int hash;
+
+		private double tokens;
+
+		private long lastRefill;
+
+		private long suppressed;
+
+		private long lastSummary;
+
+		private Bucket(Logger logger, Level level, String format, int hash, int burst, long now) {
+			this.logger = logger;
+			this.level = level;
+			this.loggerName = logger != null ? logger.getName() : null;
+			this.format = format;
+			this.hash = hash;
+			this.tokens = burst;
+			this.lastRefill = now;
+			this.lastSummary = now;
+		}
+
+		private boolean tryAcquire(long now, double eventsPerSecond, int burst) {
+			tokens = Math.min(burst, tokens + (now - lastRefill) * eventsPerSecond / TimeUnit.SECONDS.toNanos(1));
+			lastRefill = now;
+			if (tokens >= 1) {
+				tokens--;
+				return true;
+			}
+			suppressed++;
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Bucket)) {
+				return false;
+			}
+			Bucket other = (Bucket) obj;
+			return hash == other.hash && loggerName.equals(other.loggerName) && format.equals(other.format);
+		}
+	}
+}
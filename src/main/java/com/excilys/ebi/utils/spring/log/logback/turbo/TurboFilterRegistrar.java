@@ -0,0 +1,111 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.turbo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggerContextListener;
+import ch.qos.logback.classic.turbo.TurboFilter;
+
+/**
+ * Spring bean installing TurboFilters declared as Spring beans into the
+ * LoggerContext, and removing them when the application context is closed.
+ * <p>
+ * As resetting the LoggerContext, for example with
+ * {@link com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer#initLogging(String)}
+ * , stops and drops all the TurboFilters, they are started and installed
+ * again on each reset.
+ * 
+ * <pre>
+ * &lt;bean class="com.excilys.ebi.utils.spring.log.logback.turbo.TurboFilterRegistrar"&gt;
+ *   &lt;property name="turboFilters"&gt;
+ *     &lt;bean class="com.excilys.ebi.utils.spring.log.logback.turbo.RateLimitingTurboFilter"&gt;
+ *       &lt;property name="eventsPerSecond" value="10" /&gt;
+ *     &lt;/bean&gt;
+ *   &lt;/property&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class TurboFilterRegistrar implements InitializingBean, DisposableBean, LoggerContextListener {
+
+	private List<TurboFilter> turboFilters = new ArrayList<TurboFilter>();
+
+	private LoggerContext loggerContext;
+
+	public void setTurboFilters(List<TurboFilter> turboFilters) {
+		this.turboFilters = turboFilters;
+	}
+
+	public void afterPropertiesSet() {
+		Assert.isInstanceOf(LoggerContext.class, LoggerFactory.getILoggerFactory(), "Logback is not the SLF4J binding");
+		loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+		for (TurboFilter turboFilter : turboFilters) {
+			turboFilter.setContext(loggerContext);
+		}
+		install();
+		loggerContext.addListener(this);
+	}
+
+	/**
+	 * Start the TurboFilters, as a reset stops them, and add them
+	 */
+	private void install() {
+		for (TurboFilter turboFilter : turboFilters) {
+			if (!turboFilter.isStarted()) {
+				turboFilter.start();
+			}
+			if (turboFilter.isStarted() && !loggerContext.getTurboFilterList().contains(turboFilter)) {
+				loggerContext.addTurboFilter(turboFilter);
+			}
+		}
+	}
+
+	public void destroy() {
+		loggerContext.removeListener(this);
+		for (TurboFilter turboFilter : turboFilters) {
+			loggerContext.getTurboFilterList().remove(turboFilter);
+			turboFilter.stop();
+		}
+	}
+
+	public boolean isResetResistant() {
+		return true;
+	}
+
+	public void onStart(LoggerContext context) {
+	}
+
+	public void onReset(LoggerContext context) {
+		install();
+	}
+
+	public void onStop(LoggerContext context) {
+	}
+
+	public void onLevelChange(Logger logger, Level level) {
+	}
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletContext;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.joran.spi.ConfigurationWatchList;
+import ch.qos.logback.core.joran.util.ConfigurationWatchListUtil;
+
+import com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer;
+
+/**
+ * Reconfigures Logback when its configuration file or one of its includes
+ * changes, as an alternative to the <code>scan</code> attribute that checks
+ * the files' modification time on the logging threads.
+ * <p>
+ * The directories of the files are registered with a {@link WatchService}
+ * polled by a daemon thread. Bursts of changes, such as an editor saving a
+ * file in several steps, are debounced: the reconfiguration only happens once
+ * none of the watched files changed during the debounce delay. It's incremental, see
+ * {@link LogbackConfigurer#reconfigureLogging(String, File)}, and the watched
+ * files are updated afterwards, in case the includes changed.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+class ConfigurationWatcher implements Runnable {
+
+	/**
+	 * Default debounce delay, in milliseconds
+	 */
+	static final long DEFAULT_DELAY = 500;
+
+	private final ServletContext servletContext;
+
+	private final String location;
+
+	private final File configCacheDirectory;
+
+	private final long delay;
+
+	private final WatchService watchService;
+
+	private final Set<Path> files = new HashSet<Path>();
+
+	private Thread thread;
+
+	ConfigurationWatcher(ServletContext servletContext, String location, File configCacheDirectory, long delay) throws IOException {
+		this.servletContext = servletContext;
+		this.location = location;
+		this.configCacheDirectory = configCacheDirectory;
+		this.delay = delay;
+		this.watchService = FileSystems.getDefault().newWatchService();
+	}
+
+	/**
+	 * Start watching the files used by the current configuration
+	 * 
+	 * @return false if there's no file to watch, for example if the
+	 *         configuration is packaged in a jar
+	 */
+	synchronized boolean start() throws IOException {
+		if (!registerFiles()) {
+			watchService.close();
+			return false;
+		}
+		thread = new Thread(this, "logback-config-watcher");
+		thread.setDaemon(true);
+		thread.start();
+		return true;
+	}
+
+	/**
+	 * Stop watching and wait for a reconfiguration in progress, if any
+	 * 
+	 * @param timeout
+	 *            how long to wait at most for the reconfiguration, in
+	 *            milliseconds
+	 */
+	synchronized void stop(long timeout) {
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			servletContext.log("Could not close the Logback configuration watch service", e);
+		}
+		if (thread != null) {
+			try {
+				thread.join(Math.max(timeout, 1));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (thread.isAlive()) {
+				servletContext.log("Logback reconfiguration still running after " + timeout + " ms, no longer waiting for it");
+			}
+			thread = null;
+		}
+	}
+
+	public void run() {
+		try {
+			while (true) {
+				if (!isConfigurationChange(watchService.take())) {
+					continue;
+				}
+
+				// wait for the end of the burst, the changes of the other files
+				// of the directories don't postpone the reconfiguration
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+				long remaining;
+				while ((remaining = deadline - System.nanoTime()) > 0) {
+					WatchKey key = watchService.poll(remaining, TimeUnit.NANOSECONDS);
+					if (key != null && isConfigurationChange(key)) {
+						deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+					}
+				}
+
+				reconfigure();
+			}
+		} catch (ClosedWatchServiceException e) {
+			// stopped
+		} catch (InterruptedException e) {
+			// stopped
+		}
+	}
+
+	private boolean isConfigurationChange(WatchKey key) {
+		boolean change = false;
+		Path directory = (Path) key.watchable();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || files.contains(directory.resolve((Path) event.context()))) {
+				change = true;
+			}
+		}
+		key.reset();
+		return change;
+	}
+
+	private void reconfigure() {
+		servletContext.log("Reconfiguring Logback from [" + location + "]");
+		try {
+			LogbackConfigurer.reconfigureLogging(location, configCacheDirectory);
+			registerFiles();
+		} catch (Exception e) {
+			// keep watching, the file may be fixed later
+			servletContext.log("Could not reconfigure Logback from [" + location + "]", e);
+		}
+	}
+
+	/**
+	 * Register the directories of the files listed in the context's
+	 * {@link ConfigurationWatchList}
+	 * 
+	 * @return false if there's no file to watch
+	 */
+	private boolean registerFiles() throws IOException {
+		LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+		ConfigurationWatchList watchList = ConfigurationWatchListUtil.getConfigurationWatchList(loggerContext);
+		if (watchList == null) {
+			return false;
+		}
+
+		files.clear();
+		for (File file : watchList.getCopyOfFileWatchList()) {
+			Path path = file.toPath().toAbsolutePath().normalize();
+			if (files.add(path)) {
+				// registering a directory twice is a no-op
+				path.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			}
+		}
+		return !files.isEmpty();
+	}
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.web;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.CallerData;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggerContextListener;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+
+/**
+ * TurboFilter holding back the events logged while Logback is configured on a
+ * background thread by {@link LogbackConfigListener}, in a bounded memory
+ * queue, and replaying them in order once the configuration is done.
+ * <p>
+ * As resetting the LoggerContext drops all the TurboFilters, the buffer is
+ * installed again on each reset, so that the events logged while the
+ * configuration is running are buffered too.
+ * <p>
+ * Events are filtered against the levels of the loggers both when buffered and
+ * when replayed, so that the levels of the final configuration apply. Caller
+ * data isn't available for replayed events : it's set empty when buffering,
+ * as extracting it on replay would point to the replaying code. Level probes
+ * such as
+ * <code>isDebugEnabled()</code> aren't buffered, and are answered by the
+ * current levels.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+final class EarlyEventBuffer extends TurboFilter implements LoggerContextListener {
+
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	private static final String FQCN = Logger.class.getName();
+
+	private final LoggerContext loggerContext;
+
+	private final int capacity;
+
+	private List<ILoggingEvent> events = new ArrayList<ILoggingEvent>();
+
+	private long droppedCount;
+
+	private boolean closed;
+
+	private EarlyEventBuffer(LoggerContext loggerContext, int capacity) {
+		this.loggerContext = loggerContext;
+		this.capacity = capacity;
+		setContext(loggerContext);
+		setName("EARLY_EVENT_BUFFER");
+	}
+
+	/**
+	 * Start buffering the events logged in the given context
+	 * 
+	 * @param loggerContext
+	 *            the LoggerContext
+	 * @param capacity
+	 *            the maximum number of buffered events, the following ones are
+	 *            dropped
+	 * @return the buffer, to be replayed once the configuration is done
+	 */
+	public static EarlyEventBuffer install(LoggerContext loggerContext, int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		EarlyEventBuffer buffer = new EarlyEventBuffer(loggerContext, capacity);
+		buffer.start();
+		loggerContext.getTurboFilterList().add(0, buffer);
+		loggerContext.addListener(buffer);
+		return buffer;
+	}
+
+	@Override
+	public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+
+		// isXxxEnabled probes have no format: let the current levels answer
+		// them, the actual statement is buffered afterwards
+		if (!isStarted() || format == null) {
+			return FilterReply.NEUTRAL;
+		}
+
+		if (!level.isGreaterOrEqual(logger.getEffectiveLevel())) {
+			return FilterReply.DENY;
+		}
+
+		LoggingEvent event = new LoggingEvent(FQCN, logger, level, format, t, params);
+		event.setMarker(marker);
+		event.setCallerData(CallerData.EMPTY_CALLER_DATA_ARRAY);
+		event.prepareForDeferredProcessing();
+
+		synchronized (this) {
+			if (closed) {
+				return FilterReply.NEUTRAL;
+			}
+			if (events.size() < capacity) {
+				events.add(event);
+			} else {
+				droppedCount++;
+			}
+		}
+		return FilterReply.DENY;
+	}
+
+	/**
+	 * Stop buffering and dispatch the buffered events to the appenders of
+	 * their logger, in order. Events logged by other threads while replaying
+	 * are buffered and replayed too, so that the order is preserved.
+	 * 
+	 * @return the number of dropped events
+	 */
+	public long replay() {
+		for (;;) {
+			List<ILoggingEvent> batch;
+			synchronized (this) {
+				if (events.isEmpty()) {
+					closed = true;
+					loggerContext.getTurboFilterList().remove(this);
+					loggerContext.removeListener(this);
+					stop();
+					return droppedCount;
+				}
+				batch = events;
+				events = new ArrayList<ILoggingEvent>();
+			}
+
+			for (ILoggingEvent event : batch) {
+				Logger logger = loggerContext.getLogger(event.getLoggerName());
+				if (event.getLevel().isGreaterOrEqual(logger.getEffectiveLevel())) {
+					logger.callAppenders(event);
+				}
+			}
+		}
+	}
+
+	public synchronized int size() {
+		return events.size();
+	}
+
+	public synchronized long getDroppedCount() {
+		return droppedCount;
+	}
+
+	public boolean isResetResistant() {
+		return true;
+	}
+
+	public void onStart(LoggerContext context) {
+	}
+
+	public void onReset(LoggerContext context) {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+		}
+		start();
+		if (!context.getTurboFilterList().contains(this)) {
+			context.getTurboFilterList().add(0, this);
+		}
+	}
+
+	public void onStop(LoggerContext context) {
+	}
+
+	public void onLevelChange(Logger logger, Level level) {
+	}
+}
@@ -15,9 +15,15 @@
  */
 package com.excilys.ebi.utils.spring.log.logback.web;
 
+import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import ch.qos.logback.classic.LoggerContext;
+
 /**
  * Bootstrap listener for custom Logback initialization in a web environment.
  * Delegates to LogbackWebConfigurer (see its javadoc for configuration
@@ -30,22 +36,95 @@ import javax.servlet.ServletContextListener;
  * <p>
  * Only Servlet 2.4+ supported as previous containers do not initialize
  * listeners before servlets.
+ * <p>
+ * When the "logbackAsyncInit" context-param is "true", Logback is configured
+ * on a background thread while the web application goes on starting, and the
+ * events logged in the meantime are buffered and replayed in order once the
+ * configuration is done.
+ * <p>
+ * When the "logbackConfigWatch" context-param is "true", Logback is
+ * reconfigured by a background thread when the config file or one of its
+ * includes changes, until the web application is stopped.
  * 
  * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
  */
 public class LogbackConfigListener implements ServletContextListener {
 
+	private volatile Thread initThread;
+
 	/**
 	 * {@inheritDoc}
 	 */
 	public void contextInitialized(ServletContextEvent event) {
-		LogbackWebConfigurer.initLogging(event.getServletContext());
+		ServletContext servletContext = event.getServletContext();
+		if (Boolean.parseBoolean(LogbackWebConfigurer.getParameter(servletContext, LogbackWebConfigurer.ASYNC_INIT_PARAM))) {
+			initThread = startAsyncInitialization(servletContext);
+		} else {
+			LogbackWebConfigurer.initLogging(servletContext);
+		}
+	}
+
+	private Thread startAsyncInitialization(final ServletContext servletContext) {
+
+		Assert.isInstanceOf(LoggerContext.class, LoggerFactory.getILoggerFactory(), "Logback is not the SLF4J binding");
+		LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+		String bufferSize = LogbackWebConfigurer.getParameter(servletContext, LogbackWebConfigurer.ASYNC_INIT_BUFFER_SIZE_PARAM);
+		final EarlyEventBuffer buffer = EarlyEventBuffer.install(loggerContext, bufferSize != null ? Integer.parseInt(bufferSize.trim()) : EarlyEventBuffer.DEFAULT_CAPACITY);
+
+		Thread thread = new Thread("logback-init") {
+			@Override
+			public void run() {
+				try {
+					LogbackWebConfigurer.initLogging(servletContext);
+				} catch (RuntimeException e) {
+					servletContext.log("Asynchronous Logback initialization failed", e);
+				} finally {
+					long droppedCount = buffer.replay();
+					if (droppedCount > 0) {
+						servletContext.log(droppedCount + " events dropped during asynchronous Logback initialization");
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Wait for the asynchronous initialization, if any, to be done
+	 * 
+	 * @param timeout
+	 *            how long to wait at most, in milliseconds
+	 * @return false if the initialization is still running
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	boolean awaitInitialization(long timeout) throws InterruptedException {
+		Thread thread = initThread;
+		if (thread != null) {
+			thread.join(Math.max(timeout, 1));
+			if (thread.isAlive()) {
+				return false;
+			}
+			initThread = null;
+		}
+		return true;
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	public void contextDestroyed(ServletContextEvent event) {
-		LogbackWebConfigurer.shutdownLogging(event.getServletContext());
+		ServletContext servletContext = event.getServletContext();
+		long timeout = LogbackWebConfigurer.getShutdownTimeout(servletContext);
+		try {
+			if (!awaitInitialization(timeout)) {
+				servletContext.log("Asynchronous Logback initialization still running after " + timeout + " ms, shutting down anyway");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		LogbackWebConfigurer.shutdownLogging(servletContext);
 	}
 }
@@ -15,7 +15,9 @@
  */
 package com.excilys.ebi.utils.spring.log.logback.web;
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 
 import javax.servlet.ServletContext;
 
@@ -42,6 +44,31 @@ import com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer;
  * root directory (e.g. "/WEB-INF/logback.xml"). If not specified, default
  * Logback initialization will apply ("logback.xml" or "logback-test.xml" in the
  * class path; see Logback documentation for details).
+ * <li><i>"logbackConfigCacheDir":</i><br>
+ * Directory where the parsed configuration is cached, so that later starts
+ * don't parse XML as long as the configuration file and its includes don't
+ * change (e.g. "${java.io.tmpdir}/myapp-logback"). If not specified, the
+ * configuration is parsed on each start.
+ * <li><i>"logbackAsyncInit":</i><br>
+ * If "true", {@link LogbackConfigListener} configures Logback on a background
+ * thread, so that the startup of the web application isn't blocked, and the
+ * events logged in the meantime are buffered and replayed in order once the
+ * configuration is done.
+ * <li><i>"logbackAsyncInitBufferSize":</i><br>
+ * Maximum number of events buffered during an asynchronous initialization,
+ * the following ones being dropped (default 10000).
+ * <li><i>"logbackShutdownTimeout":</i><br>
+ * How long the appenders are drained at most on shutdown, in milliseconds
+ * (default 5000).
+ * <li><i>"logbackConfigWatch":</i><br>
+ * If "true", the config file and its includes are watched by a background
+ * thread, and Logback is reconfigured when they change, so that the
+ * <code>scan</code> attribute, which checks the files on the logging threads,
+ * can be removed. Only applies to config files on the file system.
+ * <li><i>"logbackConfigWatchDelay":</i><br>
+ * How long no change must be notified before reconfiguring, so that a burst
+ * of changes triggers a single reconfiguration, in milliseconds (default
+ * 500).
  * </ul>
  * <p>
  * Note: <code>initLogging</code> should be called before any other Spring
@@ -56,6 +83,27 @@ public final class LogbackWebConfigurer {
 	/** Parameter specifying the location of the logback config file. */
 	public static final String CONFIG_LOCATION_PARAM = "logbackConfigLocation";
 
+	/** Parameter specifying the directory of the parsed configuration cache. */
+	public static final String CONFIG_CACHE_DIR_PARAM = "logbackConfigCacheDir";
+
+	/** Parameter enabling the asynchronous initialization. */
+	public static final String ASYNC_INIT_PARAM = "logbackAsyncInit";
+
+	/** Parameter specifying the size of the asynchronous initialization buffer. */
+	public static final String ASYNC_INIT_BUFFER_SIZE_PARAM = "logbackAsyncInitBufferSize";
+
+	/** Parameter specifying the drain deadline on shutdown. */
+	public static final String SHUTDOWN_TIMEOUT_PARAM = "logbackShutdownTimeout";
+
+	/** Parameter enabling the config file watching. */
+	public static final String CONFIG_WATCH_PARAM = "logbackConfigWatch";
+
+	/** Parameter specifying the debounce delay of the config file watching. */
+	public static final String CONFIG_WATCH_DELAY_PARAM = "logbackConfigWatchDelay";
+
+	/** ServletContext attribute holding the config file watcher. */
+	private static final String CONFIG_WATCHER_ATTRIBUTE = ConfigurationWatcher.class.getName();
+
 	/**
 	 * Instantiates a new logback web configurer.
 	 */
@@ -92,7 +140,12 @@ public final class LogbackWebConfigurer {
 				servletContext.log("Initializing Logback from [" + location + "]");
 
 				// Initialize
-				LogbackConfigurer.initLogging(location);
+				File configCacheDirectory = getConfigCacheDirectory(servletContext);
+				LogbackConfigurer.initLogging(location, configCacheDirectory);
+
+				if (Boolean.parseBoolean(getParameter(servletContext, CONFIG_WATCH_PARAM))) {
+					startWatching(servletContext, location, configCacheDirectory);
+				}
 			} catch (FileNotFoundException ex) {
 				throw new IllegalArgumentException("Invalid 'logbackConfigLocation' parameter: " + ex.getMessage());
 			} catch (JoranException e) {
@@ -101,6 +154,29 @@ public final class LogbackWebConfigurer {
 		}
 	}
 
+	private static void startWatching(ServletContext servletContext, String location, File configCacheDirectory) {
+		String delay = getParameter(servletContext, CONFIG_WATCH_DELAY_PARAM);
+		try {
+			ConfigurationWatcher watcher = new ConfigurationWatcher(servletContext, location, configCacheDirectory, delay != null ? Long.parseLong(delay.trim())
+					: ConfigurationWatcher.DEFAULT_DELAY);
+			if (watcher.start()) {
+				servletContext.setAttribute(CONFIG_WATCHER_ATTRIBUTE, watcher);
+			} else {
+				servletContext.log("No Logback config file to watch for [" + location + "]");
+			}
+		} catch (IOException e) {
+			servletContext.log("Could not watch the Logback config file [" + location + "]", e);
+		}
+	}
+
+	private static void stopWatching(ServletContext servletContext) {
+		ConfigurationWatcher watcher = (ConfigurationWatcher) servletContext.getAttribute(CONFIG_WATCHER_ATTRIBUTE);
+		if (watcher != null) {
+			watcher.stop(getShutdownTimeout(servletContext));
+			servletContext.removeAttribute(CONFIG_WATCHER_ATTRIBUTE);
+		}
+	}
+
 	/**
 	 * Search for a specified config location, first in the servlet context and
 	 * then as a System property
@@ -110,16 +186,57 @@ public final class LogbackWebConfigurer {
 	 * @return the config location
 	 */
 	private static String getConfigLocation(ServletContext servletContext) {
-		String location = servletContext.getInitParameter(CONFIG_LOCATION_PARAM);
-		if (location == null) {
-			location = System.getProperty(CONFIG_LOCATION_PARAM);
+		return getParameter(servletContext, CONFIG_LOCATION_PARAM);
+	}
+
+	/**
+	 * Search for a specified config cache directory, first in the servlet
+	 * context and then as a System property
+	 * 
+	 * @param servletContext
+	 *            the servletContext
+	 * @return the config cache directory, or null if caching is disabled
+	 */
+	private static File getConfigCacheDirectory(ServletContext servletContext) {
+		String directory = getParameter(servletContext, CONFIG_CACHE_DIR_PARAM);
+		return directory != null ? new File(SystemPropertyUtils.resolvePlaceholders(directory)) : null;
+	}
+
+	/**
+	 * Search for a parameter, first in the servlet context and then as a
+	 * System property
+	 * 
+	 * @param servletContext
+	 *            the servletContext
+	 * @param name
+	 *            the name of the parameter
+	 * @return the value, or null if not specified
+	 */
+	static String getParameter(ServletContext servletContext, String name) {
+		String value = servletContext.getInitParameter(name);
+		if (value == null) {
+			value = System.getProperty(name);
 		}
-		return location;
+		return value;
+	}
+
+	/**
+	 * @return the shutdown timeout specified by the
+	 *         {@link #SHUTDOWN_TIMEOUT_PARAM} parameter, in milliseconds
+	 */
+	static long getShutdownTimeout(ServletContext servletContext) {
+		String timeout = getParameter(servletContext, SHUTDOWN_TIMEOUT_PARAM);
+		return timeout != null ? Long.parseLong(timeout.trim()) : LogbackConfigurer.DEFAULT_SHUTDOWN_TIMEOUT;
 	}
 
 	/**
 	 * Shut down Logback, properly releasing all file locks and resetting the
 	 * web app root system property.
+	 * <p>
+	 * The config file watcher, if any, is stopped, then the appenders are
+	 * drained, see
+	 * {@link LogbackConfigurer#drainAndShutdownLogging(long)}, and the number of
+	 * dropped events is written to the server log.
 	 * 
 	 * @param servletContext
 	 *            the current ServletContext
@@ -127,6 +244,10 @@ public final class LogbackWebConfigurer {
 	 */
 	public static void shutdownLogging(ServletContext servletContext) {
 		servletContext.log("Shutting down Logback");
-		LogbackConfigurer.shutdownLogging();
+		stopWatching(servletContext);
+		long droppedCount = LogbackConfigurer.drainAndShutdownLogging(getShutdownTimeout(servletContext));
+		if (droppedCount > 0) {
+			servletContext.log(droppedCount + " events dropped while shutting down Logback");
+		}
 	}
 }
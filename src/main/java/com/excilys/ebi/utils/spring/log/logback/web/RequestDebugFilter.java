@@ -0,0 +1,144 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.web;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.util.StringUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.WebUtils;
+
+import ch.qos.logback.classic.Level;
+
+/**
+ * Servlet filter enabling DEBUG or TRACE logging for a single request, through
+ * the {@link RequestDebugTurboFilter} that must be declared in the Logback
+ * configuration.
+ * <p>
+ * The level is read from the "X-Log-Level" header, or else from the
+ * "logLevel" cookie, for example <code>X-Log-Level: debug</code>. Other
+ * values are ignored. The names can be changed with the "headerName" and
+ * "cookieName" init-params.
+ * <p>
+ * As anyone could otherwise flood the logs, a "token" init-param is required :
+ * the value has to be suffixed with it, for example
+ * <code>X-Log-Level: trace:s3cr3t</code>. The filter refuses to start without
+ * it, unless the "allowWithoutToken" init-param is set to true, for example
+ * on a development server.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class RequestDebugFilter extends OncePerRequestFilter {
+
+	public static final String DEFAULT_HEADER_NAME = "X-Log-Level";
+
+	public static final String DEFAULT_COOKIE_NAME = "logLevel";
+
+	private String headerName = DEFAULT_HEADER_NAME;
+
+	private String cookieName = DEFAULT_COOKIE_NAME;
+
+	private String token;
+
+	private boolean allowWithoutToken;
+
+	public void setHeaderName(String headerName) {
+		this.headerName = headerName;
+	}
+
+	public void setCookieName(String cookieName) {
+		this.cookieName = cookieName;
+	}
+
+	public void setToken(String token) {
+		this.token = token;
+	}
+
+	public void setAllowWithoutToken(boolean allowWithoutToken) {
+		this.allowWithoutToken = allowWithoutToken;
+	}
+
+	@Override
+	protected void initFilterBean() throws ServletException {
+		if (!StringUtils.hasLength(token) && !allowWithoutToken) {
+			throw new ServletException("A token is required, or allowWithoutToken must be set to true");
+		}
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+
+		Level level = getRequestLevel(request);
+
+		if (level == null) {
+			filterChain.doFilter(request, response);
+
+		} else {
+			Level previousLevel = RequestDebugTurboFilter.getThreadLevel();
+			RequestDebugTurboFilter.setThreadLevel(level);
+			try {
+				filterChain.doFilter(request, response);
+			} finally {
+				RequestDebugTurboFilter.setThreadLevel(previousLevel);
+			}
+		}
+	}
+
+	/**
+	 * @return the level requested by the client, null if none or invalid
+	 */
+	protected Level getRequestLevel(HttpServletRequest request) {
+
+		String value = StringUtils.hasLength(headerName) ? request.getHeader(headerName) : null;
+		if (value == null && StringUtils.hasLength(cookieName)) {
+			Cookie cookie = WebUtils.getCookie(request, cookieName);
+			value = cookie != null ? cookie.getValue() : null;
+		}
+
+		if (!StringUtils.hasLength(value)) {
+			return null;
+		}
+
+		if (StringUtils.hasLength(token)) {
+			int separator = value.indexOf(':');
+			if (separator == -1 || !matches(token, value.substring(separator + 1))) {
+				return null;
+			}
+			value = value.substring(0, separator);
+		}
+
+		Level level = Level.toLevel(value.trim(), null);
+		return level == Level.DEBUG || level == Level.TRACE ? level : null;
+	}
+
+	/**
+	 * Compare in a time that doesn't depend on the matching prefix, so that
+	 * the token can't be guessed character by character
+	 */
+	private static boolean matches(String expected, String actual) {
+		int difference = expected.length() ^ actual.length();
+		for (int i = 0; i < actual.length(); i++) {
+			difference |= expected.charAt(i % expected.length()) ^ actual.charAt(i);
+		}
+		return difference == 0;
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.web;
+
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+
+/**
+ * TurboFilter accepting the events at or above the level set for the current
+ * thread that the logger level would reject. Threads without such a level only
+ * pay a ThreadLocal lookup.
+ * <p>
+ * The events the logger level already enables are left to the following
+ * TurboFilters, and loggers turned OFF stay silent. As an accepted event skips
+ * the following TurboFilters, declare a
+ * {@link com.excilys.ebi.utils.spring.log.logback.turbo.RateLimitingTurboFilter}
+ * before this one for it to limit the debugged requests too.
+ * <p>
+ * The level is set by {@link RequestDebugFilter} for the duration of a
+ * request. Declare the TurboFilter in the Logback configuration file:
+ * <p>
+ * <code>
+ * &lt;turboFilter class="com.excilys.ebi.utils.spring.log.logback.web.RequestDebugTurboFilter" /&gt;
+ * </code>
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class RequestDebugTurboFilter extends TurboFilter {
+
+	private static final ThreadLocal<Level> THREAD_LEVEL = new ThreadLocal<Level>();
+
+	/**
+	 * Force the given level for the current thread
+	 * 
+	 * @param level
+	 *            the level, null to clear it
+	 */
+	public static void setThreadLevel(Level level) {
+		if (level == null) {
+			THREAD_LEVEL.remove();
+		} else {
+			THREAD_LEVEL.set(level);
+		}
+	}
+
+	/**
+	 * @return the level forced for the current thread, null if none
+	 */
+	public static Level getThreadLevel() {
+		return THREAD_LEVEL.get();
+	}
+
+	@Override
+	public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+		Level threadLevel = THREAD_LEVEL.get();
+		if (threadLevel == null || level == null) {
+			return FilterReply.NEUTRAL;
+		}
+		// compare the levels directly, Logger.isEnabledFor would call the
+		// TurboFilters again
+		Level effectiveLevel = logger.getEffectiveLevel();
+		if (!level.isGreaterOrEqual(threadLevel) || level.isGreaterOrEqual(effectiveLevel) || effectiveLevel == Level.OFF) {
+			return FilterReply.NEUTRAL;
+		}
+		return FilterReply.ACCEPT;
+	}
+}
@@ -21,11 +21,19 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 /**
- * Marks a field to be injected with a logger.
+ * Marks a field, or an autowired constructor, factory method or setter
+ * parameter, to be injected with a logger.
  * 
  * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
  */
 @Retention(RetentionPolicy.RUNTIME)
-@Target(ElementType.FIELD)
+@Target({ ElementType.FIELD, ElementType.PARAMETER })
 public @interface InjectLogger {
+
+	/**
+	 * Inject a {@link com.excilys.ebi.utils.spring.log.logback.LevelCachingLogger}
+	 * that caches the effective level of the logger, for hot code paths. Only
+	 * applies when Logback is the SLF4J binding.
+	 */
+	boolean cacheLevels() default false;
 }
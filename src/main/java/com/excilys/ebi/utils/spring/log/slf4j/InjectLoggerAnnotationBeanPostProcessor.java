@@ -15,18 +15,27 @@
  */
 package com.excilys.ebi.utils.spring.log.slf4j;
 
-import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
 import org.springframework.core.Ordered;
 import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
 import org.springframework.util.ReflectionUtils;
-import org.springframework.util.ReflectionUtils.FieldCallback;
 
 /**
  * <p>
@@ -38,18 +47,70 @@ import org.springframework.util.ReflectionUtils.FieldCallback;
  * target slf4j.
  * </p>
  * <p>
- * Warning : as only field injection is supported and happens after
- * instanciation, this strategy won't work if the logger is required inside the
- * constructor.
+ * The annotated fields and the logger are resolved once per bean class and
+ * cached, so that instantiating the same prototype or scoped bean again
+ * doesn't scan its class hierarchy. The cache is cleared when the bean factory
+ * is destroyed, and can be evicted manually with {@link #clearCache()} or
+ * {@link #evictCache(ClassLoader)}.
  * </p>
  * <p>
- * Warning : injecting into a static member is prohibited as it's non sense
+ * For each class of the hierarchy, the {@link LoggerInjector} generated at
+ * compile time by
+ * {@link com.excilys.ebi.utils.spring.log.slf4j.apt.InjectLoggerProcessor} is
+ * used if present, otherwise fields are scanned and set with reflection.
+ * </p>
+ * <p>
+ * Fields annotated with <code>@InjectLogger(cacheLevels = true)</code> are
+ * injected with a shared
+ * {@link com.excilys.ebi.utils.spring.log.logback.LevelCachingLogger} instead,
+ * when Logback is present, see {@link LevelCachingUtils}.
+ * </p>
+ * <p>
+ * Static fields are injected only once per class, with the logger of their
+ * declaring class, before the first instance of a class of the hierarchy is
+ * processed. They avoid holding the logger in every instance, for example in
+ * short-lived prototype beans.
+ * </p>
+ * <p>
+ * Autowired constructor, factory method or setter parameters can also be
+ * marked with {@link InjectLogger}, for example:
+ * <code>&lt;bean class="com.foo.Bar" autowire="constructor" /&gt;</code>
+ * with a <code>public Bar(@InjectLogger Logger logger)</code> constructor.
+ * They get the logger of the class declaring the constructor or the method,
+ * and are the only option if the logger is required inside the constructor,
+ * as field injection happens after instanciation.
+ * </p>
+ * <p>
+ * Warning : injecting into a final field is prohibited.
  * </p>
  * 
  * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
  */
 @Component
-public class InjectLoggerAnnotationBeanPostProcessor implements BeanPostProcessor, Ordered {
+public class InjectLoggerAnnotationBeanPostProcessor implements BeanPostProcessor, BeanFactoryAware, Ordered, DisposableBean {
+
+	/**
+	 * Injection metadata, per bean class
+	 */
+	private final ConcurrentMap<Class<?>, InjectionMetadata> injectionMetadataCache = new ConcurrentHashMap<Class<?>, InjectionMetadata>();
+
+	/**
+	 * Static fields injection, per declaring class
+	 */
+	private final ConcurrentMap<Class<?>, StaticInjection> staticInjectionCache = new ConcurrentHashMap<Class<?>, StaticInjection>();
+
+	/**
+	 * Register a {@link LoggerAutowireCandidateResolver} so that autowired
+	 * parameters marked with {@link InjectLogger} get resolved
+	 */
+	public void setBeanFactory(BeanFactory beanFactory) {
+		if (beanFactory instanceof DefaultListableBeanFactory) {
+			DefaultListableBeanFactory listableBeanFactory = (DefaultListableBeanFactory) beanFactory;
+			if (!(listableBeanFactory.getAutowireCandidateResolver() instanceof LoggerAutowireCandidateResolver)) {
+				listableBeanFactory.setAutowireCandidateResolver(new LoggerAutowireCandidateResolver(listableBeanFactory.getAutowireCandidateResolver()));
+			}
+		}
+	}
 
 	public Object postProcessBeforeInitialization(Object bean, String beanName) {
 		processLogger(bean);
@@ -67,29 +128,254 @@ public class InjectLoggerAnnotationBeanPostProcessor implements BeanPostProcesso
 		return Ordered.LOWEST_PRECEDENCE;
 	}
 
+	/**
+	 * Clear the cache when the bean factory is destroyed, for example on
+	 * context refresh or close
+	 */
+	public void destroy() {
+		clearCache();
+	}
+
 	/**
 	 * Processes a bean's fields for injection if it has a {@link InjectLogger}
 	 * annotation.
 	 */
 	protected void processLogger(final Object bean) {
-		final Class<?> clazz = bean.getClass();
+		findInjectionMetadata(bean.getClass()).inject(bean);
+	}
+
+	/**
+	 * Clear all the cached injection metadata.
+	 */
+	public void clearCache() {
+		injectionMetadataCache.clear();
+		staticInjectionCache.clear();
+	}
+
+	/**
+	 * Evict the cached injection metadata of the classes loaded by the given
+	 * ClassLoader or by one of its children, typically before this ClassLoader
+	 * is released.
+	 * 
+	 * @param classLoader
+	 *            the ClassLoader being unloaded
+	 */
+	public void evictCache(ClassLoader classLoader) {
+		for (Iterator<Class<?>> it = injectionMetadataCache.keySet().iterator(); it.hasNext();) {
+			if (isLoadedBy(it.next(), classLoader)) {
+				it.remove();
+			}
+		}
+		for (Iterator<Class<?>> it = staticInjectionCache.keySet().iterator(); it.hasNext();) {
+			if (isLoadedBy(it.next(), classLoader)) {
+				it.remove();
+			}
+		}
+	}
+
+	private boolean isLoadedBy(Class<?> clazz, ClassLoader classLoader) {
+		for (ClassLoader current = clazz.getClassLoader(); current != null; current = current.getParent()) {
+			if (current == classLoader) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the injection metadata of a given bean class, scanning its fields
+	 * only if it wasn't cached yet.
+	 */
+	private InjectionMetadata findInjectionMetadata(Class<?> clazz) {
+		InjectionMetadata metadata = injectionMetadataCache.get(clazz);
+		if (metadata == null) {
+			metadata = buildInjectionMetadata(clazz);
+			InjectionMetadata existing = injectionMetadataCache.putIfAbsent(clazz, metadata);
+			if (existing != null) {
+				metadata = existing;
+			}
+		}
+		return metadata;
+	}
+
+	private InjectionMetadata buildInjectionMetadata(Class<?> clazz) {
+
+		List<LoggerInjector> injectors = new ArrayList<LoggerInjector>();
+
+		for (Class<?> current = clazz; current != null && current != Object.class; current = current.getSuperclass()) {
+			LoggerInjector injector;
+			StaticLoggerInjector staticInjector;
+
+			Object generated = findGeneratedInjector(current);
+			if (generated != null) {
+				injector = generated instanceof LoggerInjector ? (LoggerInjector) generated : null;
+				staticInjector = generated instanceof StaticLoggerInjector ? (StaticLoggerInjector) generated : null;
+			} else {
+				injector = buildReflectiveInjector(current, false);
+				staticInjector = buildReflectiveInjector(current, true);
+			}
+
+			if (injector != null) {
+				injectors.add(injector);
+			}
+			if (staticInjector != null) {
+				injectStaticLoggers(current, staticInjector);
+			}
+		}
+
+		if (injectors.isEmpty()) {
+			return InjectionMetadata.EMPTY;
+		}
 
-		ReflectionUtils.doWithFields(clazz, new FieldCallback() {
-			public void doWith(Field field) {
-				Annotation annotation = field.getAnnotation(InjectLogger.class);
+		return new InjectionMetadata(injectors.toArray(new LoggerInjector[injectors.size()]), LoggerFactory.getLogger(clazz));
+	}
 
-				if (annotation != null) {
-					int modifiers = field.getModifiers();
-					Assert.isTrue(!Modifier.isStatic(modifiers), "InjectLogger annotation is not supported on static fields");
-					Assert.isTrue(!Modifier.isFinal(modifiers), "InjectLogger annotation is not supported on final fields");
+	/**
+	 * Inject the static fields of the given class, unless they were already
+	 * injected.
+	 */
+	private void injectStaticLoggers(Class<?> clazz, StaticLoggerInjector staticInjector) {
+		StaticInjection injection = staticInjectionCache.get(clazz);
+		if (injection == null) {
+			injection = new StaticInjection(staticInjector, clazz);
+			StaticInjection existing = staticInjectionCache.putIfAbsent(clazz, injection);
+			if (existing != null) {
+				injection = existing;
+			}
+		}
+		injection.inject();
+	}
 
-					ReflectionUtils.makeAccessible(field);
+	/**
+	 * Look up the {@link LoggerInjector} and/or {@link StaticLoggerInjector}
+	 * generated at compile time for the given class, if any.
+	 */
+	private Object findGeneratedInjector(Class<?> clazz) {
+		Class<?> injectorClass;
+		try {
+			injectorClass = ClassUtils.forName(clazz.getName() + LoggerInjector.GENERATED_CLASS_SUFFIX, clazz.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+		return BeanUtils.instantiateClass(injectorClass);
+	}
+
+	/**
+	 * Build an injector that sets the given class' own {@link InjectLogger}
+	 * instance or static fields with reflection.
+	 * 
+	 * @param statics
+	 *            true to handle static fields, false for instance ones
+	 * @return the injector, or null if the class declares no such field
+	 */
+	private ReflectiveLoggerInjector buildReflectiveInjector(Class<?> clazz, boolean statics) {
 
-					Logger logger = LoggerFactory.getLogger(clazz);
+		List<Field> fields = new ArrayList<Field>();
+		List<Field> levelCachingFields = new ArrayList<Field>();
 
-					ReflectionUtils.setField(field, bean, logger);
+		for (Field field : clazz.getDeclaredFields()) {
+			InjectLogger annotation = field.getAnnotation(InjectLogger.class);
+
+			if (annotation != null && Modifier.isStatic(field.getModifiers()) == statics) {
+				Assert.isTrue(!Modifier.isFinal(field.getModifiers()), "InjectLogger annotation is not supported on final fields");
+
+				ReflectionUtils.makeAccessible(field);
+
+				if (annotation.cacheLevels()) {
+					levelCachingFields.add(field);
+				} else {
+					fields.add(field);
 				}
 			}
-		});
+		}
+
+		return fields.isEmpty() && levelCachingFields.isEmpty() ? null : new ReflectiveLoggerInjector(fields.toArray(new Field[fields.size()]),
+				levelCachingFields.toArray(new Field[levelCachingFields.size()]));
+	}
+
+	/**
+	 * The injectors of a bean class and of its superclasses, and the logger to
+	 * be injected
+	 */
+	private static class InjectionMetadata {
+
+		/**
+		 * No-op marker for classes without any {@link InjectLogger} field
+		 */
+		private static final InjectionMetadata EMPTY = new InjectionMetadata(new LoggerInjector[0], null);
+
+		private final LoggerInjector[] injectors;
+
+		private final Logger logger;
+
+		public InjectionMetadata(LoggerInjector[] injectors, Logger logger) {
+			this.injectors = injectors;
+			this.logger = logger;
+		}
+
+		public void inject(Object bean) {
+			for (LoggerInjector injector : injectors) {
+				injector.injectLogger(bean, logger);
+			}
+		}
+	}
+
+	/**
+	 * One-time injection of the static fields of a class
+	 */
+	private static class StaticInjection {
+
+		private final StaticLoggerInjector staticInjector;
+
+		private final Class<?> clazz;
+
+		private boolean injected;
+
+		public StaticInjection(StaticLoggerInjector staticInjector, Class<?> clazz) {
+			this.staticInjector = staticInjector;
+			this.clazz = clazz;
+		}
+
+		/**
+		 * Synchronized, so that concurrent callers return once the fields are
+		 * set
+		 */
+		public synchronized void inject() {
+			if (!injected) {
+				staticInjector.injectStaticLoggers(LoggerFactory.getLogger(clazz));
+				injected = true;
+			}
+		}
+	}
+
+	/**
+	 * Fallback injector for classes without a generated one
+	 */
+	private static class ReflectiveLoggerInjector implements LoggerInjector, StaticLoggerInjector {
+
+		private final Field[] fields;
+
+		private final Field[] levelCachingFields;
+
+		public ReflectiveLoggerInjector(Field[] fields, Field[] levelCachingFields) {
+			this.fields = fields;
+			this.levelCachingFields = levelCachingFields;
+		}
+
+		public void injectLogger(Object bean, Logger logger) {
+			for (Field field : fields) {
+				ReflectionUtils.setField(field, bean, logger);
+			}
+			if (levelCachingFields.length > 0) {
+				Logger levelCachingLogger = LevelCachingUtils.cacheLevels(logger);
+				for (Field field : levelCachingFields) {
+					ReflectionUtils.setField(field, bean, levelCachingLogger);
+				}
+			}
+		}
+
+		public void injectStaticLoggers(Logger logger) {
+			injectLogger(null, logger);
+		}
 	}
 }
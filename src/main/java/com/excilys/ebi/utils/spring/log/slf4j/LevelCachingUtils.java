@@ -0,0 +1,47 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.slf4j;
+
+import org.slf4j.Logger;
+import org.springframework.util.ClassUtils;
+
+import com.excilys.ebi.utils.spring.log.logback.LevelCachingLogger;
+
+/**
+ * Wraps the loggers injected with <code>@InjectLogger(cacheLevels = true)</code>
+ * in a {@link LevelCachingLogger}. Logback being an optional dependency, the
+ * LevelCachingLogger class is only loaded when Logback is present, otherwise
+ * the loggers are returned unchanged.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public final class LevelCachingUtils {
+
+	private static final boolean LOGBACK_PRESENT = ClassUtils.isPresent("ch.qos.logback.classic.Logger", LevelCachingUtils.class.getClassLoader());
+
+	private LevelCachingUtils() {
+	}
+
+	/**
+	 * @param logger
+	 *            the logger
+	 * @return the shared LevelCachingLogger of the logger, or the logger
+	 *         itself if Logback isn't present or isn't the SLF4J binding
+	 */
+	public static Logger cacheLevels(Logger logger) {
+		return LOGBACK_PRESENT ? LevelCachingLogger.wrap(logger) : logger;
+	}
+}
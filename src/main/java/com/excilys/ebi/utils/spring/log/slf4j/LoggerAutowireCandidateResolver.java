@@ -0,0 +1,62 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.slf4j;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.BeanDefinitionHolder;
+import org.springframework.beans.factory.config.DependencyDescriptor;
+import org.springframework.beans.factory.support.AutowireCandidateResolver;
+import org.springframework.core.MethodParameter;
+import org.springframework.util.Assert;
+
+/**
+ * {@link AutowireCandidateResolver} that resolves the autowired constructor,
+ * factory method or setter parameters marked with {@link InjectLogger} to the
+ * logger of the class declaring the constructor or method, and delegates
+ * everything else to the bean factory's original resolver.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+class LoggerAutowireCandidateResolver implements AutowireCandidateResolver {
+
+	private final AutowireCandidateResolver delegate;
+
+	public LoggerAutowireCandidateResolver(AutowireCandidateResolver delegate) {
+		Assert.notNull(delegate, "delegate resolver is required");
+		this.delegate = delegate;
+	}
+
+	public boolean isAutowireCandidate(BeanDefinitionHolder bdHolder, DependencyDescriptor descriptor) {
+		return delegate.isAutowireCandidate(bdHolder, descriptor);
+	}
+
+	public Object getSuggestedValue(DependencyDescriptor descriptor) {
+
+		MethodParameter parameter = descriptor.getMethodParameter();
+		InjectLogger annotation = parameter != null ? parameter.getParameterAnnotation(InjectLogger.class) : null;
+
+		if (annotation == null) {
+			return delegate.getSuggestedValue(descriptor);
+		}
+
+		Assert.isTrue(parameter.getParameterType().isAssignableFrom(Logger.class), "InjectLogger annotation is only supported on " + Logger.class.getName()
+				+ " parameters");
+
+		Logger logger = LoggerFactory.getLogger(parameter.getDeclaringClass());
+		return annotation.cacheLevels() ? LevelCachingUtils.cacheLevels(logger) : logger;
+	}
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.slf4j;
+
+import org.slf4j.Logger;
+
+/**
+ * Injects a logger into the {@link InjectLogger} fields declared by a given
+ * class.
+ * <p>
+ * Implementations are generated at compile time by
+ * {@link com.excilys.ebi.utils.spring.log.slf4j.apt.InjectLoggerProcessor}
+ * and named after the declaring class with the
+ * {@link #GENERATED_CLASS_SUFFIX} suffix, so that
+ * {@link InjectLoggerAnnotationBeanPostProcessor} can inject loggers without
+ * any reflection.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public interface LoggerInjector {
+
+	/**
+	 * Suffix appended to the binary name of the declaring class to get the
+	 * name of its generated injector
+	 */
+	String GENERATED_CLASS_SUFFIX = "$$LoggerInjector";
+
+	/**
+	 * Inject the logger into the fields declared by this injector's class.
+	 * 
+	 * @param bean
+	 *            the bean, an instance of this injector's class or of one of
+	 *            its subclasses
+	 * @param logger
+	 *            the logger to be injected
+	 */
+	void injectLogger(Object bean, Logger logger);
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.slf4j;
+
+import org.slf4j.Logger;
+
+/**
+ * Injects a logger into the static {@link InjectLogger} fields declared by a
+ * given class.
+ * <p>
+ * Like {@link LoggerInjector}, implementations are generated at compile time
+ * by {@link com.excilys.ebi.utils.spring.log.slf4j.apt.InjectLoggerProcessor}
+ * with the {@link LoggerInjector#GENERATED_CLASS_SUFFIX} suffix. A generated
+ * injector implements this interface when its class declares static fields,
+ * and {@link LoggerInjector} when it declares instance fields.
+ * {@link InjectLoggerAnnotationBeanPostProcessor} calls it only once per
+ * class, before the first instance gets processed.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public interface StaticLoggerInjector {
+
+	/**
+	 * Inject the logger into the static fields declared by this injector's
+	 * class.
+	 * 
+	 * @param logger
+	 *            the logger of this injector's class
+	 */
+	void injectStaticLoggers(Logger logger);
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.slf4j.apt;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.JavaFileObject;
+
+import com.excilys.ebi.utils.spring.log.slf4j.InjectLogger;
+import com.excilys.ebi.utils.spring.log.slf4j.LoggerInjector;
+import com.excilys.ebi.utils.spring.log.slf4j.StaticLoggerInjector;
+
+/**
+ * Annotation processor that generates a {@link LoggerInjector} for each class
+ * declaring {@link InjectLogger} fields, which also implements
+ * {@link StaticLoggerInjector} if some of these fields are static.
+ * <p>
+ * Generated injectors assign fields directly, so they are only generated when
+ * all the annotated fields of a class are non private and non final, and when
+ * the class itself is accessible from its package. Otherwise,
+ * a note is issued and
+ * {@link com.excilys.ebi.utils.spring.log.slf4j.InjectLoggerAnnotationBeanPostProcessor}
+ * falls back to reflection for this class.
+ * <p>
+ * The processor is registered in
+ * <code>META-INF/services/javax.annotation.processing.Processor</code>, so it
+ * is run by javac as soon as spring-log is on the compilation class path.
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+@SupportedAnnotationTypes("com.excilys.ebi.utils.spring.log.slf4j.InjectLogger")
+public class InjectLoggerProcessor extends AbstractProcessor {
+
+	private static final String LOGGER_CLASS_NAME = "org.slf4j.Logger";
+
+	private static final String LEVEL_CACHING_UTILS_CLASS_NAME = "com.excilys.ebi.utils.spring.log.slf4j.LevelCachingUtils";
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+
+		Map<TypeElement, List<VariableElement>> fieldsByType = new LinkedHashMap<TypeElement, List<VariableElement>>();
+
+		for (Element element : roundEnv.getElementsAnnotatedWith(InjectLogger.class)) {
+			if (element.getKind() == ElementKind.FIELD) {
+				TypeElement type = (TypeElement) element.getEnclosingElement();
+				List<VariableElement> fields = fieldsByType.get(type);
+				if (fields == null) {
+					fields = new ArrayList<VariableElement>();
+					fieldsByType.put(type, fields);
+				}
+				fields.add((VariableElement) element);
+			}
+		}
+
+		for (Map.Entry<TypeElement, List<VariableElement>> entry : fieldsByType.entrySet()) {
+			if (isInjectable(entry.getKey(), entry.getValue())) {
+				generateInjector(entry.getKey(), entry.getValue());
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Check if generated code can access the type and assign its fields
+	 */
+	private boolean isInjectable(TypeElement type, List<VariableElement> fields) {
+
+		for (Element current = type; current.getKind() != ElementKind.PACKAGE; current = current.getEnclosingElement()) {
+			if (current.getModifiers().contains(Modifier.PRIVATE) || ((TypeElement) current).getNestingKind() == NestingKind.LOCAL
+					|| ((TypeElement) current).getNestingKind() == NestingKind.ANONYMOUS) {
+				note(type, "type is not accessible");
+				return false;
+			}
+		}
+
+		TypeMirror loggerType = processingEnv.getElementUtils().getTypeElement(LOGGER_CLASS_NAME).asType();
+
+		for (VariableElement field : fields) {
+			Set<Modifier> modifiers = field.getModifiers();
+			if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL)) {
+				note(field, "field is private or final");
+				return false;
+
+			} else if (!processingEnv.getTypeUtils().isAssignable(loggerType, field.asType())) {
+				note(field, "field type is not assignable from " + LOGGER_CLASS_NAME);
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private void note(Element element, String reason) {
+		processingEnv.getMessager().printMessage(Kind.NOTE, "No LoggerInjector generated, falling back to reflection: " + reason, element);
+	}
+
+	private void generateInjector(TypeElement type, List<VariableElement> fields) {
+
+		PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+		String packageName = packageElement.getQualifiedName().toString();
+		String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+		String injectorName = binaryName + LoggerInjector.GENERATED_CLASS_SUFFIX;
+		String injectorSimpleName = packageElement.isUnnamed() ? injectorName : injectorName.substring(packageName.length() + 1);
+
+		List<VariableElement> instanceFields = new ArrayList<VariableElement>();
+		List<VariableElement> staticFields = new ArrayList<VariableElement>();
+		for (VariableElement field : fields) {
+			if (field.getModifiers().contains(Modifier.STATIC)) {
+				staticFields.add(field);
+			} else {
+				instanceFields.add(field);
+			}
+		}
+
+		List<String> interfaces = new ArrayList<String>();
+		if (!instanceFields.isEmpty()) {
+			interfaces.add(LoggerInjector.class.getName());
+		}
+		if (!staticFields.isEmpty()) {
+			interfaces.add(StaticLoggerInjector.class.getName());
+		}
+
+		try {
+			JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(injectorName, type);
+			PrintWriter writer = new PrintWriter(sourceFile.openWriter());
+			try {
+				if (!packageElement.isUnnamed()) {
+					writer.println("package " + packageName + ";");
+					writer.println();
+				}
+				writer.println("/**");
+				writer.println(" * Generated by " + InjectLoggerProcessor.class.getName() + ", do not edit.");
+				writer.println(" */");
+				writer.print("public final class " + injectorSimpleName + " implements ");
+				for (int i = 0; i < interfaces.size(); i++) {
+					writer.print(i == 0 ? interfaces.get(i) : ", " + interfaces.get(i));
+				}
+				writer.println(" {");
+				if (!instanceFields.isEmpty()) {
+					writer.println();
+					writer.println("\tpublic void injectLogger(Object bean, " + LOGGER_CLASS_NAME + " logger) {");
+					writer.println("\t\t" + type.getQualifiedName() + " target = (" + type.getQualifiedName() + ") bean;");
+					writeAssignments(writer, "target", instanceFields);
+					writer.println("\t}");
+				}
+				if (!staticFields.isEmpty()) {
+					writer.println();
+					writer.println("\tpublic void injectStaticLoggers(" + LOGGER_CLASS_NAME + " logger) {");
+					writeAssignments(writer, type.getQualifiedName().toString(), staticFields);
+					writer.println("\t}");
+				}
+				writer.println("}");
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Kind.ERROR, "Could not generate LoggerInjector: " + e.getMessage(), type);
+		}
+	}
+
+	private void writeAssignments(PrintWriter writer, String target, List<VariableElement> fields) {
+		for (VariableElement field : fields) {
+			String value = field.getAnnotation(InjectLogger.class).cacheLevels() ? LEVEL_CACHING_UTILS_CLASS_NAME + ".cacheLevels(logger)" : "logger";
+			writer.println("\t\t" + target + "." + field.getSimpleName() + " = " + value + ";");
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import ch.qos.logback.classic.Level;
+
+import com.excilys.ebi.utils.spring.log.logback.test.CaptureAppender;
+import com.excilys.ebi.utils.spring.log.logback.test.Logback;
+import com.excilys.ebi.utils.spring.log.logback.test.LogbackConfigurerTestExecutionListener;
+
+/**
+ * Test for {@link CaptureAppender}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners(LogbackConfigurerTestExecutionListener.class)
+@Logback(capture = true, captureCapacity = 3)
+public class CaptureAppenderTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CaptureAppenderTest.class);
+
+	@Test
+	public void testCapture() {
+
+		CaptureAppender appender = CaptureAppender.getCaptureAppender();
+		Assert.assertEquals("Appender not cleared before test", 0, appender.size());
+
+		LOGGER.info("hello {}", "world");
+		LOGGER.trace("filtered by the logger level");
+
+		Assert.assertEquals(1, appender.size());
+		Assert.assertEquals(Level.INFO, appender.getLevel(0));
+		Assert.assertEquals(CaptureAppenderTest.class.getName(), appender.getLoggerName(0));
+		Assert.assertEquals("hello world", appender.getMessage(0));
+		appender.assertLogged(Level.INFO, "world");
+		appender.assertNotLogged(Level.WARN, "world");
+		Assert.assertEquals(1, appender.count(null, "com.excilys.ebi", null));
+		Assert.assertEquals(0, appender.count(null, "com.excil", null));
+	}
+
+	@Test
+	public void testRingBuffer() {
+
+		CaptureAppender appender = CaptureAppender.getCaptureAppender();
+		Assert.assertEquals("Appender not cleared before test", 0, appender.size());
+
+		for (int i = 0; i < 5; i++) {
+			LOGGER.warn("message {}", i);
+		}
+
+		Assert.assertEquals(3, appender.size());
+		Assert.assertEquals(2, appender.getOverwrittenCount());
+		Assert.assertEquals("message 2", appender.getMessage(0));
+		Assert.assertEquals("message 4", appender.getMessage(2));
+		appender.assertNotLogged(Level.WARN, "message 1");
+	}
+
+	@Test
+	public void testNullMessage() {
+
+		CaptureAppender appender = CaptureAppender.getCaptureAppender();
+
+		LOGGER.warn(null);
+
+		Assert.assertNull(appender.getMessage(0));
+		Assert.assertEquals(1, appender.count(Level.WARN, null, null));
+		appender.assertNotLogged(Level.WARN, "null");
+	}
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.FileSystemUtils;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.status.Status;
+
+/**
+ * Test for {@link LogbackConfigurer#initLogging(String, File)}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class ConfigurationCacheTest {
+
+	private File directory;
+
+	private File cacheDirectory;
+
+	private File configFile;
+
+	private File includedFile;
+
+	@Before
+	public void createFiles() throws IOException {
+		directory = File.createTempFile("spring-log", "");
+		directory.delete();
+		directory.mkdirs();
+		cacheDirectory = new File(directory, "cache");
+		configFile = new File(directory, "logback.xml");
+		includedFile = new File(directory, "included.xml");
+
+		FileCopyUtils.copy("<configuration><include file=\"" + includedFile.getAbsolutePath() + "\" /></configuration>", new FileWriter(configFile));
+		writeIncluded(Level.INFO);
+	}
+
+	private void writeIncluded(Level level) throws IOException {
+		FileCopyUtils.copy("<included><logger name=\"cached\" level=\"" + level + "\" /></included>", new FileWriter(includedFile));
+	}
+
+	@After
+	public void deleteFiles() {
+		LogbackConfigurer.shutdownLogging();
+		FileSystemUtils.deleteRecursively(directory);
+	}
+
+	/**
+	 * The cached configuration is replayed as long as the file and its
+	 * includes are unchanged
+	 */
+	@Test
+	public void testCachedConfiguration() throws Exception {
+
+		String location = "file:" + configFile.getAbsolutePath();
+		Logger logger = (Logger) LoggerFactory.getLogger("cached");
+
+		LogbackConfigurer.initLogging(location, cacheDirectory);
+		Assert.assertEquals(Level.INFO, logger.getLevel());
+		Assert.assertEquals("Configuration not cached", 1, cacheDirectory.list().length);
+		int replays = countReplays();
+
+		LogbackConfigurer.initLogging(location, cacheDirectory);
+		Assert.assertEquals("Included configuration not replayed", Level.INFO, logger.getLevel());
+		Assert.assertEquals("Cached configuration not replayed", replays + 1, countReplays());
+
+		writeIncluded(Level.WARN);
+		LogbackConfigurer.initLogging(location, cacheDirectory);
+		Assert.assertEquals("Modified include not parsed", Level.WARN, logger.getLevel());
+		Assert.assertEquals("Stale configuration replayed", replays + 1, countReplays());
+	}
+
+	/**
+	 * Includes referencing variables are left to Joran, so the replayed
+	 * configuration follows the current properties
+	 */
+	@Test
+	public void testIncludeDependingOnProperty() throws Exception {
+
+		File otherIncludedFile = new File(directory, "other.xml");
+		FileCopyUtils.copy("<included><logger name=\"cached\" level=\"ERROR\" /></included>", new FileWriter(otherIncludedFile));
+		FileCopyUtils.copy("<configuration><include file=\"${cache.test.include}\" /></configuration>", new FileWriter(configFile));
+
+		String location = "file:" + configFile.getAbsolutePath();
+		Logger logger = (Logger) LoggerFactory.getLogger("cached");
+
+		try {
+			System.setProperty("cache.test.include", includedFile.getAbsolutePath());
+			LogbackConfigurer.initLogging(location, cacheDirectory);
+			Assert.assertEquals(Level.INFO, logger.getLevel());
+			int replays = countReplays();
+
+			System.setProperty("cache.test.include", otherIncludedFile.getAbsolutePath());
+			LogbackConfigurer.initLogging(location, cacheDirectory);
+			Assert.assertEquals("Stale include replayed", Level.ERROR, logger.getLevel());
+			Assert.assertEquals("Cached configuration not replayed", replays + 1, countReplays());
+
+		} finally {
+			System.clearProperty("cache.test.include");
+		}
+	}
+
+	/**
+	 * The include location must be resolved with the properties of the new
+	 * configuration, not with the ones of the running configuration
+	 */
+	@Test
+	public void testIncludeDependingOnConfigurationProperty() throws Exception {
+
+		FileCopyUtils.copy("<included><logger name=\"cached\" level=\"ERROR\" /></included>", new FileWriter(new File(directory, "prod.xml")));
+		FileCopyUtils.copy("<included><logger name=\"cached\" level=\"DEBUG\" /></included>", new FileWriter(new File(directory, "dev.xml")));
+
+		String location = "file:" + configFile.getAbsolutePath();
+		Logger logger = (Logger) LoggerFactory.getLogger("cached");
+
+		writeConfigurationWithEnv("dev");
+		LogbackConfigurer.initLogging(location, cacheDirectory);
+		Assert.assertEquals(Level.DEBUG, logger.getLevel());
+
+		writeConfigurationWithEnv("prod");
+		LogbackConfigurer.initLogging(location, cacheDirectory);
+		Assert.assertEquals("Include resolved with the previous properties", Level.ERROR, logger.getLevel());
+	}
+
+	private void writeConfigurationWithEnv(String env) throws IOException {
+		FileCopyUtils.copy("<configuration><property scope=\"context\" name=\"env\" value=\"" + env + "\" /><include file=\"" + directory.getAbsolutePath() + "/${env}.xml\" /></configuration>",
+				new FileWriter(configFile));
+	}
+
+	private int countReplays() {
+		int count = 0;
+		LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+		for (Status status : loggerContext.getStatusManager().getCopyOfStatusList()) {
+			if (status.getMessage().startsWith("Replaying cached configuration")) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
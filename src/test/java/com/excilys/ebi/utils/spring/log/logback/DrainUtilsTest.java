@@ -0,0 +1,101 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+
+import com.excilys.ebi.utils.spring.log.logback.async.RingBufferAsyncAppender;
+
+/**
+ * Test for {@link DrainUtils}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class DrainUtilsTest {
+
+	private File logFile;
+
+	@Before
+	public void initLogging() throws Exception {
+		BlockingAppender.latch = new CountDownLatch(1);
+		logFile = File.createTempFile("drain", ".log");
+		System.setProperty("drain.log.file", logFile.getAbsolutePath());
+		LogbackConfigurer.initLogging("classpath:com/excilys/ebi/utils/spring/log/logback/logback-drain.xml");
+	}
+
+	@After
+	public void shutdownLogging() {
+		BlockingAppender.latch.countDown();
+		LogbackConfigurer.drainAndShutdownLogging(0);
+		System.clearProperty("drain.log.file");
+		logFile.delete();
+	}
+
+	@Test
+	public void testFlushBufferedOutputStream() {
+
+		LoggerFactory.getLogger("drain.file").info("buffered message");
+		Assert.assertEquals("Message not buffered", 0, logFile.length());
+
+		Assert.assertEquals(0, DrainUtils.drain((LoggerContext) LoggerFactory.getILoggerFactory(), 1000));
+		Assert.assertTrue("Output stream not flushed", logFile.length() > 0);
+	}
+
+	@Test
+	public void testDroppedEventsReported() {
+
+		LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+		RingBufferAsyncAppender async = (RingBufferAsyncAppender) loggerContext.getLogger("drain.async").getAppender("ASYNC");
+
+		Logger logger = LoggerFactory.getLogger("drain.async");
+		for (int i = 0; i < 10; i++) {
+			logger.info("message {}", i);
+		}
+
+		// the worker is blocked on the first event, so the queue can't be
+		// drained before the deadline
+		long droppedCount = DrainUtils.drain(loggerContext, 50);
+		Assert.assertTrue("Queue drained", async.getQueueSize() > 0);
+		Assert.assertEquals(async.getDroppedCount() + async.getQueueSize(), droppedCount);
+		Assert.assertEquals(9, droppedCount);
+	}
+
+	public static class BlockingAppender extends AppenderBase<ILoggingEvent> {
+
+		static volatile CountDownLatch latch;
+
+		@Override
+		protected void append(ILoggingEvent event) {
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
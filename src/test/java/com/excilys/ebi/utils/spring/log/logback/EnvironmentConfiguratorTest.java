@@ -0,0 +1,105 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.util.FileCopyUtils;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+
+import com.excilys.ebi.utils.spring.log.logback.async.RingBufferAsyncAppender;
+
+/**
+ * Test for {@link EnvironmentConfigurator}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class EnvironmentConfiguratorTest {
+
+	private File logFile;
+
+	private Map<String, Object> properties;
+
+	@Before
+	public void createLogFile() throws IOException {
+		logFile = File.createTempFile("environment", ".log");
+		properties = new HashMap<String, Object>();
+		properties.put("logback.appenders", "file");
+		properties.put("logback.appender.file.type", "file");
+		properties.put("logback.appender.file.file", logFile.getAbsolutePath());
+		properties.put("logback.appender.file.append", "false");
+		properties.put("logback.appender.file.pattern", "%level %logger - %msg%n");
+		properties.put("logback.appender.file.async", "true");
+		properties.put("logback.appender.file.async.bufferSize", "64");
+		properties.put("logback.root.level", "INFO");
+		properties.put("logback.loggers", "env.quiet, env.verbose");
+		properties.put("logback.logger.env.quiet.level", "WARN");
+		properties.put("logback.logger.env.verbose.level", "DEBUG");
+	}
+
+	@After
+	public void deleteLogFile() {
+		logFile.delete();
+	}
+
+	@Test
+	public void testInitialization() throws Exception {
+
+		GenericApplicationContext applicationContext = new GenericApplicationContext();
+		applicationContext.getEnvironment().getPropertySources().addFirst(new MapPropertySource("logging", properties));
+		new LogbackEnvironmentInitializer().initialize(applicationContext);
+
+		LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+		ch.qos.logback.classic.Logger root = loggerContext.getLogger(Logger.ROOT_LOGGER_NAME);
+		Assert.assertEquals(Level.INFO, root.getLevel());
+		Assert.assertTrue(root.getAppender("file") instanceof RingBufferAsyncAppender);
+
+		LoggerFactory.getLogger("env.quiet").info("dropped");
+		LoggerFactory.getLogger("env.quiet").warn("quiet");
+		LoggerFactory.getLogger("env.verbose").debug("verbose");
+		LoggerFactory.getLogger("env.other").debug("dropped");
+		LogbackConfigurer.shutdownLogging();
+
+		String separator = System.getProperty("line.separator");
+		Assert.assertEquals("WARN env.quiet - quiet" + separator + "DEBUG env.verbose - verbose" + separator, FileCopyUtils.copyToString(new FileReader(logFile)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsupportedType() {
+
+		properties.put("logback.appender.file.type", "socket");
+		StandardEnvironment environment = new StandardEnvironment();
+		environment.getPropertySources().addFirst(new MapPropertySource("logging", properties));
+
+		LoggerContext loggerContext = new LoggerContext();
+		new EnvironmentConfigurator(environment, loggerContext).configure();
+	}
+}
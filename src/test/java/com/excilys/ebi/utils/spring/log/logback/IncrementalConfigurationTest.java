@@ -0,0 +1,82 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+
+/**
+ * Test for {@link LogbackConfigurer#reconfigureLogging(String)}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class IncrementalConfigurationTest {
+
+	@After
+	public void shutDownLogback() {
+		LogbackConfigurer.shutdownLogging();
+	}
+
+	/**
+	 * Unchanged appenders must be kept open, while levels, additivity and
+	 * appender references are updated
+	 */
+	@Test
+	public void testIncrementalReconfiguration() throws Exception {
+
+		LogbackConfigurer.initLogging("classpath:com/excilys/ebi/utils/spring/log/logback/logback-incremental-1.xml");
+
+		Logger logger = (Logger) LoggerFactory.getLogger("incremental");
+		Logger root = (Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+		Appender<ILoggingEvent> kept = logger.getAppender("KEPT");
+		Appender<ILoggingEvent> removed = logger.getAppender("REMOVED");
+		Assert.assertEquals(Level.INFO, logger.getLevel());
+		Assert.assertFalse(logger.isAdditive());
+
+		LogbackConfigurer.reconfigureLogging("classpath:com/excilys/ebi/utils/spring/log/logback/logback-incremental-2.xml");
+
+		Assert.assertEquals("Level not updated", Level.DEBUG, logger.getLevel());
+		Assert.assertTrue("Additivity not updated", logger.isAdditive());
+		Assert.assertSame("Unchanged appender replaced", kept, logger.getAppender("KEPT"));
+		Assert.assertSame("Unchanged appender replaced on root", kept, root.getAppender("KEPT"));
+		Assert.assertTrue("Unchanged appender stopped", kept.isStarted());
+		Assert.assertNull("Removed appender still attached", logger.getAppender("REMOVED"));
+		Assert.assertFalse("Removed appender not stopped", removed.isStarted());
+		Assert.assertNotNull("Added appender not attached", logger.getAppender("ADDED"));
+		Assert.assertTrue("Added appender not started", logger.getAppender("ADDED").isStarted());
+	}
+
+	/**
+	 * A context that wasn't configured by LogbackConfigurer is fully reset
+	 */
+	@Test
+	public void testFallbackToFullConfiguration() throws Exception {
+
+		LogbackConfigurer.shutdownLogging();
+		LogbackConfigurer.reconfigureLogging("classpath:com/excilys/ebi/utils/spring/log/logback/logback-incremental-2.xml");
+
+		Logger logger = (Logger) LoggerFactory.getLogger("incremental");
+		Assert.assertEquals(Level.DEBUG, logger.getLevel());
+		Assert.assertNotNull(logger.getAppender("ADDED"));
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.status.Status;
+
+/**
+ * Test for {@link JmxUtils}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class JmxUtilsTest {
+
+	public interface DummyMBean {
+	}
+
+	public static class Dummy implements DummyMBean {
+	}
+
+	@Test
+	public void testContextsWithTheSameName() throws Exception {
+
+		LoggerContext first = new LoggerContext();
+		first.setName("default");
+		LoggerContext second = new LoggerContext();
+		second.setName("default");
+
+		ObjectName firstName = JmxUtils.objectName("Dummy", first, null);
+		ObjectName secondName = JmxUtils.objectName("Dummy", second, null);
+		Assert.assertFalse("ObjectNames not unique per context", firstName.equals(secondName));
+
+		Dummy firstMBean = new Dummy();
+		try {
+			Assert.assertTrue(JmxUtils.registerMBean(firstMBean, firstName, first));
+			Assert.assertTrue(JmxUtils.registerMBean(new Dummy(), secondName, second));
+
+		} finally {
+			JmxUtils.unregisterMBean(firstName, first);
+			JmxUtils.unregisterMBean(secondName, second);
+		}
+	}
+
+	@Test
+	public void testCollisionKeepsRegisteredMBean() throws Exception {
+
+		LoggerContext loggerContext = new LoggerContext();
+		loggerContext.setName("default");
+		ObjectName name = JmxUtils.objectName("Dummy", loggerContext, "collision");
+
+		try {
+			Assert.assertTrue(JmxUtils.registerMBean(new Dummy(), name, loggerContext));
+			Assert.assertFalse("Registered MBean replaced", JmxUtils.registerMBean(new Dummy(), name, loggerContext));
+			Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+			Assert.assertEquals(Status.WARN, loggerContext.getStatusManager().getCopyOfStatusList().get(0).getLevel());
+
+		} finally {
+			JmxUtils.unregisterMBean(name, loggerContext);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+
+import com.excilys.ebi.utils.spring.log.logback.turbo.NeutralTurboFilter;
+
+/**
+ * Test for {@link LevelCachingLogger}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class LevelCachingLoggerTest {
+
+	private final LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+
+	@After
+	public void resetLevels() {
+		loggerContext.resetTurboFilterList();
+		loggerContext.getLogger("levelcaching").setLevel(null);
+		loggerContext.getLogger("levelcaching.child").setLevel(null);
+	}
+
+	@Test
+	public void testLevelChange() {
+
+		org.slf4j.Logger logger = LevelCachingLogger.wrap(LoggerFactory.getLogger("levelcaching.child"));
+		Assert.assertSame("wrapper not shared", logger, LevelCachingLogger.wrap(LoggerFactory.getLogger("levelcaching.child")));
+
+		loggerContext.getLogger("levelcaching").setLevel(Level.WARN);
+		Assert.assertFalse(logger.isInfoEnabled());
+		Assert.assertTrue(logger.isWarnEnabled());
+
+		loggerContext.getLogger("levelcaching").setLevel(Level.TRACE);
+		Assert.assertTrue("parent level change not applied", logger.isTraceEnabled());
+
+		loggerContext.getLogger("levelcaching.child").setLevel(Level.ERROR);
+		Assert.assertFalse(logger.isWarnEnabled());
+		Assert.assertTrue(logger.isErrorEnabled());
+	}
+
+	@Test
+	public void testTurboFilter() {
+
+		org.slf4j.Logger logger = LevelCachingLogger.wrap(LoggerFactory.getLogger("levelcaching.child"));
+		loggerContext.getLogger("levelcaching").setLevel(Level.WARN);
+		Assert.assertFalse(logger.isDebugEnabled());
+
+		TurboFilter acceptAll = new TurboFilter() {
+			@Override
+			public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+				return FilterReply.ACCEPT;
+			}
+		};
+		acceptAll.start();
+		loggerContext.addTurboFilter(acceptAll);
+
+		Assert.assertTrue("TurboFilter ignored", logger.isDebugEnabled());
+	}
+
+	@Test
+	public void testCacheWithManagement() throws Exception {
+
+		LogbackConfigurer.initLogging("classpath:com/excilys/ebi/utils/spring/log/logback/logback-test.xml");
+		Assert.assertFalse("metrics not installed", loggerContext.getTurboFilterList().isEmpty());
+
+		final AtomicInteger decisions = new AtomicInteger();
+		TurboFilter neutral = new CountingNeutralTurboFilter(decisions);
+		neutral.start();
+		loggerContext.addTurboFilter(neutral);
+
+		try {
+			LevelCachingLogger logger = (LevelCachingLogger) LevelCachingLogger.wrap(LoggerFactory.getLogger("levelcaching.child"));
+			loggerContext.getLogger("levelcaching").setLevel(Level.WARN);
+
+			Assert.assertFalse("neutral TurboFilters not ignored", logger.hasDecisiveTurboFilters());
+			Assert.assertFalse(logger.isDebugEnabled());
+			Assert.assertTrue(logger.isWarnEnabled());
+			Assert.assertEquals("level checks not served by the cache", 0, decisions.get());
+
+			TurboFilter denyAll = new TurboFilter() {
+				@Override
+				public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+					return FilterReply.DENY;
+				}
+			};
+			denyAll.start();
+			loggerContext.addTurboFilter(denyAll);
+			Assert.assertTrue("added TurboFilter not seen", logger.hasDecisiveTurboFilters());
+			Assert.assertFalse(logger.isWarnEnabled());
+
+		} finally {
+			// reset the context, dropping the level change propagator
+			LogbackConfigurer.shutdownLogging();
+		}
+	}
+
+	private static final class CountingNeutralTurboFilter extends TurboFilter implements NeutralTurboFilter {
+
+		private final AtomicInteger decisions;
+
+		private CountingNeutralTurboFilter(AtomicInteger decisions) {
+			this.decisions = decisions;
+		}
+
+		@Override
+		public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+			decisions.incrementAndGet();
+			return FilterReply.NEUTRAL;
+		}
+	}
+}
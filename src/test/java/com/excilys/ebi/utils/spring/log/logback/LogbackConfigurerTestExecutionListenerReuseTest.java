@@ -0,0 +1,99 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.context.TestContextManager;
+import org.springframework.test.context.TestExecutionListeners;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+
+import com.excilys.ebi.utils.spring.log.logback.test.Logback;
+import com.excilys.ebi.utils.spring.log.logback.test.LogbackConfigurerTestExecutionListener;
+
+/**
+ * Test for {@link LogbackConfigurerTestExecutionListener} reusing the
+ * configured context across test classes
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class LogbackConfigurerTestExecutionListenerReuseTest {
+
+	@TestExecutionListeners(LogbackConfigurerTestExecutionListener.class)
+	@Logback
+	public static class FirstTestClass {
+	}
+
+	@TestExecutionListeners(LogbackConfigurerTestExecutionListener.class)
+	@Logback("logback-test.xml")
+	public static class SameLocationTestClass {
+	}
+
+	@TestExecutionListeners(LogbackConfigurerTestExecutionListener.class)
+	@Logback("logback-incremental-1.xml")
+	public static class OtherLocationTestClass {
+	}
+
+	@After
+	public void shutdownLogging() {
+		LogbackConfigurer.shutdownLogging();
+	}
+
+	@Test
+	public void testContextReusedWhileLocationUnchanged() throws Exception {
+
+		runTestClass(FirstTestClass.class);
+		Appender<ILoggingEvent> console = getRootLogger().getAppender("CONSOLE");
+		Assert.assertNotNull(console);
+
+		runTestClass(SameLocationTestClass.class);
+		Assert.assertSame("Context was configured again", console, getRootLogger().getAppender("CONSOLE"));
+		Assert.assertTrue("Context was shut down", console.isStarted());
+
+		runTestClass(OtherLocationTestClass.class);
+		Assert.assertNull("Context wasn't configured again", getRootLogger().getAppender("CONSOLE"));
+		Assert.assertNotNull(getRootLogger().getAppender("KEPT"));
+	}
+
+	@Test
+	public void testContextConfiguredAgainAfterReset() throws Exception {
+
+		runTestClass(FirstTestClass.class);
+		Appender<ILoggingEvent> console = getRootLogger().getAppender("CONSOLE");
+
+		LogbackConfigurer.shutdownLogging();
+
+		runTestClass(SameLocationTestClass.class);
+		Assert.assertNotNull(getRootLogger().getAppender("CONSOLE"));
+		Assert.assertNotSame(console, getRootLogger().getAppender("CONSOLE"));
+	}
+
+	private void runTestClass(Class<?> testClass) throws Exception {
+		TestContextManager testContextManager = new TestContextManager(testClass);
+		testContextManager.beforeTestClass();
+		testContextManager.afterTestClass();
+	}
+
+	private Logger getRootLogger() {
+		return ((LoggerContext) LoggerFactory.getILoggerFactory()).getLogger(Logger.ROOT_LOGGER_NAME);
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.status.Status;
+
+import com.excilys.ebi.utils.spring.log.logback.test.LogbackTestContextSelector;
+
+/**
+ * Test for {@link LogbackTestContextSelector}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class LogbackTestContextSelectorTest {
+
+	@Test
+	public void testContextPerLocationAndThread() throws Exception {
+
+		LoggerContext defaultLoggerContext = new LoggerContext();
+		defaultLoggerContext.setName("default");
+		final LogbackTestContextSelector selector = new LogbackTestContextSelector(defaultLoggerContext);
+		Assert.assertSame(defaultLoggerContext, selector.getLoggerContext());
+
+		LoggerContext first = selector.bind("classpath:first.xml");
+		Assert.assertNotSame(defaultLoggerContext, first);
+		Assert.assertSame(first, selector.getLoggerContext());
+
+		final AtomicReference<LoggerContext> inherited = new AtomicReference<LoggerContext>();
+		final AtomicReference<LoggerContext> second = new AtomicReference<LoggerContext>();
+		final AtomicReference<LoggerContext> shared = new AtomicReference<LoggerContext>();
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				inherited.set(selector.getLoggerContext());
+				second.set(selector.bind("classpath:second.xml"));
+				shared.set(selector.bind("classpath:first.xml"));
+			}
+		};
+		thread.start();
+		thread.join();
+
+		Assert.assertSame("Binding not inherited by child thread", first, inherited.get());
+		Assert.assertNotSame(first, second.get());
+		Assert.assertSame("Same location should share the context", first, shared.get());
+		Assert.assertSame("Other thread changed the binding", first, selector.getLoggerContext());
+
+		Assert.assertSame(first, selector.detachLoggerContext(first.getName()));
+		Assert.assertSame(defaultLoggerContext, selector.getLoggerContext());
+		Assert.assertNotSame(first, selector.bind("classpath:first.xml"));
+
+		selector.unbind();
+		Assert.assertSame(defaultLoggerContext, selector.getLoggerContext());
+		Assert.assertEquals(2, selector.detachLoggerContexts().size());
+	}
+
+	@Test
+	public void testExecutorStartedBeforeBinding() throws Exception {
+
+		LoggerContext defaultLoggerContext = new LoggerContext();
+		defaultLoggerContext.setName("default");
+		final LogbackTestContextSelector selector = new LogbackTestContextSelector(defaultLoggerContext);
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			// start the pooled thread before binding
+			executor.submit(new Runnable() {
+				public void run() {
+				}
+			}).get();
+
+			LoggerContext bound = selector.bind("classpath:first.xml");
+			Callable<LoggerContext> task = new Callable<LoggerContext>() {
+				public LoggerContext call() {
+					return selector.getLoggerContext();
+				}
+			};
+			Assert.assertSame("Binding inherited by a pooled thread", defaultLoggerContext, executor.submit(task).get());
+			List<Status> statuses = defaultLoggerContext.getStatusManager().getCopyOfStatusList();
+			Assert.assertEquals("Fallback not reported", 1, statuses.size());
+			Assert.assertEquals(Status.WARN, statuses.get(0).getLevel());
+
+			// as the listener does before each test method
+			Assert.assertSame(bound, executor.submit(new Callable<LoggerContext>() {
+				public LoggerContext call() {
+					LoggerContext previousBinding = selector.getBoundLoggerContext();
+					selector.bind("classpath:first.xml");
+					try {
+						return selector.getLoggerContext();
+					} finally {
+						selector.setBoundLoggerContext(previousBinding);
+					}
+				}
+			}).get());
+			Assert.assertSame("Binding not restored", defaultLoggerContext, executor.submit(task).get());
+
+		} finally {
+			executor.shutdown();
+			selector.detachLoggerContexts();
+		}
+	}
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.async;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.read.ListAppender;
+
+import com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer;
+
+/**
+ * Test for {@link RingBufferAsyncAppender}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class RingBufferAsyncAppenderTest {
+
+	private static final int THREADS = 4;
+
+	private static final int EVENTS_PER_THREAD = 1000;
+
+	/**
+	 * Events logged by concurrent threads through a buffer much smaller than
+	 * the burst must all be dispatched once logging is shut down
+	 */
+	@Test
+	public void testAllEventsDispatchedOnShutdown() throws Exception {
+
+		LogbackConfigurer.initLogging("classpath:com/excilys/ebi/utils/spring/log/logback/async/logback-async.xml");
+
+		final Logger logger = (Logger) LoggerFactory.getLogger(RingBufferAsyncAppenderTest.class);
+		Logger packageLogger = (Logger) LoggerFactory.getLogger(RingBufferAsyncAppenderTest.class.getPackage().getName());
+		RingBufferAsyncAppender async = (RingBufferAsyncAppender) packageLogger.getAppender("ASYNC");
+		@SuppressWarnings("unchecked")
+		ListAppender<ILoggingEvent> list = (ListAppender<ILoggingEvent>) async.getAppender("LIST");
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < THREADS; i++) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < EVENTS_PER_THREAD; j++) {
+						logger.info("event {}", j);
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		LogbackConfigurer.shutdownLogging();
+
+		Assert.assertFalse("Async appender not stopped", async.isStarted());
+		Assert.assertEquals("Events dropped", 0, async.getDroppedCount());
+		Assert.assertEquals("Events not dispatched", THREADS * EVENTS_PER_THREAD, list.list.size());
+	}
+
+	/**
+	 * Events overflowing a tiny buffer must be spilled instead of blocking,
+	 * and dispatched in order on shutdown
+	 */
+	@Test
+	public void testSpill() throws Exception {
+
+		File spillFile = File.createTempFile("spill", ".bin");
+		System.setProperty("spill.file", spillFile.getAbsolutePath());
+		GateAppender.latch = new CountDownLatch(1);
+		GateAppender.messages.clear();
+		try {
+			LogbackConfigurer.initLogging("classpath:com/excilys/ebi/utils/spring/log/logback/async/logback-spill.xml");
+
+			Logger direct = (Logger) LoggerFactory.getLogger("spill.direct");
+			Logger mapped = (Logger) LoggerFactory.getLogger("spill.mapped");
+			RingBufferAsyncAppender directAsync = (RingBufferAsyncAppender) direct.getAppender("DIRECT");
+			RingBufferAsyncAppender mappedAsync = (RingBufferAsyncAppender) mapped.getAppender("MAPPED");
+
+			// the worker is stuck on the first event, so the logging thread
+			// would block without spilling
+			for (int i = 0; i < EVENTS_PER_THREAD; i++) {
+				direct.info("direct {}", i);
+			}
+			for (int i = 0; i < EVENTS_PER_THREAD; i++) {
+				mapped.info("mapped {}", i);
+			}
+			Assert.assertTrue("Events not spilled", directAsync.getQueueSize() > directAsync.getBufferSize());
+			// 64KB don't fit all the events
+			Assert.assertTrue("Events not dropped", mappedAsync.getDroppedCount() > 0);
+
+			GateAppender.latch.countDown();
+			LogbackConfigurer.shutdownLogging();
+
+			Assert.assertEquals("Events dropped", 0, directAsync.getDroppedCount());
+			assertDispatchedInOrder("direct", EVENTS_PER_THREAD);
+			// the mapped events that fit are dispatched in order too
+			assertDispatchedInOrder("mapped", EVENTS_PER_THREAD - (int) mappedAsync.getDroppedCount());
+			Assert.assertFalse("Spill file not deleted", spillFile.exists());
+
+		} finally {
+			System.clearProperty("spill.file");
+			spillFile.delete();
+		}
+	}
+
+	/**
+	 * When the max flush time is exceeded, the attached appenders must not be
+	 * stopped while the worker is still dispatching to them
+	 */
+	@Test
+	public void testStopWaitsForWorker() throws Exception {
+
+		LoggerContext loggerContext = new LoggerContext();
+		StuckAppender stuck = new StuckAppender();
+		stuck.setContext(loggerContext);
+		stuck.start();
+
+		RingBufferAsyncAppender async = new RingBufferAsyncAppender();
+		async.setContext(loggerContext);
+		async.setName("STUCK");
+		async.setMaxFlushTime(50);
+		async.addAppender(stuck);
+		async.start();
+
+		Logger logger = loggerContext.getLogger("stuck");
+		logger.addAppender(async);
+		logger.info("stuck");
+		Assert.assertTrue("Event not dispatched", stuck.entered.await(5, TimeUnit.SECONDS));
+
+		async.stop();
+		Assert.assertTrue("Attached appender stopped while appending", stuck.isStarted());
+
+		stuck.released.countDown();
+		for (int i = 0; i < 500 && stuck.isStarted(); i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertFalse("Attached appender not stopped by the worker", stuck.isStarted());
+		Assert.assertFalse("Attached appender stopped while appending", stuck.stoppedWhileAppending);
+	}
+
+	/**
+	 * An event offered by a producer that passed the started check after the
+	 * worker exited must be counted as dropped
+	 */
+	@Test
+	public void testLateEventCounted() throws Exception {
+
+		LoggerContext loggerContext = new LoggerContext();
+		ListAppender<ILoggingEvent> list = new ListAppender<ILoggingEvent>();
+		list.setContext(loggerContext);
+		list.start();
+
+		RingBufferAsyncAppender async = new RingBufferAsyncAppender();
+		async.setContext(loggerContext);
+		async.setName("LATE");
+		async.addAppender(list);
+		async.start();
+		async.stop();
+		Assert.assertEquals(0, async.getDroppedCount());
+
+		async.append(new LoggingEvent(Logger.class.getName(), loggerContext.getLogger("late"), Level.INFO, "late", null, null));
+		Assert.assertEquals("Late event not counted", 1, async.getDroppedCount());
+		Assert.assertEquals("Late event left in the buffer", 0, async.getQueueSize());
+	}
+
+	private void assertDispatchedInOrder(String prefix, int count) {
+		int i = 0;
+		for (String message : GateAppender.messages) {
+			if (message.startsWith(prefix)) {
+				Assert.assertEquals(prefix + " " + i++, message);
+			}
+		}
+		Assert.assertEquals("Events not dispatched", count, i);
+	}
+
+	public static class GateAppender extends AppenderBase<ILoggingEvent> {
+
+		static volatile CountDownLatch latch;
+
+		static final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+
+		@Override
+		protected void append(ILoggingEvent event) {
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			messages.add(event.getFormattedMessage());
+		}
+	}
+
+	private static class StuckAppender extends AppenderBase<ILoggingEvent> {
+
+		private final CountDownLatch entered = new CountDownLatch(1);
+
+		private final CountDownLatch released = new CountDownLatch(1);
+
+		private volatile boolean stoppedWhileAppending;
+
+		@Override
+		protected void append(ILoggingEvent event) {
+			entered.countDown();
+			// ignore the interrupts, like a blocking write would
+			boolean interrupted = false;
+			while (released.getCount() > 0) {
+				try {
+					released.await();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			stoppedWhileAppending = !isStarted();
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.async;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.MDC;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+/**
+ * Test for {@link SpillCodec}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class SpillCodecTest {
+
+	@After
+	public void clearMdc() {
+		MDC.clear();
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+
+		LoggerContext loggerContext = new LoggerContext();
+		Logger logger = loggerContext.getLogger("spill.codec");
+
+		Marker marker = MarkerFactory.getDetachedMarker("PARENT");
+		marker.add(MarkerFactory.getDetachedMarker("CHILD"));
+		MDC.put("user", "hélène 中文 😀");
+
+		IllegalStateException cause = new IllegalStateException("cause");
+		LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, Level.WARN, "event {} of {}", new RuntimeException("failure", cause), new Object[] { 1, null });
+		event.setMarker(marker);
+		event.getCallerData();
+		event.prepareForDeferredProcessing();
+
+		SpillCodec.Writer writer = new SpillCodec.Writer();
+		SpillCodec.Reader reader = new SpillCodec.Reader();
+		int length = writer.encode(event);
+		System.arraycopy(writer.buffer(), 0, reader.buffer(length), 0, length);
+		ILoggingEvent decoded = reader.decode(event.getLoggerContextVO());
+
+		Assert.assertEquals(event.getTimeStamp(), decoded.getTimeStamp());
+		Assert.assertEquals(Level.WARN, decoded.getLevel());
+		Assert.assertEquals(event.getThreadName(), decoded.getThreadName());
+		Assert.assertEquals("spill.codec", decoded.getLoggerName());
+		Assert.assertEquals("event {} of {}", decoded.getMessage());
+		Assert.assertEquals("event 1 of null", decoded.getFormattedMessage());
+		Assert.assertSame(event.getLoggerContextVO(), decoded.getLoggerContextVO());
+
+		Assert.assertEquals("PARENT", decoded.getMarker().getName());
+		Assert.assertTrue(decoded.getMarker().contains("CHILD"));
+
+		Assert.assertEquals(event.getMDCPropertyMap(), decoded.getMDCPropertyMap());
+
+		IThrowableProxy throwableProxy = decoded.getThrowableProxy();
+		Assert.assertEquals(RuntimeException.class.getName(), throwableProxy.getClassName());
+		Assert.assertEquals("failure", throwableProxy.getMessage());
+		assertSameFrame(event.getThrowableProxy().getStackTraceElementProxyArray()[0].getStackTraceElement(), throwableProxy.getStackTraceElementProxyArray()[0].getStackTraceElement());
+		Assert.assertEquals("cause", throwableProxy.getCause().getMessage());
+		Assert.assertEquals(event.getThrowableProxy().getCause().getCommonFrames(), throwableProxy.getCause().getCommonFrames());
+
+		Assert.assertTrue(decoded.hasCallerData());
+		Assert.assertEquals(event.getCallerData().length, decoded.getCallerData().length);
+	}
+
+	@Test
+	public void testBuffersReused() throws Exception {
+
+		LoggerContext loggerContext = new LoggerContext();
+		Logger logger = loggerContext.getLogger("spill.codec");
+		SpillCodec.Writer writer = new SpillCodec.Writer();
+
+		writer.encode(new LoggingEvent(Logger.class.getName(), logger, Level.INFO, "small", null, null));
+		byte[] buffer = writer.buffer();
+		writer.encode(new LoggingEvent(Logger.class.getName(), logger, Level.INFO, "small again", null, null));
+		Assert.assertSame("Buffer not reused", buffer, writer.buffer());
+
+		char[] large = new char[100 * 1024];
+		Arrays.fill(large, 'x');
+		writer.encode(new LoggingEvent(Logger.class.getName(), logger, Level.INFO, new String(large), null, null));
+		writer.encode(new LoggingEvent(Logger.class.getName(), logger, Level.INFO, "small", null, null));
+		Assert.assertTrue("Buffer not shrunk", writer.buffer().length < large.length);
+	}
+
+	private void assertSameFrame(StackTraceElement expected, StackTraceElement actual) {
+		Assert.assertEquals(expected.getClassName(), actual.getClassName());
+		Assert.assertEquals(expected.getMethodName(), actual.getMethodName());
+		Assert.assertEquals(expected.getFileName(), actual.getFileName());
+		Assert.assertEquals(expected.getLineNumber(), actual.getLineNumber());
+	}
+}
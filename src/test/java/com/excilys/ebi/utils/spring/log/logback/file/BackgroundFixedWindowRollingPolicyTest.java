@@ -0,0 +1,125 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.FileSystemUtils;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.rolling.RollingFileAppender;
+
+import com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer;
+
+/**
+ * Test for {@link BackgroundFixedWindowRollingPolicy} and
+ * {@link RolloverCoordinator}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class BackgroundFixedWindowRollingPolicyTest {
+
+	private File directory;
+
+	@Before
+	public void initLogging() throws Exception {
+		directory = File.createTempFile("rollover", "");
+		directory.delete();
+		directory.mkdirs();
+		System.setProperty("rollover.log.dir", directory.getAbsolutePath());
+		LogbackConfigurer.initLogging("classpath:com/excilys/ebi/utils/spring/log/logback/file/logback-rollover.xml");
+	}
+
+	@After
+	public void deleteLogFiles() {
+		System.clearProperty("rollover.log.dir");
+		FileSystemUtils.deleteRecursively(directory);
+	}
+
+	@Test
+	public void testArchivesCompressedInBackground() throws Exception {
+
+		LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+		RolloverCoordinator coordinator = RolloverCoordinator.getInstance(loggerContext);
+		Assert.assertEquals("Configured coordinator not installed", 2, coordinator.getThreadPriority());
+
+		Logger logger = LoggerFactory.getLogger("rollover");
+		for (int i = 0; i < 500; i++) {
+			logger.info("a message long enough to trigger a few rollovers {}", i);
+		}
+
+		@SuppressWarnings("unchecked")
+		RollingFileAppender<ILoggingEvent> appender = (RollingFileAppender<ILoggingEvent>) loggerContext.getLogger("rollover").getAppender("ROLLING");
+		((BackgroundFixedWindowRollingPolicy) appender.getRollingPolicy()).awaitCompression();
+		LogbackConfigurer.shutdownLogging();
+		Assert.assertFalse("Coordinator not stopped", coordinator.isStarted());
+
+		for (int i = 1; i <= 3; i++) {
+			String archive = gunzip(new File(directory, "app." + i + ".log.gz"));
+			Assert.assertTrue(archive.startsWith("INFO rollover - a message"));
+		}
+		Assert.assertFalse("Window exceeded", new File(directory, "app.4.log.gz").exists());
+		Assert.assertFalse("Rolled file not compressed", new File(directory, "app.log" + BackgroundFixedWindowRollingPolicy.ROLLED_SUFFIX).exists());
+		Assert.assertTrue(read(new File(directory, "app.log")).contains("499"));
+	}
+
+	/**
+	 * Rolled files left by a previous run must be compressed on start, oldest
+	 * first
+	 */
+	@Test
+	public void testLeftoverRolledFilesCompressed() throws Exception {
+
+		LogbackConfigurer.shutdownLogging();
+		FileCopyUtils.copy("legacy".getBytes("UTF-8"), new File(directory, "app.log" + BackgroundFixedWindowRollingPolicy.ROLLED_SUFFIX));
+		FileCopyUtils.copy("older".getBytes("UTF-8"), new File(directory, "app.log.5" + BackgroundFixedWindowRollingPolicy.ROLLED_SUFFIX));
+		FileCopyUtils.copy("newer".getBytes("UTF-8"), new File(directory, "app.log.12" + BackgroundFixedWindowRollingPolicy.ROLLED_SUFFIX));
+
+		LogbackConfigurer.initLogging("classpath:com/excilys/ebi/utils/spring/log/logback/file/logback-rollover.xml");
+		LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+		@SuppressWarnings("unchecked")
+		RollingFileAppender<ILoggingEvent> appender = (RollingFileAppender<ILoggingEvent>) loggerContext.getLogger("rollover").getAppender("ROLLING");
+		((BackgroundFixedWindowRollingPolicy) appender.getRollingPolicy()).awaitCompression();
+		LogbackConfigurer.shutdownLogging();
+
+		Assert.assertEquals("newer", gunzip(new File(directory, "app.1.log.gz")));
+		Assert.assertEquals("older", gunzip(new File(directory, "app.2.log.gz")));
+		Assert.assertEquals("legacy", gunzip(new File(directory, "app.3.log.gz")));
+		for (String name : directory.list()) {
+			Assert.assertFalse("Rolled file not compressed: " + name, name.endsWith(BackgroundFixedWindowRollingPolicy.ROLLED_SUFFIX));
+		}
+	}
+
+	private String gunzip(File file) throws IOException {
+		return FileCopyUtils.copyToString(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), "UTF-8"));
+	}
+
+	private String read(File file) throws IOException {
+		return new String(FileCopyUtils.copyToByteArray(file), "UTF-8");
+	}
+}
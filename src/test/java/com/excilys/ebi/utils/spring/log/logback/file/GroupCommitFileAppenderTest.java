@@ -0,0 +1,226 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.FileCopyUtils;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.encoder.EncoderBase;
+
+import com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer;
+
+/**
+ * Test for {@link GroupCommitFileAppender}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class GroupCommitFileAppenderTest {
+
+	private static final int THREADS = 8;
+
+	private static final int EVENTS_PER_THREAD = 200;
+
+	private final Logger logger = LoggerFactory.getLogger("groupcommit");
+
+	private File logFile;
+
+	private GroupCommitFileAppender appender;
+
+	@Before
+	public void initLogging() throws Exception {
+		logFile = File.createTempFile("groupcommit", ".log");
+		System.setProperty("groupcommit.log.file", logFile.getAbsolutePath());
+		LogbackConfigurer.initLogging("classpath:com/excilys/ebi/utils/spring/log/logback/file/logback-groupcommit.xml");
+		LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+		appender = (GroupCommitFileAppender) loggerContext.getLogger("groupcommit").getAppender("GROUP_COMMIT");
+	}
+
+	@After
+	public void deleteLogFile() {
+		System.clearProperty("groupcommit.log.file");
+		logFile.delete();
+	}
+
+	@Test
+	public void testDurableEventWrittenWhenLoggingReturns() throws Exception {
+
+		logger.info("durable message");
+
+		Assert.assertEquals("INFO groupcommit - durable message" + System.getProperty("line.separator"), read(logFile));
+		Assert.assertEquals(1, appender.getCommitCount());
+
+		LogbackConfigurer.shutdownLogging();
+	}
+
+	@Test
+	public void testConcurrentEventsCommittedInGroups() throws Exception {
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < THREADS; i++) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < EVENTS_PER_THREAD; j++) {
+						logger.info("event {}", j);
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		long commitCount = appender.getCommitCount();
+		Assert.assertEquals(0, LogbackConfigurer.drainAndShutdownLogging(LogbackConfigurer.getShutdownTimeout()));
+
+		Assert.assertEquals(0, appender.getLatencyExceededCount());
+		Assert.assertEquals(THREADS * EVENTS_PER_THREAD, read(logFile).split(System.getProperty("line.separator")).length);
+		Assert.assertTrue("Events not grouped: " + commitCount + " commits", commitCount < THREADS * EVENTS_PER_THREAD);
+	}
+
+	/**
+	 * A durable logging call whose commit failed must not be taken as
+	 * committed
+	 */
+	@Test
+	public void testFailedCommit() throws Exception {
+
+		LogbackConfigurer.shutdownLogging();
+		TestEncoder encoder = new TestEncoder();
+		GroupCommitFileAppender failing = newAppender(encoder);
+		failing.setDurable(true);
+		failing.start();
+
+		ch.qos.logback.classic.Logger logger = newLogger(failing);
+		logger.info("fail");
+		logger.info("ok");
+		failing.stop();
+
+		Assert.assertEquals(1, failing.getDroppedCount());
+		Assert.assertEquals(1, failing.getUncommittedCount());
+		Assert.assertEquals(1, failing.getCommitCount());
+		Assert.assertEquals("ok", read(logFile));
+	}
+
+	/**
+	 * When the max flush time is exceeded, the file must not be closed while
+	 * the writer is still committing
+	 */
+	@Test
+	public void testStopWaitsForWriter() throws Exception {
+
+		LogbackConfigurer.shutdownLogging();
+		TestEncoder encoder = new TestEncoder();
+		GroupCommitFileAppender slow = newAppender(encoder);
+		slow.setMaxFlushTime(50);
+		slow.start();
+
+		ch.qos.logback.classic.Logger logger = newLogger(slow);
+		logger.info("slow");
+		Assert.assertTrue("Event not committed", encoder.entered.await(5, TimeUnit.SECONDS));
+		logger.info("queued");
+
+		slow.stop();
+		Assert.assertFalse("File closed while committing", encoder.closed);
+
+		encoder.released.countDown();
+		for (int i = 0; i < 500 && !encoder.closed; i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertTrue("File not closed by the writer", encoder.closed);
+		Assert.assertFalse("File closed while committing", encoder.closedWhileEncoding);
+		Assert.assertEquals(1, slow.getDroppedCount());
+		Assert.assertEquals("slow", read(logFile));
+	}
+
+	private GroupCommitFileAppender newAppender(TestEncoder encoder) {
+		LoggerContext loggerContext = new LoggerContext();
+		encoder.setContext(loggerContext);
+		GroupCommitFileAppender appender = new GroupCommitFileAppender();
+		appender.setContext(loggerContext);
+		appender.setName("TEST");
+		appender.setFile(logFile.getAbsolutePath());
+		appender.setAppend(false);
+		appender.setEncoder(encoder);
+		return appender;
+	}
+
+	private ch.qos.logback.classic.Logger newLogger(GroupCommitFileAppender appender) {
+		ch.qos.logback.classic.Logger logger = ((LoggerContext) appender.getContext()).getLogger("test");
+		logger.addAppender(appender);
+		return logger;
+	}
+
+	private String read(File file) throws IOException {
+		return new String(FileCopyUtils.copyToByteArray(file), "UTF-8");
+	}
+
+	/**
+	 * Encoder failing on the "fail" messages, and blocking on the "slow" ones
+	 * until released
+	 */
+	private static class TestEncoder extends EncoderBase<ILoggingEvent> {
+
+		private final CountDownLatch entered = new CountDownLatch(1);
+
+		private final CountDownLatch released = new CountDownLatch(1);
+
+		private volatile boolean encoding;
+
+		private volatile boolean closed;
+
+		private volatile boolean closedWhileEncoding;
+
+		public void doEncode(ILoggingEvent event) throws IOException {
+			String message = event.getFormattedMessage();
+			if ("fail".equals(message)) {
+				throw new IOException("failing on purpose");
+			}
+			encoding = true;
+			if ("slow".equals(message)) {
+				entered.countDown();
+				try {
+					released.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			outputStream.write(message.getBytes("UTF-8"));
+			encoding = false;
+		}
+
+		public void close() throws IOException {
+			closedWhileEncoding = encoding;
+			closed = true;
+		}
+	}
+}
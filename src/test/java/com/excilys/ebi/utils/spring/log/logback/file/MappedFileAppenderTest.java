@@ -0,0 +1,115 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.FileCopyUtils;
+
+import com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer;
+
+/**
+ * Test for {@link MappedFileAppender}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class MappedFileAppenderTest {
+
+	private static final String LOCATION = "classpath:com/excilys/ebi/utils/spring/log/logback/file/logback-mapped.xml";
+
+	private final Logger logger = LoggerFactory.getLogger("mapped");
+
+	private File logFile;
+
+	@Before
+	public void createLogFile() throws IOException {
+		logFile = File.createTempFile("mapped", ".log");
+		System.setProperty("mapped.log.file", logFile.getAbsolutePath());
+	}
+
+	@After
+	public void deleteLogFiles() {
+		System.clearProperty("mapped.log.file");
+		System.clearProperty("mapped.log.maxFileSize");
+		logFile.delete();
+		new File(logFile + ".1").delete();
+		new File(logFile + ".2").delete();
+	}
+
+	@Test
+	public void testTruncatedOnStop() throws Exception {
+
+		LogbackConfigurer.initLogging(LOCATION);
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			logger.info("message {}", i);
+			expected.append("INFO mapped - message ").append(i).append('\n');
+		}
+		LogbackConfigurer.shutdownLogging();
+
+		// several 1KB chunks were mapped
+		Assert.assertEquals(expected.toString().replace("\n", System.getProperty("line.separator")), read(logFile));
+	}
+
+	@Test
+	public void testAppendAfterCrash() throws Exception {
+
+		// a file left mapped by a crashed JVM
+		OutputStream out = new FileOutputStream(logFile);
+		out.write("before crash\n".getBytes("UTF-8"));
+		out.write(new byte[2000]);
+		out.close();
+
+		LogbackConfigurer.initLogging(LOCATION);
+		logger.info("after restart");
+		LogbackConfigurer.shutdownLogging();
+
+		Assert.assertEquals("before crash\nINFO mapped - after restart" + System.getProperty("line.separator"), read(logFile));
+	}
+
+	@Test
+	public void testRollover() throws Exception {
+
+		System.setProperty("mapped.log.maxFileSize", "2KB");
+		LogbackConfigurer.initLogging(LOCATION);
+		for (int i = 0; i < 300; i++) {
+			logger.info("message {}", i);
+		}
+		LogbackConfigurer.shutdownLogging();
+
+		String oldest = read(new File(logFile + ".2"));
+		String previous = read(new File(logFile + ".1"));
+		String current = read(logFile);
+		Assert.assertTrue(oldest.length() >= 2048);
+		Assert.assertTrue(previous.length() >= 2048 && previous.length() < 2048 + 100);
+		Assert.assertFalse("File not truncated", (oldest + previous + current).contains("\u0000"));
+		Assert.assertTrue(current.endsWith("message 299" + System.getProperty("line.separator")));
+		Assert.assertTrue(previous.startsWith("INFO mapped - message"));
+	}
+
+	private String read(File file) throws IOException {
+		return new String(FileCopyUtils.copyToByteArray(file), "UTF-8");
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+/**
+ * Test for {@link JsonEncoder}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class JsonEncoderTest {
+
+	private static final long TIMESTAMP = 1337074337042L;
+
+	private final Logger logger = (Logger) LoggerFactory.getLogger("json.test");
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	private final JsonEncoder encoder = new JsonEncoder();
+
+	@Before
+	public void initEncoder() throws IOException {
+		encoder.init(out);
+		encoder.start();
+	}
+
+	@After
+	public void clearMdc() {
+		MDC.clear();
+	}
+
+	@Test
+	public void testFields() throws Exception {
+
+		MDC.put("user", "joe");
+		encode(Level.INFO, "Hello {}, you are {}", null, "world", 42);
+
+		Assert.assertEquals(
+				"{\"timestamp\":\"2012-05-15T09:32:17.042Z\",\"level\":\"INFO\",\"logger\":\"json.test\",\"thread\":\"main\",\"message\":\"Hello world, you are 42\",\"mdc\":{\"user\":\"joe\"}}\n",
+				out.toString("UTF-8"));
+	}
+
+	@Test
+	public void testEscaping() throws Exception {
+
+		encode(Level.WARN, "quote \" backslash \\ newline \n tab \t bell \u0007 accent \u00e9 euro \u20ac clef \ud834\udd1e", null);
+
+		String json = out.toString("UTF-8");
+		Assert.assertTrue(json, json.contains("\"message\":\"quote \\\" backslash \\\\ newline \\n tab \\t bell \\u0007 accent \u00e9 euro \u20ac clef \ud834\udd1e\""));
+	}
+
+	@Test
+	public void testMessageFormattedLikeSlf4j() throws Exception {
+
+		String[] patterns = { "{} {}", "a {} b", "escaped \\{} {}", "double escaped \\\\{}", "{} extra", "{}{}{}", "no placeholder" };
+		Object[][] args = { { "x", null }, { 1L, 2 }, { true, (short) 3 }, { -12, "y" }, { "x", "unused", "unused" }, { Long.MIN_VALUE, 0, (byte) -1 }, { "z" } };
+
+		for (int i = 0; i < patterns.length; i++) {
+			LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, Level.INFO, patterns[i], null, args[i]);
+			JsonWriter writer = new JsonWriter();
+			Assert.assertTrue(writer.writeFormattedMessage(patterns[i], args[i]));
+			Assert.assertEquals(event.getFormattedMessage().replace("\\", "\\\\"), new String(writer.getBytes(), 0, writer.getLength(), "UTF-8"));
+		}
+	}
+
+	@Test
+	public void testFallbackToFormattedMessage() throws Exception {
+
+		encode(Level.INFO, "value {} {}", null, "a", 1.5d);
+
+		Assert.assertTrue(out.toString("UTF-8").contains("\"message\":\"value a 1.5\""));
+	}
+
+	@Test
+	public void testException() throws Exception {
+
+		encode(Level.ERROR, "failure", new IllegalStateException("boom"));
+
+		String json = out.toString("UTF-8");
+		Assert.assertTrue(json, json.contains("\"exception\":\"java.lang.IllegalStateException: boom\\n\\tat "));
+		Assert.assertTrue(json.endsWith("}\n"));
+		Assert.assertEquals("Not a single line", json.indexOf('\n'), json.length() - 1);
+	}
+
+	@Test
+	public void testWriterReused() throws Exception {
+
+		encode(Level.INFO, "first", null);
+		int length = out.size();
+		encode(Level.INFO, "secnd", null);
+
+		Assert.assertEquals(2 * length, out.size());
+		Assert.assertTrue(out.toString("UTF-8").endsWith("\"message\":\"secnd\"}\n"));
+	}
+
+	@Test
+	public void testLargeEvent() throws Exception {
+
+		char[] large = new char[100 * 1024];
+		Arrays.fill(large, 'x');
+		encode(Level.INFO, new String(large), null);
+		int length = out.size();
+		encode(Level.INFO, "small", null);
+
+		Assert.assertTrue(out.toString("UTF-8").substring(length).endsWith("\"message\":\"small\"}\n"));
+	}
+
+	private void encode(Level level, String message, Throwable t, Object... args) throws IOException {
+		LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, level, message, t, args.length > 0 ? args : null);
+		event.setTimeStamp(TIMESTAMP);
+		event.setThreadName("main");
+		encoder.doEncode(event);
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.level;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.jul.LevelChangePropagator;
+import ch.qos.logback.classic.spi.LoggerContextListener;
+
+import com.excilys.ebi.utils.spring.log.logback.JmxUtils;
+import com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer;
+
+/**
+ * Test for {@link LevelManager}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class LevelManagerTest {
+
+	private final LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+
+	private LevelManager levelManager;
+
+	@Before
+	public void initLogging() throws Exception {
+		LogbackConfigurer.initLogging("classpath:com/excilys/ebi/utils/spring/log/logback/logback-test.xml");
+		levelManager = LevelManager.getInstance(loggerContext);
+	}
+
+	@After
+	public void shutdownLogging() {
+		LogbackConfigurer.shutdownLogging();
+	}
+
+	@Test
+	public void testSubtreeLevel() {
+
+		levelManager.setLevelName("com.excilys.ebi.child", "ERROR");
+		Assert.assertEquals("ERROR", levelManager.getEffectiveLevel("com.excilys.ebi.child.grandchild"));
+
+		levelManager.setSubtreeLevelName("com.excilys", "WARN");
+		Assert.assertEquals("WARN", levelManager.getLevel("com.excilys"));
+		Assert.assertNull("descendant level not cleared", levelManager.getLevel("com.excilys.ebi.child"));
+		Assert.assertEquals("WARN", levelManager.getEffectiveLevel("com.excilys.ebi.child.grandchild"));
+		Assert.assertNotNull("appenders were touched", loggerContext.getLogger("ROOT").getAppender("CONSOLE"));
+	}
+
+	@Test
+	public void testTemporaryLevel() throws Exception {
+
+		levelManager.setLevelName("com.excilys.ebi.child", "ERROR");
+		levelManager.setTemporarily("com.excilys", Level.TRACE, true, 200, TimeUnit.MILLISECONDS);
+		Assert.assertEquals("TRACE", levelManager.getEffectiveLevel("com.excilys.ebi.child"));
+		Assert.assertEquals(1, levelManager.getPendingReverts().size());
+
+		Thread.sleep(500);
+		Assert.assertEquals("level not reverted", "DEBUG", levelManager.getLevel("com.excilys"));
+		Assert.assertEquals("descendant level not reverted", "ERROR", levelManager.getLevel("com.excilys.ebi.child"));
+		Assert.assertTrue(levelManager.getPendingReverts().isEmpty());
+	}
+
+	@Test
+	public void testRevertSkipsChangedLoggers() {
+
+		levelManager.setLevelTemporarily("com.excilys", "TRACE", 60);
+		levelManager.setLevelName("com.excilys", "INFO");
+		levelManager.revertAll();
+		Assert.assertEquals("later change overwritten", "INFO", levelManager.getLevel("com.excilys"));
+	}
+
+	@Test
+	public void testJmx() throws Exception {
+
+		ManagementFactory.getPlatformMBeanServer().invoke(JmxUtils.objectName("LevelManager", loggerContext, null), "setLevelName", new Object[] { "jmx", "WARN" },
+				new String[] { String.class.getName(), String.class.getName() });
+		Assert.assertEquals(Level.WARN, loggerContext.getLogger("jmx").getLevel());
+	}
+
+	@Test
+	public void testClearedLevelPropagatedToJul() {
+
+		levelManager.setLevelName("julpropagated", "WARN");
+		Assert.assertEquals(java.util.logging.Level.WARNING, java.util.logging.Logger.getLogger("julpropagated").getLevel());
+
+		levelManager.setLevelName("julpropagated", null);
+		Assert.assertNull("JUL level not cleared", java.util.logging.Logger.getLogger("julpropagated").getLevel());
+
+		int propagators = 0;
+		for (LoggerContextListener listener : loggerContext.getCopyOfListenerList()) {
+			if (listener instanceof LevelChangePropagator) {
+				Assert.assertTrue("LevelChangePropagator not replaced", listener instanceof NullSafeLevelChangePropagator);
+				propagators++;
+			}
+		}
+		Assert.assertEquals(1, propagators);
+	}
+
+	@Test
+	public void testReadingDoesntCreateLoggers() {
+
+		Assert.assertNull(levelManager.getLevel("com.excilys.unknown.child"));
+		Assert.assertEquals("DEBUG", levelManager.getEffectiveLevel("com.excilys.unknown.child"));
+		Assert.assertNull("Logger created", loggerContext.exists("com.excilys.unknown.child"));
+		Assert.assertNull("Logger created", loggerContext.exists("com.excilys.unknown"));
+	}
+}
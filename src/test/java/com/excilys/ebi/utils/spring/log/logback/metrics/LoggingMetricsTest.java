@@ -0,0 +1,90 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.metrics;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.LoggerContext;
+
+import com.excilys.ebi.utils.spring.log.logback.JmxUtils;
+import com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer;
+
+/**
+ * Test for {@link LoggingMetrics}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class LoggingMetricsTest {
+
+	private File logFile;
+
+	@Before
+	public void initLogging() throws Exception {
+		logFile = File.createTempFile("metrics", ".log");
+		System.setProperty("metrics.log.file", logFile.getAbsolutePath());
+		LogbackConfigurer.initLogging("classpath:com/excilys/ebi/utils/spring/log/logback/metrics/logback-metrics.xml");
+	}
+
+	@After
+	public void shutdownLogging() {
+		LogbackConfigurer.shutdownLogging();
+		System.clearProperty("metrics.log.file");
+		logFile.delete();
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+
+		LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+		LoggingMetrics metrics = LoggingMetrics.install(loggerContext);
+		metrics.resetCounters();
+
+		Logger logger = LoggerFactory.getLogger("metrics.a.b");
+		for (int i = 0; i < 10; i++) {
+			logger.info("message {}", i);
+			logger.debug("filtered message {}", i);
+		}
+
+		Assert.assertEquals(Long.valueOf(10), metrics.getEventCountsByLevel().get("INFO"));
+		Assert.assertEquals(Long.valueOf(0), metrics.getEventCountsByLevel().get("DEBUG"));
+		Assert.assertEquals(Long.valueOf(10), metrics.getEventCountsByLoggerPrefix().get("metrics.a"));
+		Assert.assertEquals("metrics.a=10", metrics.getNoisiestLoggerPrefixes().get(0));
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName contextName = JmxUtils.objectName("LoggingMetrics", loggerContext, null);
+		ObjectName appenderName = JmxUtils.objectName("AppenderMetrics", loggerContext, "FILE");
+		Assert.assertTrue(server.isRegistered(contextName));
+		Assert.assertEquals(10L, server.getAttribute(appenderName, "EventCount"));
+		Assert.assertEquals(logFile.length(), server.getAttribute(appenderName, "BytesWritten"));
+		Assert.assertTrue((Long) server.getAttribute(appenderName, "MaxAppendTime") > 0);
+		Assert.assertEquals(-1, server.getAttribute(appenderName, "QueueSize"));
+
+		LogbackConfigurer.shutdownLogging();
+		Assert.assertFalse("MBean not unregistered", server.isRegistered(contextName));
+		Assert.assertFalse("MBean not unregistered", server.isRegistered(appenderName));
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.routing;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.FileSystemUtils;
+
+import ch.qos.logback.classic.Logger;
+
+import com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer;
+
+/**
+ * Test for {@link RoutingAppender}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class RoutingAppenderTest {
+
+	private static final String LOCATION = "classpath:com/excilys/ebi/utils/spring/log/logback/routing/logback-routing.xml";
+
+	private File directory;
+
+	@Before
+	public void initLogging() throws Exception {
+		directory = File.createTempFile("routing", "");
+		directory.delete();
+		directory.mkdir();
+		System.setProperty("routing.dir", directory.getAbsolutePath());
+		LogbackConfigurer.initLogging(LOCATION);
+	}
+
+	@After
+	public void deleteDirectory() {
+		LogbackConfigurer.shutdownLogging();
+		MDC.clear();
+		System.clearProperty("routing.dir");
+		FileSystemUtils.deleteRecursively(directory);
+	}
+
+	private void log(Logger logger, String tenant, String message) {
+		MDC.put("tenant", tenant);
+		logger.info(message);
+		MDC.remove("tenant");
+	}
+
+	private String read(String fileName) throws IOException {
+		return FileCopyUtils.copyToString(new FileReader(new File(directory, fileName))).replace(System.getProperty("line.separator"), "\n");
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() throws Exception {
+
+		Logger logger = (Logger) LoggerFactory.getLogger("routing.lru");
+		RoutingAppender appender = (RoutingAppender) logger.getAppender("LRU");
+
+		for (int i = 0; i < 10; i++) {
+			log(logger, "tenant" + i, "first " + i);
+		}
+		Assert.assertTrue("Too many open appenders", appender.getAppenderCount() <= 4);
+		Assert.assertTrue("No appender evicted", appender.getEvictionCount() > 0);
+
+		// reopened and appended to
+		log(logger, "tenant0", "second 0");
+		log(logger, "../escape", "sanitized");
+		Assert.assertEquals(12, appender.getOpenCount());
+
+		LogbackConfigurer.shutdownLogging();
+
+		Assert.assertEquals("first 0\nsecond 0\n", read("lru-tenant0.log"));
+		Assert.assertEquals("first 9\n", read("lru-tenant9.log"));
+		Assert.assertEquals("sanitized\n", read("lru-___escape-" + Integer.toHexString("../escape".hashCode()) + ".log"));
+	}
+
+	@Test
+	public void testSanitizedKeysDontCollide() throws Exception {
+
+		Assert.assertEquals("tenant-1.a_b", RoutingAppender.sanitize("tenant-1.a_b"));
+
+		Set<String> fileNames = new HashSet<String>();
+		for (String key : new String[] { "a/b", "a:b", "a_b", "a b" }) {
+			Assert.assertTrue("Collision for " + key, fileNames.add(RoutingAppender.sanitize(key)));
+		}
+	}
+
+	@Test
+	public void testIdleEviction() throws Exception {
+
+		Logger logger = (Logger) LoggerFactory.getLogger("routing.idle");
+		RoutingAppender appender = (RoutingAppender) logger.getAppender("IDLE");
+
+		log(logger, "idle", "idle");
+		log(logger, "active", "active 1");
+		Assert.assertEquals(2, appender.getAppenderCount());
+
+		// idle routes are checked at most once per second
+		Thread.sleep(1100);
+		log(logger, "active", "active 2");
+		Assert.assertEquals(1, appender.getEvictionCount());
+		Assert.assertEquals(1, appender.getAppenderCount());
+
+		LogbackConfigurer.shutdownLogging();
+
+		Assert.assertEquals("idle\n", read("idle-idle.log"));
+		Assert.assertEquals("active 1\nactive 2\n", read("idle-active.log"));
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.turbo;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.read.ListAppender;
+
+import com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer;
+
+/**
+ * Test for {@link RateLimitingTurboFilter} and {@link TurboFilterRegistrar}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class RateLimitingTurboFilterTest {
+
+	@After
+	public void shutdownLogging() {
+		LogbackConfigurer.shutdownLogging();
+	}
+
+	@Test
+	public void testRateLimit() throws Exception {
+
+		LogbackConfigurer.initLogging("classpath:com/excilys/ebi/utils/spring/log/logback/turbo/logback-ratelimit.xml");
+		Logger logger = (Logger) LoggerFactory.getLogger("ratelimit");
+		@SuppressWarnings("unchecked")
+		ListAppender<ILoggingEvent> appender = (ListAppender<ILoggingEvent>) logger.getAppender("LIST");
+
+		for (int i = 0; i < 100; i++) {
+			logger.warn("Connection to {} failed", i);
+		}
+		logger.warn("Another message");
+		Assert.assertEquals("burst then limited", 6, appender.list.size());
+		Assert.assertTrue("isWarnEnabled() must not be limited", logger.isWarnEnabled());
+
+		Thread.sleep(300);
+		logger.warn("Connection to {} failed", "again");
+
+		Assert.assertEquals(8, appender.list.size());
+		ILoggingEvent summary = appender.list.get(6);
+		Assert.assertSame(RateLimitingTurboFilter.SUMMARY_MARKER, summary.getMarker());
+		Assert.assertTrue(summary.getFormattedMessage(), summary.getFormattedMessage().startsWith("Suppressed 9"));
+		Assert.assertEquals("Connection to again failed", appender.list.get(7).getFormattedMessage());
+	}
+
+	@Test
+	public void testRegistrar() {
+
+		LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+		TurboFilterRegistrar registrar = new TurboFilterRegistrar();
+		TurboFilter turboFilter = new RateLimitingTurboFilter();
+		registrar.setTurboFilters(Collections.singletonList(turboFilter));
+		registrar.afterPropertiesSet();
+
+		Assert.assertTrue(loggerContext.getTurboFilterList().contains(turboFilter));
+		Assert.assertTrue(turboFilter.isStarted());
+
+		loggerContext.reset();
+		Assert.assertTrue("TurboFilter not installed after reset", loggerContext.getTurboFilterList().contains(turboFilter));
+		Assert.assertTrue("TurboFilter not started after reset", turboFilter.isStarted());
+
+		registrar.destroy();
+		Assert.assertFalse(loggerContext.getTurboFilterList().contains(turboFilter));
+		Assert.assertFalse(turboFilter.isStarted());
+	}
+}
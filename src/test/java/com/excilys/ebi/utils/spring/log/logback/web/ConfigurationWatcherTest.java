@@ -0,0 +1,105 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.web;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.util.FileCopyUtils;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+
+/**
+ * Test for the config file watching of {@link LogbackWebConfigurer}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class ConfigurationWatcherTest {
+
+	private File configFile;
+
+	private MockServletContext servletContext;
+
+	@Before
+	public void createConfigFile() throws IOException {
+		configFile = File.createTempFile("logback-watched", ".xml");
+		writeConfiguration("INFO");
+
+		servletContext = new MockServletContext();
+		servletContext.addInitParameter(LogbackWebConfigurer.CONFIG_LOCATION_PARAM, "file:" + configFile.getAbsolutePath());
+		servletContext.addInitParameter(LogbackWebConfigurer.CONFIG_WATCH_PARAM, "true");
+		servletContext.addInitParameter(LogbackWebConfigurer.CONFIG_WATCH_DELAY_PARAM, "100");
+	}
+
+	@After
+	public void deleteConfigFile() {
+		LogbackWebConfigurer.shutdownLogging(servletContext);
+		configFile.delete();
+	}
+
+	private void writeConfiguration(String level) throws IOException {
+		FileCopyUtils.copy("<configuration><logger name=\"watched\" level=\"" + level + "\" /></configuration>", new FileWriter(configFile));
+	}
+
+	private Level getLevel() {
+		return ((LoggerContext) LoggerFactory.getILoggerFactory()).getLogger("watched").getLevel();
+	}
+
+	@Test
+	public void testReconfiguredOnChange() throws Exception {
+
+		LogbackWebConfigurer.initLogging(servletContext);
+		Assert.assertEquals(Level.INFO, getLevel());
+
+		// a burst of changes
+		writeConfiguration("WARN");
+		writeConfiguration("ERROR");
+
+		for (int i = 0; i < 100 && getLevel() != Level.ERROR; i++) {
+			Thread.sleep(100);
+		}
+		Assert.assertEquals("Not reconfigured", Level.ERROR, getLevel());
+	}
+
+	@Test
+	public void testUnrelatedChangesDontPostpone() throws Exception {
+
+		LogbackWebConfigurer.initLogging(servletContext);
+		File unrelatedFile = new File(configFile.getParentFile(), configFile.getName() + ".log");
+		try {
+			writeConfiguration("ERROR");
+
+			// an unrelated file of the directory written more often than the
+			// debounce delay
+			for (int i = 0; i < 100 && getLevel() != Level.ERROR; i++) {
+				FileCopyUtils.copy("line " + i, new FileWriter(unrelatedFile));
+				Thread.sleep(30);
+			}
+			Assert.assertEquals("Reconfiguration postponed by an unrelated file", Level.ERROR, getLevel());
+
+		} finally {
+			unrelatedFile.delete();
+		}
+	}
+}
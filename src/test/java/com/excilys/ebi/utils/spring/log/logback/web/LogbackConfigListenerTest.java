@@ -0,0 +1,148 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.web;
+
+import javax.servlet.ServletContextEvent;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.mock.web.MockServletContext;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+
+import com.excilys.ebi.utils.spring.log.logback.LogbackConfigurer;
+import com.excilys.ebi.utils.spring.log.logback.test.CaptureAppender;
+
+/**
+ * Test for the asynchronous initialization of {@link LogbackConfigListener}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class LogbackConfigListenerTest {
+
+	private static final String LOCATION = "classpath:com/excilys/ebi/utils/spring/log/logback/web/logback-asyncinit.xml";
+
+	private final LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+
+	private final Logger logger = LoggerFactory.getLogger("asyncinit");
+
+	@After
+	public void shutdownLogging() {
+		LogbackConfigurer.shutdownLogging();
+	}
+
+	@Test
+	public void testReplayInOrder() throws Exception {
+
+		EarlyEventBuffer buffer = EarlyEventBuffer.install(loggerContext, 100);
+		logger.info("before configuration");
+		logger.debug("filtered by the configuration");
+
+		// resetting the context doesn't drop the buffer
+		LogbackConfigurer.initLogging(LOCATION);
+		logger.info("after configuration");
+
+		CaptureAppender appender = CaptureAppender.getCaptureAppender();
+		Assert.assertEquals("Events not buffered", 0, appender.size());
+		Assert.assertEquals(3, buffer.size());
+
+		Assert.assertEquals(0, buffer.replay());
+		Assert.assertEquals(2, appender.size());
+		Assert.assertEquals("before configuration", appender.getMessage(0));
+		Assert.assertEquals("after configuration", appender.getMessage(1));
+
+		logger.info("after replay");
+		Assert.assertEquals("Buffer not removed", 3, appender.size());
+		Assert.assertFalse(loggerContext.getTurboFilterList().contains(buffer));
+	}
+
+	@Test
+	public void testGuardedLogging() throws Exception {
+
+		EarlyEventBuffer buffer = EarlyEventBuffer.install(loggerContext, 100);
+		Assert.assertTrue("Probe denied", logger.isWarnEnabled());
+		if (logger.isWarnEnabled()) {
+			logger.warn("guarded");
+		}
+		Assert.assertEquals("Probe buffered", 1, buffer.size());
+
+		LogbackConfigurer.initLogging(LOCATION);
+		Assert.assertEquals(0, buffer.replay());
+
+		CaptureAppender appender = CaptureAppender.getCaptureAppender();
+		Assert.assertEquals(1, appender.size());
+		Assert.assertEquals("guarded", appender.getMessage(0));
+	}
+
+	@Test
+	public void testReplayedCallerData() throws Exception {
+
+		EarlyEventBuffer buffer = EarlyEventBuffer.install(loggerContext, 100);
+		logger.info("before configuration");
+		LogbackConfigurer.initLogging(LOCATION);
+
+		ListAppender<ILoggingEvent> appender = new ListAppender<ILoggingEvent>();
+		appender.setContext(loggerContext);
+		appender.start();
+		loggerContext.getLogger("asyncinit").addAppender(appender);
+
+		Assert.assertEquals(0, buffer.replay());
+		Assert.assertEquals(1, appender.list.size());
+		Assert.assertEquals("Caller data of the replaying code", 0, appender.list.get(0).getCallerData().length);
+	}
+
+	@Test
+	public void testDroppedEvents() throws Exception {
+
+		EarlyEventBuffer buffer = EarlyEventBuffer.install(loggerContext, 2);
+		for (int i = 0; i < 5; i++) {
+			logger.info("message {}", i);
+		}
+		LogbackConfigurer.initLogging(LOCATION);
+
+		Assert.assertEquals(3, buffer.replay());
+		CaptureAppender appender = CaptureAppender.getCaptureAppender();
+		Assert.assertEquals(2, appender.size());
+		Assert.assertEquals("message 0", appender.getMessage(0));
+		Assert.assertEquals("message 1", appender.getMessage(1));
+	}
+
+	@Test
+	public void testAsyncInitialization() throws Exception {
+
+		MockServletContext servletContext = new MockServletContext();
+		servletContext.addInitParameter(LogbackWebConfigurer.CONFIG_LOCATION_PARAM, LOCATION);
+		servletContext.addInitParameter(LogbackWebConfigurer.ASYNC_INIT_PARAM, "true");
+
+		LogbackConfigListener listener = new LogbackConfigListener();
+		listener.contextInitialized(new ServletContextEvent(servletContext));
+		logger.warn("early event");
+		Assert.assertTrue("Initialization not done", listener.awaitInitialization(10000));
+		logger.warn("late event");
+
+		CaptureAppender appender = CaptureAppender.getCaptureAppender();
+		Assert.assertEquals(2, appender.size());
+		Assert.assertEquals("early event", appender.getMessage(0));
+		Assert.assertEquals(Level.WARN, appender.getLevel(0));
+		Assert.assertEquals("late event", appender.getMessage(1));
+	}
+}
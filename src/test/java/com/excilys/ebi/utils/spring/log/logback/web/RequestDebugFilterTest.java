@@ -0,0 +1,151 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.logback.web;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.spi.FilterReply;
+
+/**
+ * Test for {@link RequestDebugFilter} and {@link RequestDebugTurboFilter}
+ * 
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class RequestDebugFilterTest {
+
+	private final LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+
+	private final Logger logger = loggerContext.getLogger("requestdebug");
+
+	private RequestDebugTurboFilter turboFilter;
+
+	@Before
+	public void addTurboFilter() {
+		logger.setLevel(Level.INFO);
+		turboFilter = new RequestDebugTurboFilter();
+		turboFilter.start();
+		loggerContext.addTurboFilter(turboFilter);
+	}
+
+	@After
+	public void removeTurboFilter() {
+		loggerContext.getTurboFilterList().remove(turboFilter);
+		logger.setLevel(null);
+	}
+
+	@Test
+	public void testHeader() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader(RequestDebugFilter.DEFAULT_HEADER_NAME, "debug");
+
+		Assert.assertEquals(Level.DEBUG, filter(newFilterWithoutToken(), request));
+		Assert.assertFalse("Level not cleared after request", logger.isDebugEnabled());
+	}
+
+	@Test
+	public void testCookie() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setCookies(new Cookie(RequestDebugFilter.DEFAULT_COOKIE_NAME, "trace"));
+
+		Assert.assertEquals(Level.TRACE, filter(newFilterWithoutToken(), request));
+	}
+
+	@Test
+	public void testNoOrInvalidLevel() throws Exception {
+		Assert.assertEquals(Level.INFO, filter(newFilterWithoutToken(), new MockHttpServletRequest()));
+
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader(RequestDebugFilter.DEFAULT_HEADER_NAME, "error");
+		Assert.assertEquals(Level.INFO, filter(newFilterWithoutToken(), request));
+	}
+
+	@Test
+	public void testToken() throws Exception {
+		RequestDebugFilter filter = new RequestDebugFilter();
+		filter.setToken("secret");
+
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader(RequestDebugFilter.DEFAULT_HEADER_NAME, "debug");
+		Assert.assertEquals("Level enabled without token", Level.INFO, filter(filter, request));
+
+		request = new MockHttpServletRequest();
+		request.addHeader(RequestDebugFilter.DEFAULT_HEADER_NAME, "debug:secreT");
+		Assert.assertEquals("Level enabled with a wrong token", Level.INFO, filter(filter, request));
+
+		request = new MockHttpServletRequest();
+		request.addHeader(RequestDebugFilter.DEFAULT_HEADER_NAME, "debug:secret");
+		Assert.assertEquals(Level.DEBUG, filter(filter, request));
+	}
+
+	@Test
+	public void testTurboFilterDecisions() {
+		RequestDebugTurboFilter.setThreadLevel(Level.DEBUG);
+		try {
+			Assert.assertEquals(FilterReply.ACCEPT, turboFilter.decide(null, logger, Level.DEBUG, "debug", null, null));
+			Assert.assertEquals("Enabled event not left to the other filters", FilterReply.NEUTRAL, turboFilter.decide(null, logger, Level.WARN, "warn", null, null));
+			Assert.assertEquals(FilterReply.NEUTRAL, turboFilter.decide(null, logger, Level.TRACE, "trace", null, null));
+
+			logger.setLevel(Level.OFF);
+			Assert.assertEquals("Logger turned OFF enabled", FilterReply.NEUTRAL, turboFilter.decide(null, logger, Level.ERROR, "error", null, null));
+			Assert.assertEquals("Logger turned OFF enabled", FilterReply.NEUTRAL, turboFilter.decide(null, logger, Level.DEBUG, "debug", null, null));
+		} finally {
+			RequestDebugTurboFilter.setThreadLevel(null);
+		}
+	}
+
+	@Test(expected = ServletException.class)
+	public void testTokenRequired() throws Exception {
+		new RequestDebugFilter().init(new MockFilterConfig());
+	}
+
+	private RequestDebugFilter newFilterWithoutToken() {
+		RequestDebugFilter filter = new RequestDebugFilter();
+		filter.setAllowWithoutToken(true);
+		return filter;
+	}
+
+	/**
+	 * @return the lowest level enabled for the logger while the request runs
+	 */
+	private Level filter(RequestDebugFilter filter, MockHttpServletRequest request) throws Exception {
+		filter.init(new MockFilterConfig());
+		final Level[] enabledLevel = new Level[1];
+		filter.doFilter(request, new MockHttpServletResponse(), new FilterChain() {
+			public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+				enabledLevel[0] = logger.isTraceEnabled() ? Level.TRACE : logger.isDebugEnabled() ? Level.DEBUG : Level.INFO;
+			}
+		});
+		return enabledLevel[0];
+	}
+}
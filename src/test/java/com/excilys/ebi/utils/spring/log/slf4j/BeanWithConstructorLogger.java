@@ -0,0 +1,38 @@
+/**
+ * Copyright 2011-2012 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.excilys.ebi.utils.spring.log.slf4j;
+
+import org.slf4j.Logger;
+
+/**
+ * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
+ */
+public class BeanWithConstructorLogger {
+
+	private final Logger logger;
+
+	public BeanWithConstructorLogger(@InjectLogger Logger logger) {
+		this.logger = logger;
+	}
+
+	public static BeanWithConstructorLogger newInstance(@InjectLogger(cacheLevels = true) Logger logger) {
+		return new BeanWithConstructorLogger(logger);
+	}
+
+	public Logger getLogger() {
+		return logger;
+	}
+}
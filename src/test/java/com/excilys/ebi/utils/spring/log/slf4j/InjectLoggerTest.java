@@ -15,12 +15,18 @@
  */
 package com.excilys.ebi.utils.spring.log.slf4j;
 
+import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
 
 import org.junit.Test;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 
+import com.excilys.ebi.utils.spring.log.logback.LevelCachingLogger;
+
 /**
  * @author <a href="mailto:slandelle@excilys.com">Stephane LANDELLE</a>
  */
@@ -38,17 +44,68 @@ public class InjectLoggerTest {
 	}
 
 	/**
-	 * Check that an IllegalStateException is thrown if the logger member is
-	 * static
+	 * Check that a static logger member is injected with the logger of its
+	 * declaring class
+	 */
+	@Test
+	public void testStaticLoggerInjection() {
+
+		ApplicationContext ctx = new ClassPathXmlApplicationContext("com/excilys/ebi/utils/spring/log/slf4j/bean-with-static-logger-context.xml");
+		BeanWithStaticLogger bean = ctx.getBean(BeanWithStaticLogger.class);
+		assertNotNull("logger not injected", bean.getLogger());
+		assertEquals("wrong logger", BeanWithStaticLogger.class.getName(), bean.getLogger().getName());
+	}
+
+	/**
+	 * Check that constructor and factory method parameters are injected
 	 */
-	@Test(expected = IllegalArgumentException.class)
-	public void testStaticLoggerInjectionFailure() throws Throwable {
+	@Test
+	public void testConstructorInjection() {
+
+		ApplicationContext ctx = new ClassPathXmlApplicationContext("com/excilys/ebi/utils/spring/log/slf4j/bean-with-constructor-logger-context.xml");
+		BeanWithConstructorLogger first = ctx.getBean("constructor", BeanWithConstructorLogger.class);
+		BeanWithConstructorLogger second = ctx.getBean("constructor", BeanWithConstructorLogger.class);
+		assertNotSame("not a prototype", first, second);
+		assertNotNull("logger not injected", first.getLogger());
+		assertEquals("wrong logger", BeanWithConstructorLogger.class.getName(), first.getLogger().getName());
+		assertSame("logger not shared", first.getLogger(), second.getLogger());
+
+		BeanWithConstructorLogger factoryBean = ctx.getBean("factory", BeanWithConstructorLogger.class);
+		assertSame("level caching logger not injected", LevelCachingLogger.wrap(first.getLogger()), factoryBean.getLogger());
+	}
+
+	/**
+	 * Check that the cached metadata still injects every new instance
+	 */
+	@Test
+	public void testCachedInjection() {
+
+		InjectLoggerAnnotationBeanPostProcessor processor = new InjectLoggerAnnotationBeanPostProcessor();
+		BeanWithLogger first = (BeanWithLogger) processor.postProcessBeforeInitialization(new BeanWithLogger(), "first");
+		BeanWithLogger second = (BeanWithLogger) processor.postProcessBeforeInitialization(new BeanWithLogger(), "second");
+		assertNotNull("logger not injected", second.getLogger());
+		assertSame("logger not cached", first.getLogger(), second.getLogger());
+
+		processor.evictCache(BeanWithLogger.class.getClassLoader());
+		BeanWithLogger third = (BeanWithLogger) processor.postProcessBeforeInitialization(new BeanWithLogger(), "third");
+		assertNotNull("logger not injected after eviction", third.getLogger());
+	}
+
+	/**
+	 * Check that the injector generated at compile time is used along with
+	 * reflective injection of the superclass fields
+	 */
+	@Test
+	public void testGeneratedInjector() throws ClassNotFoundException {
 
-		try {
-			new ClassPathXmlApplicationContext("com/excilys/ebi/utils/spring/log/slf4j/bean-with-static-logger-context.xml");
+		Class<?> injectorClass = Class.forName(BeanWithGeneratedInjector.class.getName() + LoggerInjector.GENERATED_CLASS_SUFFIX);
+		assertTrue("static injector not generated", StaticLoggerInjector.class.isAssignableFrom(injectorClass));
 
-		} catch (RuntimeException e) {
-			throw e.getCause();
-		}
+		InjectLoggerAnnotationBeanPostProcessor processor = new InjectLoggerAnnotationBeanPostProcessor();
+		BeanWithGeneratedInjector bean = (BeanWithGeneratedInjector) processor.postProcessBeforeInitialization(new BeanWithGeneratedInjector(), "bean");
+		assertNotNull("logger not injected", bean.getGeneratedLogger());
+		assertSame("superclass logger not injected", bean.getGeneratedLogger(), bean.getLogger());
+		assertSame("level caching logger not injected", LevelCachingLogger.wrap(bean.getLogger()), bean.getLevelCachingLogger());
+		assertEquals("static logger not injected", BeanWithGeneratedInjector.class.getName(), BeanWithGeneratedInjector.getStaticLogger().getName());
 	}
 }